@@ -0,0 +1,540 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf;
+
+import java.util.Arrays;
+
+import jtxt.sfnt.ttf.parser.OutlineSink;
+
+/**
+ * Generates the signed distance field of a glyph outline: a grid which holds,
+ * for each pixel, the distance from its center to the nearest point of the
+ * outline, positive inside the outline and negative outside. A distance field
+ * can be resampled to any size and turned back into coverage with a simple
+ * threshold, so a single field serves a glyph at every scale.
+ * 
+ * <p>
+ * A generator produces either a single-channel field or a multi-channel field
+ * (MSDF). In a multi-channel field the edges of each contour are colored so
+ * that the edges on either side of every corner have different colors, and
+ * each of the three channels holds the distance to the nearest edge of its
+ * own color. The median of the three channels reproduces sharp corners which
+ * a single channel would round off once it is magnified.
+ * </p>
+ * 
+ * <p>
+ * Curves are flattened into line segments as they are received, in the same
+ * way that the {@link Rasterizer} flattens them, and the sign of each
+ * distance is taken from the non-zero winding rule, so overlapping contours
+ * produce the same shape in the field as they do when rasterized. Like a
+ * rasterizer, a generator keeps its working memory between outlines and must
+ * not be shared between threads.
+ * </p>
+ */
+public class DistanceFieldGenerator implements OutlineSink {
+    /*
+     * The maximum distance (in pixels) which a flattened curve may deviate
+     * from the true curve.
+     */
+    private static final float TOLERANCE = 0.05f;
+    
+    /*
+     * The sine of the largest angle between two edges at which their joint is
+     * still considered smooth, rather than a corner whose edges must be given
+     * different colors.
+     */
+    private static final float CORNER_THRESHOLD = (float)Math.sin(3.0);
+    
+    // The channels which an edge contributes to, as a mask.
+    private static final byte RED = 1,
+                              GREEN = 1 << 1,
+                              BLUE = 1 << 2,
+                              CYAN = GREEN | BLUE,
+                              MAGENTA = RED | BLUE,
+                              YELLOW = RED | GREEN,
+                              WHITE = RED | GREEN | BLUE;
+    
+    private final boolean multiChannel;
+    private int width,
+                height;
+    private float range;
+    
+    /*
+     * The line segments which the outline has been flattened into, and the
+     * index of the edge (the segment, or curve, of the outline as it was
+     * received) which each of them belongs to.
+     */
+    private float[] x0s = new float[64],
+                    y0s = new float[64],
+                    x1s = new float[64],
+                    y1s = new float[64];
+    private int[] pieceEdges = new int[64];
+    private int pieces;
+    
+    // The first piece of each edge, and the channels which it is colored in.
+    private int[] edgeStarts = new int[16];
+    private byte[] colors = new byte[16];
+    private int edges;
+    
+    // The first edge of each contour.
+    private int[] contourStarts = new int[4];
+    private int contours;
+    
+    // The starting point and current point of the contour being built.
+    private float startX,
+                  startY,
+                  lastX,
+                  lastY;
+    private boolean open;
+    
+    /**
+     * @param multiChannel Whether to generate a field with three channels
+     *                     rather than one.
+     */
+    public DistanceFieldGenerator(boolean multiChannel) {
+        this.multiChannel = multiChannel;
+    }
+    
+    /**
+     * @return The number of bytes which this generator writes for each
+     *         pixel, which is three for a multi-channel field and one
+     *         otherwise.
+     */
+    public int getChannels() {
+        return multiChannel ? 3 : 1;
+    }
+    
+    /**
+     * Prepares this generator for a new outline, discarding the edges of the
+     * previous outline.
+     * 
+     * @param width The width of the field which will be written.
+     * @param height The height of the field which will be written.
+     * @param range The distance from the outline, in pixels, at which the
+     *              field reaches its minimum and maximum values. Distances
+     *              beyond the range are clamped.
+     */
+    public void reset(int width, int height, float range) {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("The dimensions of the field "
+                                               + "cannot be negative.");
+        if (!(range > 0))
+            throw new IllegalArgumentException("The range of a distance "
+                                               + "field must be positive.");
+        
+        this.width = width;
+        this.height = height;
+        this.range = range;
+        pieces = edges = contours = 0;
+        open = false;
+    }
+    
+    @Override
+    public void moveTo(float x, float y) {
+        closePath();
+        startX = lastX = x;
+        startY = lastY = y;
+        open = true;
+        
+        if (contours == contourStarts.length)
+            contourStarts = Arrays.copyOf(contourStarts, contours * 2);
+        contourStarts[contours++] = edges;
+    }
+    
+    @Override
+    public void lineTo(float x, float y) {
+        if (x == lastX && y == lastY) return;
+        
+        beginEdge();
+        addPiece(x, y);
+    }
+    
+    /**
+     * Adds a quadratic Bezier curve from the current point to (x,&nbsp;y),
+     * using (cx,&nbsp;cy) as the control point. The curve is flattened into
+     * line segments which all belong to a single edge.
+     */
+    @Override
+    public void quadTo(float cx, float cy, float x, float y) {
+        float ddx = lastX - 2 * cx + x,
+              ddy = lastY - 2 * cy + y;
+        float dd = (float)Math.sqrt(ddx * ddx + ddy * ddy);
+        int n = Math.max((int)Math.ceil(Math.sqrt(dd / (8 * TOLERANCE))), 1);
+        
+        float px = lastX,
+              py = lastY;
+        beginEdge();
+        for (int i = 1; i <= n; i++) {
+            float t = (float)i / n,
+                  mt = 1 - t;
+            addPiece(mt * mt * px + 2 * mt * t * cx + t * t * x,
+                     mt * mt * py + 2 * mt * t * cy + t * t * y);
+        }
+    }
+    
+    /**
+     * Adds a cubic Bezier curve from the current point to (x,&nbsp;y), using
+     * (c1x,&nbsp;c1y) and (c2x,&nbsp;c2y) as the control points. The curve is
+     * flattened into line segments which all belong to a single edge.
+     */
+    @Override
+    public void curveTo(float c1x,
+                        float c1y,
+                        float c2x,
+                        float c2y,
+                        float x,
+                        float y) {
+        float ddx1 = lastX - 2 * c1x + c2x,
+              ddy1 = lastY - 2 * c1y + c2y,
+              ddx2 = c1x - 2 * c2x + x,
+              ddy2 = c1y - 2 * c2y + y;
+        float dd = (float)Math.sqrt(Math.max(ddx1 * ddx1 + ddy1 * ddy1,
+                                             ddx2 * ddx2 + ddy2 * ddy2));
+        int n = Math.max((int)Math.ceil(Math.sqrt(3 * dd / (4 * TOLERANCE))),
+                         1);
+        
+        float px = lastX,
+              py = lastY;
+        beginEdge();
+        for (int i = 1; i <= n; i++) {
+            float t = (float)i / n,
+                  mt = 1 - t;
+            float a = mt * mt * mt,
+                  b = 3 * mt * mt * t,
+                  c = 3 * mt * t * t,
+                  d = t * t * t;
+            addPiece(a * px + b * c1x + c * c2x + d * x,
+                     a * py + b * c1y + c * c2y + d * y);
+        }
+    }
+    
+    /**
+     * Closes the current contour by adding an edge back to its starting
+     * point. Contours are also closed implicitly whenever a new contour is
+     * started or the field is generated.
+     */
+    @Override
+    public void closePath() {
+        if (!open) return;
+        
+        lineTo(startX, startY);
+        open = false;
+    }
+    
+    private void beginEdge() {
+        if (edges == edgeStarts.length) {
+            edgeStarts = Arrays.copyOf(edgeStarts, edges * 2);
+            colors = Arrays.copyOf(colors, edges * 2);
+        }
+        edgeStarts[edges] = pieces;
+        colors[edges++] = WHITE;
+    }
+    
+    private void addPiece(float x, float y) {
+        if (pieces == x0s.length) {
+            int capacity = pieces * 2;
+            x0s = Arrays.copyOf(x0s, capacity);
+            y0s = Arrays.copyOf(y0s, capacity);
+            x1s = Arrays.copyOf(x1s, capacity);
+            y1s = Arrays.copyOf(y1s, capacity);
+            pieceEdges = Arrays.copyOf(pieceEdges, capacity);
+        }
+        
+        x0s[pieces] = lastX;
+        y0s[pieces] = lastY;
+        x1s[pieces] = x;
+        y1s[pieces] = y;
+        pieceEdges[pieces++] = edges - 1;
+        lastX = x;
+        lastY = y;
+    }
+    
+    // Gets the index after the last piece of an edge.
+    private int getEdgeEnd(int edge) {
+        return edge + 1 < edges ? edgeStarts[edge + 1] : pieces;
+    }
+    
+    // Gets the index after the last edge of a contour.
+    private int getContourEnd(int contour) {
+        return contour + 1 < contours ? contourStarts[contour + 1] : edges;
+    }
+    
+    /*
+     * Determines whether the joint between the end of one piece and the
+     * start of the next is a corner.
+     */
+    private boolean isCorner(int before, int after) {
+        float ax = x1s[before] - x0s[before],
+              ay = y1s[before] - y0s[before],
+              bx = x1s[after] - x0s[after],
+              by = y1s[after] - y0s[after];
+        float length = (float)Math.sqrt((ax * ax + ay * ay)
+                                        * (bx * bx + by * by));
+        if (length == 0) return false;
+        
+        return ax * bx + ay * by <= 0
+               || Math.abs(ax * by - ay * bx) > CORNER_THRESHOLD * length;
+    }
+    
+    /*
+     * Colors the edges of each contour so that the two edges which meet at a
+     * corner never share more than one channel. Contours without corners are
+     * left white, so all three channels hold the true distance to them.
+     */
+    private void colorEdges() {
+        for (int contour = 0; contour < contours; contour++) {
+            int first = contourStarts[contour],
+                end = getContourEnd(contour),
+                count = end - first;
+            if (count == 0) continue;
+            
+            int[] corners = new int[count];
+            int cornerCount = 0;
+            for (int edge = first; edge < end; edge++) {
+                int previous = edge == first ? end - 1 : edge - 1;
+                if (isCorner(getEdgeEnd(previous) - 1, edgeStarts[edge]))
+                    corners[cornerCount++] = edge;
+            }
+            
+            if (cornerCount == 0) {
+                for (int edge = first; edge < end; edge++)
+                    colors[edge] = WHITE;
+            }
+            else if (cornerCount == 1) {
+                /*
+                 * A teardrop has a single corner, so its edges are divided
+                 * into three runs whose colors differ on either side of the
+                 * corner. With fewer than three edges, the corner is left to
+                 * be rounded.
+                 */
+                for (int i = 0; i < count; i++) {
+                    int edge = first + (corners[0] - first + i) % count;
+                    colors[edge] = count < 3
+                                   ? WHITE
+                                   : i * 3 < count
+                                   ? MAGENTA
+                                   : i * 3 < 2 * count ? WHITE : YELLOW;
+                }
+            }
+            else {
+                byte[] cycle = { CYAN, MAGENTA, YELLOW };
+                for (int c = 0; c < cornerCount; c++) {
+                    /*
+                     * The last run also meets the first, so it takes the one
+                     * color which differs from both of its neighbors.
+                     */
+                    byte color = c == cornerCount - 1 && c % 3 == 0
+                                 ? cycle[1]
+                                 : cycle[c % 3];
+                    int from = corners[c],
+                        to = c + 1 < cornerCount ? corners[c + 1] : corners[0];
+                    int edge = from;
+                    do {
+                        colors[edge] = color;
+                        edge = edge + 1 == end ? first : edge + 1;
+                    } while (edge != to);
+                }
+            }
+        }
+    }
+    
+    /*
+     * Computes the sign of the area enclosed by the outline, which tells on
+     * which side of its edges the inside of the outline lies.
+     */
+    private float getOrientation() {
+        double area = 0;
+        for (int i = 0; i < pieces; i++)
+            area += (double)x0s[i] * y1s[i] - (double)x1s[i] * y0s[i];
+        
+        return area < 0 ? -1 : 1;
+    }
+    
+    /*
+     * Computes the winding number of the outline around a point, by counting
+     * the pieces which cross a ray extending to the right of the point.
+     */
+    private int getWinding(float x, float y) {
+        int winding = 0;
+        for (int i = 0; i < pieces; i++) {
+            float y0 = y0s[i],
+                  y1 = y1s[i];
+            if ((y0 <= y) == (y1 <= y)) continue;
+            
+            float t = (y - y0) / (y1 - y0);
+            if (x0s[i] + t * (x1s[i] - x0s[i]) > x)
+                winding += y1 > y0 ? 1 : -1;
+        }
+        
+        return winding;
+    }
+    
+    /**
+     * Generates the distance field of the outline into the given array. Each
+     * distance is stored as an unsigned byte, where 128 lies on the outline,
+     * 255 lies the full range inside of it and 0 the full range outside of
+     * it. The channels of each pixel of a multi-channel field are stored
+     * together, in the order red, green, blue.
+     * 
+     * @param dst The array to write the field into.
+     * @param offset The index of the top-left pixel of the field.
+     * @param stride The distance between the start of each row, in bytes.
+     */
+    public void generate(byte[] dst, int offset, int stride) {
+        closePath();
+        if (multiChannel) colorEdges();
+        float orientation = getOrientation();
+        int channels = getChannels();
+        
+        float[] distances = new float[3];
+        for (int y = 0; y < height; y++) {
+            float py = y + 0.5f;
+            for (int x = 0; x < width; x++) {
+                float px = x + 0.5f;
+                float inside = getWinding(px, py) != 0 ? 1 : -1;
+                float distance = inside * getDistance(px, py);
+                
+                int index = offset + y * stride + x * channels;
+                if (!multiChannel) {
+                    dst[index] = encode(distance);
+                    continue;
+                }
+                
+                /*
+                 * Where the median of the channels disagrees with the true
+                 * sign of the pixel, as it may where contours overlap or
+                 * edges were colored ambiguously, the pixel falls back to
+                 * the true distance in every channel.
+                 */
+                getChannelDistances(px, py, orientation, distances);
+                float median = Math.max(Math.min(distances[0], distances[1]),
+                                        Math.min(Math.max(distances[0],
+                                                          distances[1]),
+                                                 distances[2]));
+                if (median * inside <= 0 || pieces == 0)
+                    distances[0] = distances[1] = distances[2] = distance;
+                for (int c = 0; c < 3; c++)
+                    dst[index + c] = encode(distances[c]);
+            }
+        }
+    }
+    
+    private byte encode(float distance) {
+        float value = 0.5f + 0.5f * distance / range;
+        
+        return (byte)Math.round(Math.max(0, Math.min(value, 1)) * 255);
+    }
+    
+    // Computes the unsigned distance from a point to the outline.
+    private float getDistance(float x, float y) {
+        float best = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < pieces; i++) {
+            float dx = x1s[i] - x0s[i],
+                  dy = y1s[i] - y0s[i],
+                  ex = x - x0s[i],
+                  ey = y - y0s[i];
+            float length = dx * dx + dy * dy;
+            float t = length > 0
+                      ? Math.max(0, Math.min((ex * dx + ey * dy) / length, 1))
+                      : 0;
+            float qx = ex - t * dx,
+                  qy = ey - t * dy;
+            best = Math.min(best, qx * qx + qy * qy);
+        }
+        
+        return pieces == 0 ? range : (float)Math.sqrt(best);
+    }
+    
+    /*
+     * Computes the signed distance from a point to the nearest edge of each
+     * color. Where the nearest point lies beyond the end of an edge, the
+     * distance is measured to the extension of the edge instead (the pseudo-
+     * distance), which keeps the channels straight on either side of a
+     * corner.
+     */
+    private void getChannelDistances(float x,
+                                     float y,
+                                     float orientation,
+                                     float[] out) {
+        for (int c = 0; c < 3; c++) {
+            int channel = 1 << c;
+            float best = Float.POSITIVE_INFINITY,
+                  bestOrthogonality = 0;
+            int nearest = -1;
+            for (int i = 0; i < pieces; i++) {
+                if ((colors[pieceEdges[i]] & channel) == 0) continue;
+                
+                float dx = x1s[i] - x0s[i],
+                      dy = y1s[i] - y0s[i],
+                      ex = x - x0s[i],
+                      ey = y - y0s[i];
+                float length = dx * dx + dy * dy;
+                float t = length > 0
+                          ? Math.max(0,
+                                     Math.min((ex * dx + ey * dy) / length, 1))
+                          : 0;
+                float qx = ex - t * dx,
+                      qy = ey - t * dy;
+                float squared = qx * qx + qy * qy;
+                
+                /*
+                 * Pieces which share an endpoint are equally near to points
+                 * beyond it, so the piece that the point lies more squarely
+                 * in front of is preferred.
+                 */
+                float orthogonality = squared > 0 && length > 0
+                                      ? Math.abs(dx * ey - dy * ex)
+                                        / (float)Math.sqrt(length * squared)
+                                      : 0;
+                if (squared < best * 0.9999f
+                    || squared <= best * 1.0001f
+                       && orthogonality > bestOrthogonality) {
+                    best = squared;
+                    bestOrthogonality = orthogonality;
+                    nearest = i;
+                }
+            }
+            
+            out[c] = nearest < 0
+                     ? -range
+                     : getSignedDistance(nearest, x, y, best, orientation);
+        }
+    }
+    
+    private float getSignedDistance(int piece,
+                                    float x,
+                                    float y,
+                                    float squared,
+                                    float orientation) {
+        float dx = x1s[piece] - x0s[piece],
+              dy = y1s[piece] - y0s[piece],
+              ex = x - x0s[piece],
+              ey = y - y0s[piece];
+        float length = dx * dx + dy * dy;
+        if (length == 0) return -(float)Math.sqrt(squared);
+        
+        float cross = dx * ey - dy * ex,
+              sign = cross * orientation >= 0 ? 1 : -1;
+        float t = (ex * dx + ey * dy) / length;
+        int edge = pieceEdges[piece];
+        boolean beyond = t < 0 && piece == edgeStarts[edge]
+                         || t > 1 && piece == getEdgeEnd(edge) - 1;
+        if (beyond)
+            return Math.abs(cross) / (float)Math.sqrt(length) * sign;
+        
+        return (float)Math.sqrt(squared) * sign;
+    }
+}
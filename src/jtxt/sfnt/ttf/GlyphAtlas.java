@@ -0,0 +1,527 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import jtxt.sfnt.ttf.parser.Glyph;
+import jtxt.sfnt.ttf.parser.OTFFileReader;
+import jtxt.sfnt.ttf.parser.TransformingSink;
+
+/**
+ * A texture which holds the signed distance fields of a set of glyphs,
+ * packed into rows. The fields are generated once, at a single size of the
+ * em square, and any glyph in the atlas can then be reconstructed at any
+ * size by resampling its field and thresholding the distances, rather than
+ * rasterizing its outline again for every size that it is drawn at.
+ * 
+ * <p>
+ * Each field extends past the outline of its glyph by the spread of the
+ * atlas, which is the distance (in pixels of the atlas) covered by the range
+ * of values in the field. A larger spread allows the glyphs to be drawn with
+ * effects such as outlines and shadows, at the cost of a larger atlas. The
+ * fields are separated by an empty pixel so that they may be filtered
+ * without bleeding into one another.
+ * </p>
+ * 
+ * <p>
+ * An atlas is immutable once it has been created, so it may be shared
+ * between threads.
+ * </p>
+ */
+public class GlyphAtlas {
+    // The number of glyphs whose fields are generated by a single task.
+    private static final int SPLIT_THRESHOLD = 8;
+    
+    private final int[] ids;
+    /*
+     * The placement of each glyph in the atlas, and the position of the top-
+     * left corner of its field relative to the origin of the glyph, where y
+     * increases downwards.
+     */
+    private final int[] xs,
+                        ys,
+                        widths,
+                        heights,
+                        lefts,
+                        tops;
+    private final byte[] pixels;
+    private final int width,
+                      height,
+                      channels,
+                      emSize;
+    private final float spread;
+    
+    private GlyphAtlas(int[] ids,
+                       int[] xs,
+                       int[] ys,
+                       int[] widths,
+                       int[] heights,
+                       int[] lefts,
+                       int[] tops,
+                       byte[] pixels,
+                       int width,
+                       int height,
+                       int channels,
+                       int emSize,
+                       float spread) {
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+        this.widths = widths;
+        this.heights = heights;
+        this.lefts = lefts;
+        this.tops = tops;
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.emSize = emSize;
+        this.spread = spread;
+    }
+    
+    /**
+     * Creates an atlas of the given glyphs, generating their fields in
+     * parallel on the common fork/join pool.
+     * 
+     * @param font The font which the glyphs belong to.
+     * @param ids The IDs of the glyphs, where repeated IDs are ignored.
+     * @param emSize The size of the em square in the atlas, in pixels.
+     * @param spread The distance from the outline, in pixels of the atlas, at
+     *               which each field reaches its minimum and maximum values.
+     * @param multiChannel Whether to generate multi-channel fields, which
+     *                     keep the corners of the glyphs sharp when they are
+     *                     magnified.
+     * 
+     * @return The atlas.
+     */
+    public static GlyphAtlas create(OTFFileReader font,
+                                    int[] ids,
+                                    int emSize,
+                                    float spread,
+                                    boolean multiChannel) {
+        return create(font,
+                      ids,
+                      emSize,
+                      spread,
+                      multiChannel,
+                      ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Creates an atlas of the given glyphs, generating their fields in
+     * parallel on the given pool. The outlines of the glyphs are read on the
+     * calling thread, and each field is then written into its own region of
+     * the atlas.
+     * 
+     * @param font The font which the glyphs belong to.
+     * @param ids The IDs of the glyphs, where repeated IDs are ignored.
+     * @param emSize The size of the em square in the atlas, in pixels.
+     * @param spread The distance from the outline, in pixels of the atlas, at
+     *               which each field reaches its minimum and maximum values.
+     * @param multiChannel Whether to generate multi-channel fields.
+     * @param pool The pool to generate the fields on.
+     * 
+     * @return The atlas.
+     */
+    public static GlyphAtlas create(OTFFileReader font,
+                                    int[] ids,
+                                    int emSize,
+                                    float spread,
+                                    boolean multiChannel,
+                                    ForkJoinPool pool) {
+        if (emSize <= 0)
+            throw new IllegalArgumentException("The size of the em square "
+                                               + "must be positive.");
+        if (!(spread > 0))
+            throw new IllegalArgumentException("The spread of an atlas must "
+                                               + "be positive.");
+        
+        ids = Arrays.stream(ids).distinct().sorted().toArray();
+        int count = ids.length,
+            padding = (int)Math.ceil(spread),
+            channels = multiChannel ? 3 : 1;
+        double scale = (double)emSize / font.getUPEM();
+        
+        Glyph[] glyphs = new Glyph[count];
+        int[] widths = new int[count],
+              heights = new int[count],
+              lefts = new int[count],
+              tops = new int[count];
+        long area = 0;
+        int widest = 1;
+        for (int i = 0; i < count; i++) {
+            if (ids[i] < 0 || ids[i] >= font.getNumGlyphs())
+                throw new IllegalArgumentException("There is no glyph "
+                                                   + ids[i]
+                                                   + " in the font.");
+            
+            glyphs[i] = font.getGlyphById(ids[i]);
+            Rectangle2D bounds = glyphs[i].getBounds();
+            if (bounds.isEmpty()) continue;
+            
+            int x0 = (int)Math.floor(bounds.getMinX() * scale) - padding,
+                x1 = (int)Math.ceil(bounds.getMaxX() * scale) + padding,
+                y0 = (int)Math.floor(-bounds.getMaxY() * scale) - padding,
+                y1 = (int)Math.ceil(-bounds.getMinY() * scale) + padding;
+            lefts[i] = x0;
+            tops[i] = y0;
+            widths[i] = x1 - x0;
+            heights[i] = y1 - y0;
+            area += (long)(widths[i] + 1) * (heights[i] + 1);
+            widest = Math.max(widest, widths[i] + 1);
+        }
+        
+        /*
+         * The fields are packed into rows from the tallest to the shortest,
+         * in an atlas whose width is the power of two which would make it
+         * roughly square.
+         */
+        int width = Math.max(ceilPowerOfTwo(widest),
+                             ceilPowerOfTwo((int)Math.ceil(Math.sqrt(area))));
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> heights[b] - heights[a]);
+        
+        int[] xs = new int[count],
+              ys = new int[count];
+        int x = 0,
+            y = 0,
+            row = 0;
+        for (int i : order) {
+            if (widths[i] == 0) continue;
+            
+            if (x + widths[i] > width) {
+                x = 0;
+                y += row + 1;
+                row = 0;
+            }
+            xs[i] = x;
+            ys[i] = y;
+            x += widths[i] + 1;
+            row = Math.max(row, heights[i]);
+        }
+        int height = y + row;
+        
+        byte[] pixels = new byte[width * height * channels];
+        pool.invoke(new FieldTask(glyphs,
+                                  0,
+                                  count,
+                                  scale,
+                                  spread,
+                                  multiChannel,
+                                  xs,
+                                  ys,
+                                  widths,
+                                  heights,
+                                  lefts,
+                                  tops,
+                                  pixels,
+                                  width * channels));
+        
+        return new GlyphAtlas(ids,
+                              xs,
+                              ys,
+                              widths,
+                              heights,
+                              lefts,
+                              tops,
+                              pixels,
+                              width,
+                              height,
+                              channels,
+                              emSize,
+                              spread);
+    }
+    
+    private static int ceilPowerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+    
+    /*
+     * Generates the fields of a range of glyphs, dividing the range in half
+     * until the pieces are small enough to be generated directly with a
+     * single generator.
+     */
+    private static class FieldTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final Glyph[] glyphs;
+        private final int start,
+                          end;
+        private final double scale;
+        private final float spread;
+        private final boolean multiChannel;
+        private final int[] xs,
+                            ys,
+                            widths,
+                            heights,
+                            lefts,
+                            tops;
+        private final byte[] pixels;
+        private final int stride;
+        
+        FieldTask(Glyph[] glyphs,
+                  int start,
+                  int end,
+                  double scale,
+                  float spread,
+                  boolean multiChannel,
+                  int[] xs,
+                  int[] ys,
+                  int[] widths,
+                  int[] heights,
+                  int[] lefts,
+                  int[] tops,
+                  byte[] pixels,
+                  int stride) {
+            this.glyphs = glyphs;
+            this.start = start;
+            this.end = end;
+            this.scale = scale;
+            this.spread = spread;
+            this.multiChannel = multiChannel;
+            this.xs = xs;
+            this.ys = ys;
+            this.widths = widths;
+            this.heights = heights;
+            this.lefts = lefts;
+            this.tops = tops;
+            this.pixels = pixels;
+            this.stride = stride;
+        }
+        
+        private FieldTask split(int start, int end) {
+            return new FieldTask(glyphs,
+                                 start,
+                                 end,
+                                 scale,
+                                 spread,
+                                 multiChannel,
+                                 xs,
+                                 ys,
+                                 widths,
+                                 heights,
+                                 lefts,
+                                 tops,
+                                 pixels,
+                                 stride);
+        }
+        
+        @Override
+        protected void compute() {
+            if (end - start > SPLIT_THRESHOLD) {
+                int mid = start + end >>> 1;
+                invokeAll(split(start, mid), split(mid, end));
+                return;
+            }
+            
+            DistanceFieldGenerator generator =
+                new DistanceFieldGenerator(multiChannel);
+            TransformingSink sink = new TransformingSink(generator);
+            int channels = generator.getChannels();
+            for (int i = start; i < end; i++) {
+                if (widths[i] == 0) continue;
+                
+                generator.reset(widths[i], heights[i], spread);
+                sink.setTransform(scale, 0, 0, -scale, -lefts[i], -tops[i]);
+                glyphs[i].decode(sink);
+                generator.generate(pixels,
+                                   ys[i] * stride + xs[i] * channels,
+                                   stride);
+            }
+        }
+    }
+    
+    private int indexOf(int id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0)
+            throw new IllegalArgumentException("The glyph "
+                                               + id
+                                               + " is not in the atlas.");
+        
+        return index;
+    }
+    
+    /**
+     * @param id The ID of a glyph.
+     * 
+     * @return Whether the atlas holds the field of the glyph.
+     */
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+    
+    /**
+     * Gets the region of the atlas which holds the field of a glyph. The
+     * region is empty for a glyph without an outline.
+     * 
+     * @param id The ID of the glyph.
+     * 
+     * @return The region of the glyph, in pixels of the atlas.
+     */
+    public Rectangle getRegion(int id) {
+        int i = indexOf(id);
+        
+        return new Rectangle(xs[i], ys[i], widths[i], heights[i]);
+    }
+    
+    /**
+     * Gets the bounds of the field of a glyph relative to the origin of the
+     * glyph, where y increases downwards as it does on the device. The
+     * bounds include the spread of the field on every side.
+     * 
+     * @param id The ID of the glyph.
+     * 
+     * @return The bounds of the field, in pixels of the atlas.
+     */
+    public Rectangle getBounds(int id) {
+        int i = indexOf(id);
+        
+        return new Rectangle(lefts[i], tops[i], widths[i], heights[i]);
+    }
+    
+    /**
+     * Gets the contents of the atlas, which are stored row by row from the
+     * top, with the channels of each pixel stored together. The array is
+     * shared by all users of the atlas, so it must not be modified.
+     * 
+     * @return The pixels of the atlas.
+     */
+    public byte[] getPixels() {
+        return pixels;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * @return The number of bytes stored for each pixel, which is three for
+     *         an atlas of multi-channel fields and one otherwise.
+     */
+    public int getChannels() {
+        return channels;
+    }
+    
+    /**
+     * @return The size of the em square in the atlas, in pixels.
+     */
+    public int getEmSize() {
+        return emSize;
+    }
+    
+    public float getSpread() {
+        return spread;
+    }
+    
+    /**
+     * Reconstructs the coverage of a glyph at the given size from its field.
+     * The field is sampled with bilinear filtering at the center of each
+     * pixel, and the distance to the outline is then either thresholded or
+     * passed through a smoothstep which is one pixel wide.
+     * 
+     * @param id The ID of the glyph.
+     * @param pixelSize The size of the em square on the device, in pixels.
+     * @param antialiased Whether to smooth the edges of the glyph rather
+     *                    than thresholding them.
+     * 
+     * @return The bitmap of the glyph.
+     */
+    public GlyphBitmap getBitmap(int id, float pixelSize, boolean antialiased) {
+        if (!(pixelSize > 0))
+            throw new IllegalArgumentException("The size of a glyph must be "
+                                               + "positive.");
+        
+        int i = indexOf(id);
+        if (widths[i] == 0) return new GlyphBitmap(id, 0, 0, 0, 0, new byte[0]);
+        
+        float scale = pixelSize / emSize;
+        int x0 = (int)Math.floor(lefts[i] * scale),
+            y0 = (int)Math.floor(tops[i] * scale),
+            x1 = (int)Math.ceil((lefts[i] + widths[i]) * scale),
+            y1 = (int)Math.ceil((tops[i] + heights[i]) * scale),
+            w = x1 - x0,
+            h = y1 - y0;
+        
+        // The distance in device pixels which each unit of the field covers.
+        float unit = 2 * spread * scale / 255;
+        byte[] coverage = new byte[w * h];
+        for (int y = 0; y < h; y++) {
+            float fy = (y0 + y + 0.5f) / scale - tops[i] - 0.5f;
+            for (int x = 0; x < w; x++) {
+                float fx = (x0 + x + 0.5f) / scale - lefts[i] - 0.5f;
+                float distance = (sample(i, fx, fy) - 127.5f) * unit;
+                
+                float value;
+                if (antialiased) {
+                    float t = Math.max(0, Math.min(distance + 0.5f, 1));
+                    value = t * t * (3 - 2 * t);
+                }
+                else {
+                    value = distance >= 0 ? 1 : 0;
+                }
+                coverage[y * w + x] = (byte)Math.round(value * 255);
+            }
+        }
+        
+        return new GlyphBitmap(id, w, h, x0, y0, coverage);
+    }
+    
+    /*
+     * Samples the field of a glyph at a point relative to the center of its
+     * top-left pixel, clamping the point to the region of the glyph, and
+     * returns the median of the channels.
+     */
+    private float sample(int i, float x, float y) {
+        x = Math.max(0, Math.min(x, widths[i] - 1));
+        y = Math.max(0, Math.min(y, heights[i] - 1));
+        int ix = Math.min((int)x, widths[i] - 2),
+            iy = Math.min((int)y, heights[i] - 2);
+        ix = Math.max(ix, 0);
+        iy = Math.max(iy, 0);
+        float fx = Math.min(x - ix, 1),
+              fy = Math.min(y - iy, 1);
+        int dx = widths[i] > 1 ? channels : 0,
+            dy = heights[i] > 1 ? width * channels : 0;
+        int base = ((ys[i] + iy) * width + xs[i] + ix) * channels;
+        
+        float r = interpolate(base, dx, dy, fx, fy);
+        if (channels == 1) return r;
+        
+        float g = interpolate(base + 1, dx, dy, fx, fy),
+              b = interpolate(base + 2, dx, dy, fx, fy);
+        
+        return Math.max(Math.min(r, g), Math.min(Math.max(r, g), b));
+    }
+    
+    private float interpolate(int p, int dx, int dy, float fx, float fy) {
+        float top = (pixels[p] & 0xFF) * (1 - fx)
+                    + (pixels[p + dx] & 0xFF) * fx,
+              bottom = (pixels[p + dy] & 0xFF) * (1 - fx)
+                       + (pixels[p + dy + dx] & 0xFF) * fx;
+        
+        return top * (1 - fy) + bottom * fy;
+    }
+}
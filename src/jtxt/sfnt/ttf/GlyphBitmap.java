@@ -0,0 +1,214 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * The rasterized form of a glyph at a particular size. A bitmap stores the
+ * coverage of each pixel by the outline of the glyph, where a value of zero
+ * indicates that the pixel lies outside of the outline and a value of 255
+ * indicates that it is completely covered. Bitmaps are independent of the
+ * color which the glyph will be drawn in, so a single bitmap can be blitted
+ * in any number of colors.
+ * 
+ * <p>
+ * The origin of the bitmap is given relative to the pen position on the
+ * baseline: the top-left pixel of the bitmap should be placed at
+ * <code>(x&nbsp;+&nbsp;left, y&nbsp;+&nbsp;top)</code>, where y increases
+ * downwards as it does on the device.
+ * </p>
+ * 
+ * <p>
+ * Bitmaps taken from the color strikes embedded in some fonts also store the
+ * color of each pixel, in which case the coverage is the alpha of each pixel
+ * and the bitmap is drawn in its own colors rather than in the color of the
+ * text.
+ * </p>
+ */
+public final class GlyphBitmap {
+    public final int id,
+                     width,
+                     height,
+                     left,
+                     top;
+    private final byte[] coverage;
+    private final int[] colors;
+    
+    public GlyphBitmap(int id,
+                       int width,
+                       int height,
+                       int left,
+                       int top,
+                       byte[] coverage) {
+        if (coverage.length < width * height)
+            throw new IllegalArgumentException("The coverage array is too "
+                                               + "small for a bitmap of "
+                                               + width
+                                               + "x"
+                                               + height);
+        
+        this.id = id;
+        this.width = width;
+        this.height = height;
+        this.left = left;
+        this.top = top;
+        this.coverage = coverage;
+        colors = null;
+    }
+    
+    /**
+     * Constructs a bitmap in color, whose coverage is the alpha of each of
+     * its pixels.
+     * 
+     * @param colors The non-premultiplied ARGB color of each pixel, stored
+     *               row by row from the top. The array is not copied.
+     */
+    public GlyphBitmap(int id,
+                       int width,
+                       int height,
+                       int left,
+                       int top,
+                       int[] colors) {
+        if (colors.length < width * height)
+            throw new IllegalArgumentException("The color array is too "
+                                               + "small for a bitmap of "
+                                               + width
+                                               + "x"
+                                               + height);
+        
+        this.id = id;
+        this.width = width;
+        this.height = height;
+        this.left = left;
+        this.top = top;
+        this.colors = colors;
+        coverage = new byte[width * height];
+        for (int i = 0; i < coverage.length; i++)
+            coverage[i] = (byte)(colors[i] >>> 24);
+    }
+    
+    /**
+     * Gets the coverage of the pixel at the given position in this bitmap.
+     * 
+     * @param x The column of the pixel.
+     * @param y The row of the pixel, where zero is the top of the bitmap.
+     * 
+     * @return The coverage of the pixel, in the range [0, 255].
+     */
+    public int getCoverage(int x, int y) {
+        return coverage[y * width + x] & 0xFF;
+    }
+    
+    /**
+     * Gets the coverage data of this bitmap, which is stored row by row from
+     * top to bottom with a stride equal to the width of the bitmap. The array
+     * which is returned is shared by all users of this bitmap (and possibly
+     * held in a cache), so it must not be modified.
+     * 
+     * @return The coverage data of this bitmap.
+     */
+    public byte[] getCoverage() {
+        return coverage;
+    }
+    
+    /**
+     * @return Whether this bitmap has colors of its own, which should be
+     *         drawn instead of the color of the text.
+     */
+    public boolean isColor() {
+        return colors != null;
+    }
+    
+    /**
+     * Gets the color of each pixel of this bitmap, stored in the same order
+     * as its coverage. The array is shared, so it must not be modified.
+     * 
+     * @return The ARGB colors of this bitmap, or <code>null</code> if it is
+     *         not a color bitmap.
+     */
+    public int[] getColors() {
+        return colors;
+    }
+    
+    /**
+     * Creates an image of this bitmap in the given color, where the alpha of
+     * each pixel is the coverage of that pixel scaled by the alpha of the
+     * color. A color bitmap keeps its own colors, and only takes the alpha of
+     * the given color.
+     * 
+     * @param color The color to draw the glyph in.
+     * @param xPad The number of transparent columns to add to either side of
+     *             the image.
+     * @param yPad The number of transparent rows to add above and below the
+     *             image.
+     * 
+     * @return A new ARGB image containing this bitmap.
+     */
+    public BufferedImage toImage(Color color, int xPad, int yPad) {
+        int iw = width + 2 * xPad,
+            ih = height + 2 * yPad;
+        BufferedImage image = new BufferedImage(Math.max(iw, 1),
+                                                Math.max(ih, 1),
+                                                BufferedImage.TYPE_INT_ARGB);
+        
+        int rgb = color.getRGB() & 0xFFFFFF,
+            alpha = color.getAlpha();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            int base = y * width;
+            for (int x = 0; x < width; x++) {
+                int a = (coverage[base + x] & 0xFF) * alpha / 255;
+                row[x] = a << 24
+                         | (colors != null
+                            ? colors[base + x] & 0xFFFFFF
+                            : rgb);
+            }
+            
+            if (width > 0)
+                image.setRGB(xPad,
+                             yPad + y,
+                             width,
+                             1,
+                             row,
+                             0,
+                             width);
+        }
+        
+        return image;
+    }
+    
+    /**
+     * @return The approximate number of bytes occupied by this bitmap.
+     */
+    /* package-private */ int footprint() {
+        return 56
+               + coverage.length
+               + (colors != null ? 4 * colors.length : 0);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("GlyphBitmap: [id=%d, width=%d, height=%d, "
+                             + "left=%d, top=%d]%n",
+                             id,
+                             width,
+                             height,
+                             left,
+                             top);
+    }
+}
@@ -0,0 +1,135 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of rasterized glyphs, which allows a glyph that has already been
+ * scan converted to be drawn again by copying its coverage rather than
+ * rasterizing its outline a second time. Bitmaps are keyed by everything that
+ * influences the result of rasterization: the ID of the glyph, the size of
+ * the glyph in pixels, the hints used to render it, and the subpixel offset
+ * (or "bin") at which it was rasterized.
+ * 
+ * <p>
+ * The least recently used bitmaps are evicted once the total size of the
+ * bitmaps in the cache exceeds its budget.
+ * </p>
+ */
+public class GlyphBitmapCache {
+    /**
+     * The budget which is used for a cache when none has been specified.
+     */
+    public static final long DEFAULT_BUDGET = 2 * 1024 * 1024;
+    
+    private final Map<Long, GlyphBitmap> bitmaps;
+    private final long budget;
+    private long size,
+                 hits,
+                 misses;
+    
+    public GlyphBitmapCache() {
+        this(DEFAULT_BUDGET);
+    }
+    
+    /**
+     * @param budget The approximate number of bytes which the bitmaps in this
+     *               cache may occupy.
+     */
+    public GlyphBitmapCache(long budget) {
+        if (budget < 0)
+            throw new IllegalArgumentException("The memory budget of a bitmap "
+                                               + "cache cannot be negative.");
+        
+        this.budget = budget;
+        bitmaps = new LinkedHashMap<>(256, 0.75f, true);
+    }
+    
+    /**
+     * Packs the properties which identify a rasterized glyph into a single
+     * key for this cache.
+     * 
+     * @param id The ID of the glyph.
+     * @param pixelSize The size of an em in pixels, in 26.6 fixed point.
+     * @param hints The rendering hints defined in {@link RasterFont}.
+     * @param bin The subpixel offset bin which the glyph was rendered at.
+     * 
+     * @return The key for a bitmap with these properties.
+     */
+    public static long key(int id, int pixelSize, int hints, int bin) {
+        return (id & 0xFFFFFFL) << 32
+               | (pixelSize & 0xFFFFL) << 16
+               | (hints & 0xFF) << 8
+               | bin & 0xFF;
+    }
+    
+    public synchronized GlyphBitmap get(long key) {
+        GlyphBitmap bitmap = bitmaps.get(key);
+        if (bitmap == null) misses++;
+        else hits++;
+        
+        return bitmap;
+    }
+    
+    public synchronized void put(long key, GlyphBitmap bitmap) {
+        int footprint = bitmap.footprint();
+        if (footprint > budget) return;
+        
+        GlyphBitmap previous = bitmaps.put(key, bitmap);
+        if (previous != null) size -= previous.footprint();
+        size += footprint;
+        
+        Iterator<GlyphBitmap> it = bitmaps.values().iterator();
+        while (size > budget && it.hasNext()) {
+            GlyphBitmap eldest = it.next();
+            if (eldest == bitmap) continue;
+            
+            size -= eldest.footprint();
+            it.remove();
+        }
+    }
+    
+    public synchronized void clear() {
+        bitmaps.clear();
+        size = 0;
+    }
+    
+    public synchronized long getHitCount() {
+        return hits;
+    }
+    
+    public synchronized long getMissCount() {
+        return misses;
+    }
+    
+    public synchronized long getSize() {
+        return size;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return String.format("GlyphBitmapCache: [bitmaps=%d, size=%d, "
+                             + "budget=%d, hits=%d, misses=%d]%n",
+                             bitmaps.size(),
+                             size,
+                             budget,
+                             hits,
+                             misses);
+    }
+}
@@ -60,4 +60,35 @@ public interface GlyphRenderer {
     void draw(String string,
               int x,
               int y);
+    
+    /**
+     * Renders the given character with its origin at a position which may lie
+     * between pixels. Renderers which cannot position glyphs to a fraction of
+     * a pixel round the position to the nearest pixel.
+     * 
+     * @param character The character to render.
+     * @param x The x translation for this character.
+     * @param y The y translation for this character.
+     */
+    default void draw(char character,
+                      float x,
+                      float y) {
+        draw(character, Math.round(x), Math.round(y));
+    }
+    
+    /**
+     * Draws the given String with the origin of its first glyph at a
+     * position which may lie between pixels. Renderers which cannot position
+     * glyphs to a fraction of a pixel round the position to the nearest
+     * pixel.
+     * 
+     * @param string The string of text to render.
+     * @param x The x position of the first Glyph rendered.
+     * @param y The y position of the first Glyph rendered.
+     */
+    default void draw(String string,
+                      float x,
+                      float y) {
+        draw(string, Math.round(x), Math.round(y));
+    }
 }
@@ -0,0 +1,166 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf;
+
+import java.util.Arrays;
+
+/**
+ * A sequence of glyphs along with the position of each glyph, as produced by
+ * laying out a string of text in a font. Positions are given in pixels as
+ * floating point values relative to the origin of the run, which is the pen
+ * position on the baseline before the first glyph, with y increasing
+ * downwards as it does on the device.
+ * 
+ * <p>
+ * A run is intended to be reused: laying out text into a run which has
+ * already been used overwrites its contents, and its arrays are only
+ * replaced when the new text contains more glyphs than they can hold. A run
+ * is not safe for use by multiple threads at once.
+ * </p>
+ * 
+ * @see OpenTypeFont#layout(CharSequence, int, int, GlyphRun)
+ */
+public final class GlyphRun {
+    private int[] glyphs;
+    private float[] xPositions,
+                    yPositions;
+    private int count;
+    private float advance;
+    
+    public GlyphRun() {
+        this(16);
+    }
+    
+    /**
+     * @param capacity The number of glyphs which this run should be able to
+     *                 hold before its arrays must be grown.
+     */
+    public GlyphRun(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("The capacity of a glyph run "
+                                               + "cannot be negative.");
+        
+        glyphs = new int[capacity];
+        xPositions = new float[capacity];
+        yPositions = new float[capacity];
+    }
+    
+    /**
+     * @return The number of glyphs in this run.
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * @param index The index of the glyph in this run.
+     * 
+     * @return The ID of the glyph at the given index.
+     */
+    public int getGlyphId(int index) {
+        checkIndex(index);
+        
+        return glyphs[index];
+    }
+    
+    /**
+     * @param index The index of the glyph in this run.
+     * 
+     * @return The horizontal position of the origin of the glyph, in pixels.
+     */
+    public float getX(int index) {
+        checkIndex(index);
+        
+        return xPositions[index];
+    }
+    
+    /**
+     * @param index The index of the glyph in this run.
+     * 
+     * @return The vertical position of the origin of the glyph, in pixels.
+     */
+    public float getY(int index) {
+        checkIndex(index);
+        
+        return yPositions[index];
+    }
+    
+    /**
+     * Gets the total advance of this run, which is the distance from its
+     * origin to the pen position after its last glyph. This is the width
+     * which should be used when placing further text after the run.
+     * 
+     * @return The advance of this run, in pixels.
+     */
+    public float getAdvance() {
+        return advance;
+    }
+    
+    /**
+     * Ensures that this run can hold at least the given number of glyphs,
+     * growing its arrays if necessary. The existing contents of the run are
+     * not preserved.
+     * 
+     * @param capacity The number of glyphs which must fit in this run.
+     * 
+     * @return The array of glyph IDs, which is at least as long as the given
+     *         capacity.
+     */
+    /* package-private */ int[] reset(int capacity) {
+        if (glyphs.length < capacity) {
+            int length = Math.max(capacity, glyphs.length * 2);
+            glyphs = new int[length];
+            xPositions = new float[length];
+            yPositions = new float[length];
+        }
+        count = 0;
+        advance = 0;
+        
+        return glyphs;
+    }
+    
+    /**
+     * Places the glyph at the given index. The glyph IDs of the run are
+     * expected to have already been written into the array returned by
+     * {@link #reset(int)}.
+     */
+    /* package-private */ void setPosition(int index, float x, float y) {
+        xPositions[index] = x;
+        yPositions[index] = y;
+    }
+    
+    /* package-private */ void finish(int count, float advance) {
+        this.count = count;
+        this.advance = advance;
+    }
+    
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Glyph "
+                                                + index
+                                                + " is outside of a run of "
+                                                + count
+                                                + " glyphs.");
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("GlyphRun: [count=%d, advance=%f, glyphs=%s]%n",
+                             count,
+                             advance,
+                             Arrays.toString(Arrays.copyOf(glyphs, count)));
+    }
+}
@@ -16,11 +16,16 @@
 
 package jtxt.sfnt.ttf;
 
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
 
 import jtxt.sfnt.ttf.parser.Glyph;
+import jtxt.sfnt.ttf.parser.HintedOutline;
+import jtxt.sfnt.ttf.parser.OutlineSink;
+import jtxt.sfnt.ttf.parser.TransformingSink;
 
 /**
  * 
@@ -60,4 +65,133 @@ public class GlyphScaler {
                                                                  -dsc);
         return (Path2D)trans.createTransformedShape(shape);
     }
+    
+    /**
+     * Wraps the given sink so that the outline it receives is scaled from
+     * FUnits to device space and positioned with its origin at (x,&nbsp;y).
+     * The scaling is applied to each point as the outline is decoded, so no
+     * intermediate shape is created.
+     * 
+     * @param sink The sink which should receive device space coordinates.
+     * @param x The x-coordinate of the origin of the glyph on the device.
+     * @param y The y-coordinate of the baseline on the device.
+     * 
+     * @return A sink which scales the outline and passes it on.
+     */
+    public TransformingSink scale(OutlineSink sink, float x, float y) {
+        TransformingSink scaled = new TransformingSink(sink);
+        applyScale(scaled, x, y);
+        
+        return scaled;
+    }
+    
+    /**
+     * Sets the transformation of the given sink so that it scales an outline
+     * from FUnits to device space and positions it with its origin at
+     * (x,&nbsp;y), as {@link #scale(OutlineSink, float, float)} does, so
+     * that one sink can be reused for every glyph.
+     * 
+     * @param sink The sink to set the transformation of.
+     * @param x The x-coordinate of the origin of the glyph on the device.
+     * @param y The y-coordinate of the baseline on the device.
+     */
+    public void applyScale(TransformingSink sink, float x, float y) {
+        sink.setTransform(dsc, 0, 0, -dsc, x, y);
+    }
+    
+    /**
+     * Computes the smallest rectangle of whole pixels which encloses the
+     * given glyph in device space, with its origin at (0,&nbsp;0). The bounds
+     * are derived from the bounding box stored with the glyph, so the outline
+     * itself is not examined.
+     * 
+     * @param glyph The glyph to find the bounds of.
+     * 
+     * @return The device space bounds of the glyph.
+     */
+    public Rectangle getPixelBounds(Glyph glyph) {
+        return getPixelBounds(glyph, 0);
+    }
+    
+    /**
+     * Computes the smallest rectangle of whole pixels which encloses the
+     * given glyph in device space, with its origin at (dx,&nbsp;0).
+     * 
+     * @param glyph The glyph to find the bounds of.
+     * @param dx The horizontal offset of the origin, in pixels.
+     * 
+     * @return The device space bounds of the glyph.
+     */
+    public Rectangle getPixelBounds(Glyph glyph, float dx) {
+        Rectangle2D bounds = glyph.getBounds();
+        int x0 = (int)Math.floor(bounds.getMinX() * dsc + dx),
+            x1 = (int)Math.ceil(bounds.getMaxX() * dsc + dx),
+            y0 = (int)Math.floor(-bounds.getMaxY() * dsc),
+            y1 = (int)Math.ceil(-bounds.getMinY() * dsc);
+        
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+    
+    /**
+     * Wraps the given sink so that a hinted outline, which is already in
+     * pixels, is flipped into device space and positioned with its origin at
+     * (x,&nbsp;y), without being scaled.
+     * 
+     * @param sink The sink which should receive device space coordinates.
+     * @param x The x-coordinate of the origin of the glyph on the device.
+     * @param y The y-coordinate of the baseline on the device.
+     * 
+     * @return A sink which positions the outline and passes it on.
+     */
+    public TransformingSink position(OutlineSink sink, float x, float y) {
+        TransformingSink positioned = new TransformingSink(sink);
+        applyPosition(positioned, x, y);
+        
+        return positioned;
+    }
+    
+    /**
+     * Sets the transformation of the given sink so that it flips a hinted
+     * outline into device space and positions it with its origin at
+     * (x,&nbsp;y), as {@link #position(OutlineSink, float, float)} does.
+     * 
+     * @param sink The sink to set the transformation of.
+     * @param x The x-coordinate of the origin of the glyph on the device.
+     * @param y The y-coordinate of the baseline on the device.
+     */
+    public void applyPosition(TransformingSink sink, float x, float y) {
+        sink.setTransform(1, 0, 0, -1, x, y);
+    }
+    
+    /**
+     * Computes the smallest rectangle of whole pixels which encloses the
+     * given hinted outline in device space, with its origin at (0,&nbsp;0).
+     * 
+     * @param outline The hinted outline to find the bounds of.
+     * 
+     * @return The device space bounds of the outline.
+     */
+    public Rectangle getPixelBounds(HintedOutline outline) {
+        return getPixelBounds(outline, 0);
+    }
+    
+    /**
+     * Computes the smallest rectangle of whole pixels which encloses the
+     * given hinted outline in device space, with its origin at
+     * (dx,&nbsp;0).
+     * 
+     * @param outline The hinted outline to find the bounds of.
+     * @param dx The horizontal offset of the origin, in pixels.
+     * 
+     * @return The device space bounds of the outline.
+     */
+    public Rectangle getPixelBounds(HintedOutline outline, float dx) {
+        Rectangle2D bounds = outline.getBounds();
+        int x0 = (int)Math.floor(bounds.getMinX() + dx),
+            x1 = (int)Math.ceil(bounds.getMaxX() + dx),
+            y0 = (int)Math.floor(-bounds.getMaxY()),
+            y1 = (int)Math.ceil(-bounds.getMinY());
+        
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
 }
@@ -15,25 +15,37 @@
  */
 package jtxt.sfnt.ttf;
 
-import static java.awt.geom.AffineTransform.getTranslateInstance;
-
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.Rectangle;
 import java.awt.Toolkit;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+import javax.imageio.ImageIO;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 
+import jtxt.sfnt.ttf.parser.BitmapGlyph;
+import jtxt.sfnt.ttf.parser.ContourEmitter;
+import jtxt.sfnt.ttf.parser.EmbeddedBitmaps;
+import jtxt.sfnt.ttf.parser.FontRegistry;
 import jtxt.sfnt.ttf.parser.Glyph;
+import jtxt.sfnt.ttf.parser.HintedOutline;
+import jtxt.sfnt.ttf.parser.Hinter;
+import jtxt.sfnt.ttf.parser.KerningTable;
 import jtxt.sfnt.ttf.parser.Metrics;
 import jtxt.sfnt.ttf.parser.OTFFileReader;
+import jtxt.sfnt.ttf.parser.TransformingSink;
 
 /**
  * 
@@ -49,59 +61,589 @@ public class OpenTypeFont implements RasterFont, VectorFont {
                             ITALLIC = 1 << 1,
                             OBLIQUE = 1 << 2;
     
-    private OTFFileReader fontFile;
+    /**
+     * The number of subpixel positions which a glyph renderer quantizes the
+     * fractional part of each horizontal position into, unless another
+     * number is given.
+     */
+    public static final int DEFAULT_SUBPIXEL_BINS = 4;
+    
+    /**
+     * The largest number of subpixel positions which horizontal positions
+     * may be quantized into. Bitmaps are cached by the offset of their bin
+     * in 256ths of a pixel, so bitmaps rendered with different numbers of
+     * bins are never confused.
+     */
+    public static final int MAX_SUBPIXEL_BINS = 256;
+    
+    private final OTFFileReader fontFile;
+    /*
+     * The path which the font was acquired from the font registry with, or
+     * null if the reader was supplied by the caller.
+     */
+    private final Path path;
+    private boolean released;
     private final Metrics metrics;
     private final GlyphScaler scaler;
+    private final GlyphBitmapCache bitmaps;
+    // The glyphs which have been found among the embedded bitmaps.
+    private final BitSet embeddedGlyphs;
+    private final Rasterizer rasterizer;
+    /*
+     * The sink which places each outline on the rasterizer, and the emitter
+     * which converts its contours into segments. Both are reused for every
+     * glyph, and are guarded by the lock on the rasterizer.
+     */
+    private final TransformingSink transform;
+    private final ContourEmitter emitter;
+    // Created when it is first needed, since it reads the kerning.
+    private TextMeasurer measurer;
     private final int size,
                       attributes,
-                      dpi;
+                      dpi,
+                      pixelSize;
     
+    /**
+     * Creates a font at the given size from the font file at the given path.
+     * The file is acquired from the {@linkplain FontRegistry#getDefault()
+     * default font registry}, so every font created from the same file shares
+     * a single parsed copy of it, and {@link #release()} should be called once
+     * the font is no longer needed.
+     * 
+     * @param path The path of the font file.
+     * @param size The size of the font, in points.
+     * @param attributes The style of the font.
+     */
     public OpenTypeFont(Path path, int size, int attributes) {
-        fontFile = new OTFFileReader(path.toFile());
+        this(FontRegistry.getDefault().acquire(path),
+             path,
+             size,
+             attributes,
+             Toolkit.getDefaultToolkit().getScreenResolution());
+    }
+    
+    /**
+     * Creates a view of an already parsed font at the given size, for the
+     * resolution of the screen. Creating a view does not read the font file,
+     * so a view may be created for each size which is needed.
+     * 
+     * @param fontFile The parsed font.
+     * @param size The size of the font, in points.
+     * @param attributes The style of the font.
+     */
+    public OpenTypeFont(OTFFileReader fontFile, int size, int attributes) {
+        this(fontFile,
+             size,
+             attributes,
+             Toolkit.getDefaultToolkit().getScreenResolution());
+    }
+    
+    /**
+     * Creates a view of an already parsed font at the given size and
+     * resolution, which does not require a display to be available.
+     * 
+     * @param fontFile The parsed font.
+     * @param size The size of the font, in points.
+     * @param attributes The style of the font.
+     * @param dpi The resolution of the device, in dots per inch.
+     */
+    public OpenTypeFont(OTFFileReader fontFile,
+                        int size,
+                        int attributes,
+                        int dpi) {
+        this(fontFile, null, size, attributes, dpi);
+    }
+    
+    private OpenTypeFont(OTFFileReader fontFile,
+                         Path path,
+                         int size,
+                         int attributes,
+                         int dpi) {
+        this.fontFile = fontFile;
+        this.path = path;
         this.size = size;
         this.attributes = attributes;
-        dpi = Toolkit.getDefaultToolkit().getScreenResolution();
+        this.dpi = dpi;
         metrics = fontFile.getMetrics(size, dpi);
         scaler = new GlyphScaler(dpi, size, fontFile.getUPEM());
+        bitmaps = new GlyphBitmapCache();
+        embeddedGlyphs = new BitSet();
+        rasterizer = new Rasterizer();
+        transform = new TransformingSink(rasterizer);
+        emitter = new ContourEmitter();
+        // The size of an em on the device, in 26.6 fixed point.
+        pixelSize = Math.round(size * dpi * 64 / 72.f);
+    }
+    
+    /**
+     * Releases this font's reference to its font file, if the font was
+     * acquired from the font registry. The font must not be used once it has
+     * been released. Releasing a font more than once has no effect.
+     */
+    public synchronized void release() {
+        if (path == null || released) return;
+        
+        released = true;
+        FontRegistry.getDefault().release(path);
+    }
+    
+    /**
+     * @return The parsed font which this font is a view of.
+     */
+    public OTFFileReader getFontFile() {
+        return fontFile;
     }
     
-    // Temporary rendering mechanism for testing font parsing.
+    /**
+     * Creates a renderer which draws glyphs into the given graphics context,
+     * positioning them to a quarter of a pixel.
+     * 
+     * @param graphics The graphics context to draw into, whose color is used
+     *                 for the text.
+     * 
+     * @return The renderer.
+     * 
+     * @see #createGlyphRenderer(Graphics2D, int)
+     */
     public GlyphRenderer createGlyphRenderer(Graphics2D graphics) {
+        return createGlyphRenderer(graphics, DEFAULT_SUBPIXEL_BINS);
+    }
+    
+    /**
+     * Creates a renderer which draws glyphs into the given graphics context
+     * from the bitmap cache of this font. The fractional part of the
+     * horizontal position of each glyph is rounded to the nearest of the
+     * given number of bins, and each bin is rasterized and cached as its own
+     * variant of the glyph, so the spacing of the text keeps the precision
+     * of its layout while the cache holds at most that many variants of each
+     * glyph. Vertical positions are rounded to whole pixels.
+     * 
+     * @param graphics The graphics context to draw into, whose color is used
+     *                 for the text.
+     * @param bins The number of subpixel positions, where a single bin
+     *             places every glyph on a whole pixel.
+     * 
+     * @return The renderer.
+     */
+    public GlyphRenderer createGlyphRenderer(Graphics2D graphics, int bins) {
+        checkBins(bins);
+        
         return new GlyphRenderer() {
+            // The layout of the last string drawn by this renderer.
+            private final GlyphRun run = new GlyphRun();
+            /*
+             * The images of the bitmaps which have been drawn in the current
+             * color. The keys are weak, so an image is dropped along with its
+             * bitmap once the bitmap has been evicted from the cache.
+             */
+            private final Map<GlyphBitmap, BufferedImage> images =
+                new WeakHashMap<>();
+            private Color color;
+            
             @Override
             public void draw(char character, int x, int y) {
-                Glyph glyph = fontFile.getGlyph(character);
-                drawPath(scaler.scale(glyph), x, y);
+                draw(character, (float)x, (float)y);
             }
-
+            
             @Override
             public void draw(String string, int x, int y) {
-                for (int i = 0; i < string.length(); i++) {
-                    char chr = string.charAt(i);
-                    Glyph glyph = fontFile.getGlyph(chr);
-                    drawPath(scaler.scale(glyph), x, y);
-                    x += scaler.scale(glyph.getBounds())
-                        .getBounds()
-                        .getWidth();
-                    
-//                    xOff += metrics.getAdvanceWidth(g);
-                }
+                draw(string, (float)x, (float)y);
+            }
+            
+            @Override
+            public void draw(char character, float x, float y) {
+                drawGlyph(fontFile.getGlyphId(character), x, y);
+            }
+            
+            @Override
+            public void draw(String string, float x, float y) {
+                layout(string, run);
+                for (int i = 0; i < run.getCount(); i++)
+                    drawGlyph(run.getGlyphId(i),
+                              x + run.getX(i),
+                              y + run.getY(i));
+            }
+            
+            private void drawGlyph(int id, float x, float y) {
+                /*
+                 * Shifting the position by half of a bin makes the bin below
+                 * it the nearest one, which may belong to the next pixel.
+                 */
+                x += 0.5f / bins;
+                int pixel = (int)Math.floor(x);
+                GlyphBitmap bitmap = getGlyphBitmap(id, 0, x - pixel, bins);
+                if (bitmap.width == 0 || bitmap.height == 0) return;
+                
+                graphics.drawImage(getImage(bitmap),
+                                   pixel + bitmap.left,
+                                   Math.round(y) + bitmap.top,
+                                   null);
             }
             
-            private void drawPath(Path2D path, int x, int y) {
-                AffineTransform trans = getTranslateInstance(x,
-                                                             y);
-                graphics.fill(trans.createTransformedShape(path));
+            private BufferedImage getImage(GlyphBitmap bitmap) {
+                if (!graphics.getColor().equals(color)) {
+                    images.clear();
+                    color = graphics.getColor();
+                }
+                
+                BufferedImage image = images.get(bitmap);
+                if (image == null) {
+                    image = bitmap.toImage(color, 0, 0);
+                    images.put(bitmap, image);
+                }
+                
+                return image;
             }
         };
     }
     
+    private static void checkBins(int bins) {
+        if (bins < 1 || bins > MAX_SUBPIXEL_BINS)
+            throw new IllegalArgumentException("The number of subpixel bins "
+                                               + "must be between 1 and "
+                                               + MAX_SUBPIXEL_BINS
+                                               + ".");
+    }
+    
+    /**
+     * Lays out the given text on a single line, mapping each character to a
+     * glyph and positioning the glyphs according to their advance widths and
+     * the kerning defined by the font.
+     * 
+     * @param text The text to lay out.
+     * @param run The run to store the result in, whose arrays are reused if
+     *            they are large enough. If this is <code>null</code>, a new
+     *            run is created.
+     * 
+     * @return The run containing the laid out glyphs.
+     */
+    public GlyphRun layout(CharSequence text, GlyphRun run) {
+        return layout(text, 0, text.length(), run);
+    }
+    
+    /**
+     * Lays out a range of the given text on a single line, mapping each
+     * character to a glyph and positioning the glyphs according to their
+     * advance widths and the kerning defined by the font. Layout is done in a
+     * single pass over the text, without reading the outline of any glyph.
+     * Where the font records the hinted advance of a glyph for this size, in
+     * its <code>hdmx</code> or <code>LTSH</code> table, the glyph advances by
+     * that whole number of pixels (see {@link Metrics#getLayoutAdvance(int)}).
+     * 
+     * @param text The text to lay out.
+     * @param start The index of the first character to lay out.
+     * @param end The index after the last character to lay out.
+     * @param run The run to store the result in, whose arrays are reused if
+     *            they are large enough. If this is <code>null</code>, a new
+     *            run is created.
+     * 
+     * @return The run containing the laid out glyphs.
+     */
+    public GlyphRun layout(CharSequence text,
+                           int start,
+                           int end,
+                           GlyphRun run) {
+        if (run == null) run = new GlyphRun(end - start);
+        
+        int[] glyphs = run.reset(end - start);
+        int count = fontFile.mapToGlyphIds(text, start, end, glyphs);
+        
+        KerningTable kerning = fontFile.getKerning();
+        boolean kerned = !kerning.isEmpty();
+        float scale = metrics.getScale(),
+              pen = 0;
+        for (int i = 0; i < count; i++) {
+            if (kerned && i > 0)
+                pen += kerning.getAdjustment(glyphs[i - 1], glyphs[i]) * scale;
+            
+            run.setPosition(i, pen, 0);
+            pen += metrics.getLayoutAdvance(glyphs[i]);
+        }
+        run.finish(count, pen);
+        
+        return run;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The coverage of the glyph is taken from the bitmap cache of this font
+     * when the glyph has already been rasterized with the same hints, so
+     * that only the colorization of the bitmap is performed for each call.
+     * Subpixel anti-aliasing is not yet supported, and glyphs requested with
+     * that hint are rendered in grayscale. TrueType outlines are grid-fitted
+     * by the instructions of the font unless {@link #NO_HINTING} is given.
+     * Glyphs which the font holds as embedded bitmaps for this size are
+     * taken from the bitmaps rather than rasterized, unless
+     * {@link #NO_EMBEDDED_BITMAPS} is given, and color bitmaps are drawn in
+     * their own colors.
+     * </p>
+     */
     @Override
     public RenderedImage getGlyph(char character,
                                   Color color,
                                   int xPad,
                                   int yPad,
-                                  int hints) { return null; }
+                                  int hints) {
+        GlyphBitmap bitmap = getGlyphBitmap(fontFile.getGlyphId(character),
+                                            hints);
+        
+        return bitmap.toImage(color, xPad, yPad);
+    }
+    
+    /**
+     * Gets the rasterized coverage of the glyph with the given ID at the size
+     * of this font. Bitmaps are cached by this font, so rendering the same
+     * glyph a second time does not require it to be scan converted again.
+     * The bitmaps embedded in the font are checked before the outline of the
+     * glyph is rasterized.
+     * 
+     * @param id The ID of the glyph to rasterize.
+     * @param hints The rendering hints, as defined in {@link RasterFont}.
+     * 
+     * @return The bitmap for the glyph.
+     */
+    public GlyphBitmap getGlyphBitmap(int id, int hints) {
+        return getGlyphBitmap(id, hints, 0, 1);
+    }
+    
+    /**
+     * Gets the rasterized coverage of the glyph with the given ID, with its
+     * origin at a fraction of a pixel to the right of the pixel grid. The
+     * offset is quantized down to one of the given number of bins, and the
+     * bitmap of each bin is cached separately. Embedded bitmaps cannot be
+     * shifted, so they are used as they are for every bin.
+     * 
+     * @param id The ID of the glyph to rasterize.
+     * @param hints The rendering hints, as defined in {@link RasterFont}.
+     * @param offset The horizontal offset of the origin of the glyph, in
+     *               pixels. Only its fractional part is used.
+     * @param bins The number of bins which the offset is quantized into,
+     *             from 1 to {@link #MAX_SUBPIXEL_BINS}.
+     * 
+     * @return The bitmap for the glyph, whose position is relative to the
+     *         pixel to the left of the origin.
+     */
+    public GlyphBitmap getGlyphBitmap(int id,
+                                      int hints,
+                                      float offset,
+                                      int bins) {
+        checkBins(bins);
+        
+        offset -= Math.floor(offset);
+        int bin = Math.min((int)(offset * bins), bins - 1),
+            position = bin * MAX_SUBPIXEL_BINS / bins;
+        boolean embedded = (hints & NO_EMBEDDED_BITMAPS) == 0;
+        if (embedded && isEmbedded(id)) position = 0;
+        
+        long key = GlyphBitmapCache.key(id, pixelSize, hints, position);
+        GlyphBitmap bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            if (embedded) bitmap = getEmbeddedBitmap(id);
+            if (bitmap != null) {
+                /*
+                 * An embedded bitmap is the same in every bin, so it is kept
+                 * once, under the position of the first bin.
+                 */
+                synchronized (embeddedGlyphs) {
+                    embeddedGlyphs.set(id);
+                }
+                key = GlyphBitmapCache.key(id, pixelSize, hints, 0);
+            }
+            else {
+                bitmap = rasterize(id,
+                                   hints,
+                                   (float)position / MAX_SUBPIXEL_BINS);
+            }
+            bitmaps.put(key, bitmap);
+        }
+        
+        return bitmap;
+    }
+    
+    private boolean isEmbedded(int id) {
+        synchronized (embeddedGlyphs) {
+            return embeddedGlyphs.get(id);
+        }
+    }
+    
+    /*
+     * Takes a glyph from the bitmaps embedded in the font. Monochrome and
+     * grayscale bitmaps are copied straight from the font when a strike
+     * exists for this size, and are only scaled from other sizes when the
+     * font has no outlines to rasterize instead. Color images are decoded,
+     * and scaled from the nearest strike if necessary.
+     */
+    private GlyphBitmap getEmbeddedBitmap(int id) {
+        EmbeddedBitmaps strikes = fontFile.getEmbeddedBitmaps();
+        if (strikes.isEmpty()) return null;
+        
+        int ppem = metrics.getPixelsPerEm();
+        BitmapGlyph glyph = strikes.getGlyph(id,
+                                             ppem,
+                                             !fontFile.hasOutlines());
+        if (glyph == null) return null;
+        
+        boolean coverage = glyph.getFormat() == BitmapGlyph.FORMAT_COVERAGE;
+        if (coverage && glyph.getPixelsPerEm() == ppem)
+            return new GlyphBitmap(id,
+                                   glyph.getWidth(),
+                                   glyph.getHeight(),
+                                   glyph.getLeft(),
+                                   -(glyph.getBottom() + glyph.getHeight()),
+                                   glyph.getData());
+        
+        BufferedImage image;
+        if (coverage) {
+            image = new BufferedImage(Math.max(glyph.getWidth(), 1),
+                                      Math.max(glyph.getHeight(), 1),
+                                      BufferedImage.TYPE_BYTE_GRAY);
+            image.getRaster().setDataElements(0,
+                                              0,
+                                              glyph.getWidth(),
+                                              glyph.getHeight(),
+                                              glyph.getData());
+        }
+        else {
+            try {
+                image = ImageIO.read(new ByteArrayInputStream(glyph.getData()));
+            }
+            catch (IOException e) {
+                return null;
+            }
+            // The image may be in a format which no reader is installed for.
+            if (image == null) return null;
+        }
+        
+        float scale = (float)ppem / glyph.getPixelsPerEm();
+        int width = Math.max(Math.round(image.getWidth() * scale), 1),
+            height = Math.max(Math.round(image.getHeight() * scale), 1),
+            left = Math.round(glyph.getLeft() * scale),
+            top = -Math.round((glyph.getBottom() + image.getHeight())
+                              * scale);
+        image = resize(image,
+                       width,
+                       height,
+                       coverage
+                       ? BufferedImage.TYPE_BYTE_GRAY
+                       : BufferedImage.TYPE_INT_ARGB);
+        
+        if (coverage)
+            return new GlyphBitmap(id,
+                                   width,
+                                   height,
+                                   left,
+                                   top,
+                                   (byte[])image.getRaster()
+                                                .getDataElements(0,
+                                                                 0,
+                                                                 width,
+                                                                 height,
+                                                                 null));
+        
+        int[] colors = image.getRGB(0, 0, width, height, null, 0, width);
+        
+        return new GlyphBitmap(id, width, height, left, top, colors);
+    }
+    
+    /*
+     * Scales an image with bilinear filtering. Images are halved in steps
+     * until they are less than twice the final size, since a single bilinear
+     * step only samples four pixels of the source for each pixel that it
+     * produces.
+     */
+    private static BufferedImage resize(BufferedImage image,
+                                        int width,
+                                        int height,
+                                        int type) {
+        do {
+            boolean last = image.getWidth() < 2 * width
+                           || image.getHeight() < 2 * height;
+            int w = last ? width : image.getWidth() / 2,
+                h = last ? height : image.getHeight() / 2;
+            
+            BufferedImage scaled = new BufferedImage(w, h, type);
+            Graphics2D g = scaled.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                               RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, w, h, null);
+            g.dispose();
+            image = scaled;
+        } while (image.getWidth() != width || image.getHeight() != height);
+        
+        return image;
+    }
+    
+    /*
+     * Scan converts a glyph, using the outline hinted by the instructions of
+     * the font unless hinting is disabled, the gasp table of the font asks
+     * for outlines not to be hinted at this size, or the font has no TrueType
+     * outlines to hint. The outline is anti-aliased unless that is disabled
+     * or the gasp table asks for bilevel rendering at this size. The origin
+     * of the glyph is placed at the given horizontal offset.
+     */
+    private GlyphBitmap rasterize(int id, int hints, float offset) {
+        Hinter hinter = (hints & NO_HINTING) == 0 && metrics.isGridFitted()
+                        ? fontFile.getHinter()
+                        : null;
+        HintedOutline hinted = hinter != null
+                               ? hinter.getHintedOutline(id, pixelSize)
+                               : null;
+        Glyph glyph = hinted == null ? fontFile.getGlyphById(id) : null;
+        Rectangle bounds = hinted != null
+                           ? scaler.getPixelBounds(hinted, offset)
+                           : scaler.getPixelBounds(glyph, offset);
+        if (bounds.isEmpty())
+            return new GlyphBitmap(id, 0, 0, 0, 0, new byte[0]);
+        
+        byte[] coverage = new byte[bounds.width * bounds.height];
+        synchronized (rasterizer) {
+            rasterizer.reset(bounds.width, bounds.height);
+            rasterizer.setAntialiased((hints & NO_ANTIALIAS) == 0
+                                      && metrics.isSmoothed());
+            if (hinted != null) {
+                scaler.applyPosition(transform, offset - bounds.x, -bounds.y);
+                hinted.decode(transform, emitter);
+            }
+            else {
+                scaler.applyScale(transform, offset - bounds.x, -bounds.y);
+                glyph.decode(transform, emitter);
+            }
+            rasterizer.rasterize(coverage, 0, bounds.width);
+        }
+        
+        return new GlyphBitmap(id,
+                               bounds.width,
+                               bounds.height,
+                               bounds.x,
+                               bounds.y,
+                               coverage);
+    }
+    
+    /**
+     * Gets the measurer for text in this font, which measures and breaks
+     * text into lines using only the metrics of the font. The measurer is
+     * created the first time that this method is called.
+     * 
+     * @return The text measurer of this font.
+     */
+    public synchronized TextMeasurer getTextMeasurer() {
+        if (measurer == null) measurer = new TextMeasurer(fontFile, metrics);
+        
+        return measurer;
+    }
+    
+    /**
+     * @return The metrics of this font at its size and resolution.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    public GlyphBitmapCache getBitmapCache() {
+        return bitmaps;
+    }
     
     public static void main(String[] args) {
         Path path = Paths.get("C:",
@@ -33,7 +33,9 @@ public interface RasterFont {
     int MONOSPACE_LETTERFORM = 0,
         SUBPIXEL_ANTIALIAS = 1,
         GRAYSCALE_ANTIALIAS = 2,
-        NO_ANTIALIAS = 4;
+        NO_ANTIALIAS = 4,
+        NO_HINTING = 8,
+        NO_EMBEDDED_BITMAPS = 16;
     
     RenderedImage getGlyph(char character,
                            Color color,
@@ -56,7 +58,7 @@ public interface RasterFont {
         for (int i = 0; i < text.length(); i++)
             glyphs[i] = getGlyph(text.charAt(i),
                                  colors[colorIndices[i]],
-                                 0,
+                                 xPad,
                                  yPad,
                                  hints);
         
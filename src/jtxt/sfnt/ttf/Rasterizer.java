@@ -0,0 +1,485 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import jtxt.sfnt.ttf.parser.OutlineSink;
+
+/**
+ * A scanline rasterizer which converts the outline of a glyph into an alpha
+ * mask, without any dependence on the Java2D rendering pipeline. Outlines are
+ * filled according to the non-zero winding rule, which is the rule used by
+ * TrueType, and quadratic curves are flattened into line segments before
+ * they are scan converted. Since a rasterizer is an {@code OutlineSink}, it can
+ * be driven directly by the decoder of a glyph outline.
+ * 
+ * <p>
+ * When anti-aliasing is enabled, the coverage of each pixel is computed by
+ * sampling several sub-scanlines within the pixel and measuring the exact
+ * horizontal extent of the outline on each of them. Without anti-aliasing,
+ * a pixel is considered covered when its center lies within the outline.
+ * </p>
+ * 
+ * <p>
+ * A rasterizer keeps all of its working memory between calls, so once it has
+ * rendered the largest glyph it will be asked to render, rasterizing further
+ * glyphs does not allocate. For the same reason, a rasterizer must not be
+ * shared between threads.
+ * </p>
+ */
+public class Rasterizer implements OutlineSink {
+    /*
+     * The number of sub-scanlines sampled for each row of pixels when anti-
+     * aliasing is enabled.
+     */
+    private static final int SUBSAMPLES = 16;
+    
+    /*
+     * The maximum distance (in pixels) which a flattened curve may deviate
+     * from the true curve.
+     */
+    private static final float TOLERANCE = 0.1f;
+    
+    private int width,
+                height;
+    private boolean antialiased = true;
+    
+    /*
+     * The edges of the outline, each stored as a line from (x0, y0) to
+     * (x1, y1) where y0 < y1. The direction of the original edge is kept in
+     * the winding array as either 1 (downwards) or -1 (upwards).
+     */
+    private float[] x0s = new float[64],
+                    y0s = new float[64],
+                    x1s = new float[64],
+                    y1s = new float[64];
+    private byte[] windings = new byte[64];
+    private int edges;
+    
+    // The starting point and current point of the contour being built.
+    private float startX,
+                  startY,
+                  lastX,
+                  lastY;
+    private boolean open;
+    
+    /*
+     * Scratch memory used during scan conversion: the edges bucketed by the
+     * row in which they begin, the list of edges which intersect the current
+     * row, the crossings of a sub-scanline and the coverage accumulated for
+     * the current row.
+     */
+    private int[] rowStarts = new int[65],
+                  sorted = new int[64],
+                  active = new int[64];
+    private int activeCount;
+    private float[] crossings = new float[64];
+    private byte[] crossingWindings = new byte[64];
+    private float[] accumulator = new float[64];
+    private final float[] coords = new float[6];
+    
+    /**
+     * Prepares this rasterizer for a new outline, discarding any edges which
+     * remain from the previous outline. Coordinates outside of the given
+     * dimensions are clipped.
+     * 
+     * @param width The width of the mask which will be written.
+     * @param height The height of the mask which will be written.
+     */
+    public void reset(int width, int height) {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("The dimensions of the mask "
+                                               + "cannot be negative.");
+        
+        this.width = width;
+        this.height = height;
+        edges = 0;
+        open = false;
+    }
+    
+    public void setAntialiased(boolean antialiased) {
+        this.antialiased = antialiased;
+    }
+    
+    public boolean isAntialiased() {
+        return antialiased;
+    }
+    
+    @Override
+    public void moveTo(float x, float y) {
+        closePath();
+        startX = lastX = x;
+        startY = lastY = y;
+        open = true;
+    }
+    
+    @Override
+    public void lineTo(float x, float y) {
+        addEdge(lastX, lastY, x, y);
+        lastX = x;
+        lastY = y;
+    }
+    
+    /**
+     * Adds a quadratic Bezier curve from the current point to (x,&nbsp;y),
+     * using (cx,&nbsp;cy) as the control point. The curve is flattened into
+     * enough line segments that it does not deviate from the true curve by
+     * more than a tenth of a pixel.
+     */
+    @Override
+    public void quadTo(float cx, float cy, float x, float y) {
+        float ddx = lastX - 2 * cx + x,
+              ddy = lastY - 2 * cy + y;
+        float dd = (float)Math.sqrt(ddx * ddx + ddy * ddy);
+        int n = (int)Math.ceil(Math.sqrt(dd / (8 * TOLERANCE)));
+        
+        float px = lastX,
+              py = lastY;
+        for (int i = 1; i < n; i++) {
+            float t = (float)i / n,
+                  mt = 1 - t;
+            float qx = mt * mt * px + 2 * mt * t * cx + t * t * x,
+                  qy = mt * mt * py + 2 * mt * t * cy + t * t * y;
+            addEdge(lastX, lastY, qx, qy);
+            lastX = qx;
+            lastY = qy;
+        }
+        
+        lineTo(x, y);
+    }
+    
+    /**
+     * Adds a cubic Bezier curve from the current point to (x,&nbsp;y), using
+     * (c1x,&nbsp;c1y) and (c2x,&nbsp;c2y) as the control points. The curve is
+     * flattened in the same way as a quadratic curve, using the larger of its
+     * two second differences to bound the deviation of each segment.
+     */
+    @Override
+    public void curveTo(float c1x,
+                        float c1y,
+                        float c2x,
+                        float c2y,
+                        float x,
+                        float y) {
+        float ddx1 = lastX - 2 * c1x + c2x,
+              ddy1 = lastY - 2 * c1y + c2y,
+              ddx2 = c1x - 2 * c2x + x,
+              ddy2 = c1y - 2 * c2y + y;
+        float dd = (float)Math.sqrt(Math.max(ddx1 * ddx1 + ddy1 * ddy1,
+                                             ddx2 * ddx2 + ddy2 * ddy2));
+        int n = (int)Math.ceil(Math.sqrt(3 * dd / (4 * TOLERANCE)));
+        
+        float px = lastX,
+              py = lastY;
+        for (int i = 1; i < n; i++) {
+            float t = (float)i / n,
+                  mt = 1 - t;
+            float a = mt * mt * mt,
+                  b = 3 * mt * mt * t,
+                  c = 3 * mt * t * t,
+                  d = t * t * t;
+            float qx = a * px + b * c1x + c * c2x + d * x,
+                  qy = a * py + b * c1y + c * c2y + d * y;
+            addEdge(lastX, lastY, qx, qy);
+            lastX = qx;
+            lastY = qy;
+        }
+        
+        lineTo(x, y);
+    }
+    
+    /**
+     * Closes the current contour by adding an edge back to its starting
+     * point. Contours are also closed implicitly whenever a new contour is
+     * started or the outline is rasterized.
+     */
+    @Override
+    public void closePath() {
+        if (!open) return;
+        
+        lineTo(startX, startY);
+        open = false;
+    }
+    
+    /**
+     * Adds the outline of the given shape to this rasterizer. The path
+     * iterator of the shape is the only object allocated by this method.
+     * 
+     * @param shape The shape to add, which is typically the path of a glyph
+     *              that has been scaled to device space.
+     * @param at An optional transformation to apply to the shape, or
+     *           <code>null</code>.
+     */
+    public void append(Shape shape, AffineTransform at) {
+        PathIterator it = shape.getPathIterator(at);
+        for (; !it.isDone(); it.next()) {
+            switch (it.currentSegment(coords)) {
+            case PathIterator.SEG_MOVETO:
+                moveTo(coords[0], coords[1]);
+                break;
+            case PathIterator.SEG_LINETO:
+                lineTo(coords[0], coords[1]);
+                break;
+            case PathIterator.SEG_QUADTO:
+                quadTo(coords[0], coords[1], coords[2], coords[3]);
+                break;
+            case PathIterator.SEG_CUBICTO:
+                curveTo(coords[0],
+                        coords[1],
+                        coords[2],
+                        coords[3],
+                        coords[4],
+                        coords[5]);
+                break;
+            case PathIterator.SEG_CLOSE:
+                closePath();
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Scan converts the outline which has been added to this rasterizer,
+     * writing the coverage of each pixel into the given array. Every pixel
+     * within the mask is written, so the array need not be cleared first.
+     * 
+     * @param dst The array to write the mask into.
+     * @param offset The index of the top-left pixel of the mask.
+     * @param stride The distance between the start of successive rows.
+     */
+    public void rasterize(byte[] dst, int offset, int stride) {
+        if (height > 0 && offset + (height - 1) * stride + width > dst.length)
+            throw new IllegalArgumentException("The destination array is too "
+                                               + "small for the mask.");
+        
+        closePath();
+        prepareEdges();
+        for (int row = 0; row < height; row++) {
+            float[] acc = coverRow(row);
+            int base = offset + row * stride;
+            for (int x = 0; x < width; x++) {
+                dst[base + x] = toCoverage(acc[x]);
+                acc[x] = 0;
+            }
+        }
+    }
+    
+    /**
+     * Scan converts the outline which has been added to this rasterizer,
+     * writing the coverage of each pixel into the given buffer. The position
+     * of the buffer is not changed.
+     * 
+     * @param dst The buffer to write the mask into, which may be direct.
+     * @param offset The index of the top-left pixel of the mask.
+     * @param stride The distance between the start of successive rows.
+     */
+    public void rasterize(ByteBuffer dst, int offset, int stride) {
+        if (height > 0 && offset + (height - 1) * stride + width > dst.limit())
+            throw new IllegalArgumentException("The destination buffer is too "
+                                               + "small for the mask.");
+        
+        closePath();
+        prepareEdges();
+        for (int row = 0; row < height; row++) {
+            float[] acc = coverRow(row);
+            int base = offset + row * stride;
+            for (int x = 0; x < width; x++) {
+                dst.put(base + x, toCoverage(acc[x]));
+                acc[x] = 0;
+            }
+        }
+    }
+    
+    private static byte toCoverage(float acc) {
+        int cov = (int)(acc * 255 + 0.5f);
+        
+        return (byte)(cov > 255 ? 255 : cov);
+    }
+    
+    private void addEdge(float ax, float ay, float bx, float by) {
+        // Horizontal edges never cross a scanline.
+        if (ay == by) return;
+        
+        if (edges == x0s.length) {
+            int capacity = edges * 2;
+            x0s = Arrays.copyOf(x0s, capacity);
+            y0s = Arrays.copyOf(y0s, capacity);
+            x1s = Arrays.copyOf(x1s, capacity);
+            y1s = Arrays.copyOf(y1s, capacity);
+            windings = Arrays.copyOf(windings, capacity);
+        }
+        
+        if (ay < by) {
+            x0s[edges] = ax;
+            y0s[edges] = ay;
+            x1s[edges] = bx;
+            y1s[edges] = by;
+            windings[edges] = 1;
+        }
+        else {
+            x0s[edges] = bx;
+            y0s[edges] = by;
+            x1s[edges] = ax;
+            y1s[edges] = ay;
+            windings[edges] = -1;
+        }
+        edges++;
+    }
+    
+    /*
+     * Sorts the edges into buckets according to the first row which they
+     * intersect, using a counting sort, and sizes the scratch arrays for the
+     * current mask.
+     */
+    private void prepareEdges() {
+        if (rowStarts.length < height + 1)
+            rowStarts = new int[height + 1];
+        if (sorted.length < edges) {
+            sorted = new int[x0s.length];
+            active = new int[x0s.length];
+            crossings = new float[x0s.length];
+            crossingWindings = new byte[x0s.length];
+        }
+        if (accumulator.length < width + 1)
+            accumulator = new float[width + 1];
+        
+        Arrays.fill(rowStarts, 0, height + 1, 0);
+        for (int e = 0; e < edges; e++)
+            rowStarts[firstRow(e)]++;
+        
+        int sum = 0;
+        for (int r = 0; r <= height; r++) {
+            int count = rowStarts[r];
+            rowStarts[r] = sum;
+            sum += count;
+        }
+        for (int e = 0; e < edges; e++)
+            sorted[rowStarts[firstRow(e)]++] = e;
+        
+        // Shift the bucket boundaries back to the start of each bucket.
+        for (int r = height; r > 0; r--)
+            rowStarts[r] = rowStarts[r - 1];
+        rowStarts[0] = 0;
+        
+        activeCount = 0;
+    }
+    
+    private int firstRow(int e) {
+        int row = (int)Math.floor(y0s[e]);
+        
+        return row < 0 ? 0 : row > height ? height : row;
+    }
+    
+    /*
+     * Accumulates the coverage of the given row, which must be called for
+     * each row in order, since it maintains the list of active edges.
+     */
+    private float[] coverRow(int row) {
+        for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++)
+            active[activeCount++] = sorted[i];
+        
+        // Drop any of the active edges which ended above this row.
+        int kept = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int e = active[i];
+            if (y1s[e] > row) active[kept++] = e;
+        }
+        activeCount = kept;
+        
+        if (antialiased) {
+            float weight = 1.f / SUBSAMPLES;
+            for (int s = 0; s < SUBSAMPLES; s++)
+                coverScanline(row + (s + 0.5f) / SUBSAMPLES, weight);
+        }
+        else coverScanline(row + 0.5f, -1);
+        
+        return accumulator;
+    }
+    
+    /*
+     * Finds where the active edges cross the scanline at y, then walks the
+     * crossings from left to right, adding the spans with a non-zero winding
+     * number to the accumulator. A negative weight indicates that pixels are
+     * sampled at their center rather than being partially covered.
+     */
+    private void coverScanline(float y, float weight) {
+        int n = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int e = active[i];
+            if (y < y0s[e] || y >= y1s[e]) continue;
+            
+            float t = (y - y0s[e]) / (y1s[e] - y0s[e]);
+            float x = x0s[e] + t * (x1s[e] - x0s[e]);
+            byte w = windings[e];
+            
+            // Insertion sort, since there are rarely more than a few.
+            int j = n++;
+            while (j > 0 && crossings[j - 1] > x) {
+                crossings[j] = crossings[j - 1];
+                crossingWindings[j] = crossingWindings[j - 1];
+                j--;
+            }
+            crossings[j] = x;
+            crossingWindings[j] = w;
+        }
+        
+        int winding = 0;
+        float start = 0;
+        for (int i = 0; i < n; i++) {
+            int previous = winding;
+            winding += crossingWindings[i];
+            if (previous == 0 && winding != 0)
+                start = crossings[i];
+            else if (previous != 0 && winding == 0) {
+                if (weight < 0) fillCenters(start, crossings[i]);
+                else fillSpan(start, crossings[i], weight);
+            }
+        }
+    }
+    
+    private void fillSpan(float from, float to, float weight) {
+        if (from < 0) from = 0;
+        if (to > width) to = width;
+        if (to <= from) return;
+        
+        int first = (int)from,
+            last = (int)to;
+        if (first == last) {
+            accumulator[first] += (to - from) * weight;
+            return;
+        }
+        
+        accumulator[first] += (first + 1 - from) * weight;
+        for (int x = first + 1; x < last; x++)
+            accumulator[x] += weight;
+        accumulator[last] += (to - last) * weight;
+    }
+    
+    private void fillCenters(float from, float to) {
+        int first = (int)Math.ceil(from - 0.5f),
+            last = (int)Math.ceil(to - 0.5f);
+        if (first < 0) first = 0;
+        if (last > width) last = width;
+        
+        for (int x = first; x < last; x++)
+            accumulator[x] = 1;
+    }
+}
@@ -0,0 +1,236 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jtxt.sfnt.ttf.parser.KerningTable;
+import jtxt.sfnt.ttf.parser.Metrics;
+import jtxt.sfnt.ttf.parser.OTFFileReader;
+
+/**
+ * Measures text and breaks it into lines without rendering it. Measurement
+ * only needs the character map, the horizontal metrics and the kerning of a
+ * font, so the outline of a glyph is never read in order to measure it.
+ * 
+ * <p>
+ * Breaking the same paragraph into lines of different widths (as happens
+ * whenever the component containing it is resized) measures the same words
+ * over and over, so the width of each word is kept in a small cache which is
+ * shared by every call to {@link #breakLines(CharSequence, float)}.
+ * </p>
+ */
+public class TextMeasurer {
+    /*
+     * The number of word widths which are kept in the cache, and the length
+     * of the longest word which is worth caching.
+     */
+    private static final int WORD_CACHE_CAPACITY = 1024,
+                             MAX_CACHED_WORD = 32;
+    
+    private final OTFFileReader fontFile;
+    private final Metrics metrics;
+    private final KerningTable kerning;
+    private final Map<String, Float> words;
+    
+    // The glyph IDs of the text which is currently being measured.
+    private int[] glyphs = new int[64];
+    
+    /**
+     * @param fontFile The font to measure text in.
+     * @param metrics The metrics of the font at the size which text should be
+     *                measured at.
+     */
+    public TextMeasurer(OTFFileReader fontFile, Metrics metrics) {
+        this.fontFile = fontFile;
+        this.metrics = metrics;
+        kerning = fontFile.getKerning();
+        words = new LinkedHashMap<String, Float>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Float> e) {
+                return size() > WORD_CACHE_CAPACITY;
+            }
+        };
+    }
+    
+    /**
+     * Gets the width of the given text when it is laid out on a single line,
+     * which is the sum of the advances of its glyphs and the kerning between
+     * each pair of them.
+     * 
+     * @param text The text to measure.
+     * 
+     * @return The width of the text, in pixels.
+     */
+    public float getWidth(CharSequence text) {
+        return getWidth(text, 0, text.length());
+    }
+    
+    /**
+     * Gets the width of a range of the given text when it is laid out on a
+     * single line.
+     * 
+     * @param text The text to measure.
+     * @param start The index of the first character to measure.
+     * @param end The index after the last character to measure.
+     * 
+     * @return The width of the text, in pixels.
+     */
+    public synchronized float getWidth(CharSequence text, int start, int end) {
+        if (glyphs.length < end - start)
+            glyphs = new int[Math.max(end - start, glyphs.length * 2)];
+        
+        int count = fontFile.mapToGlyphIds(text, start, end, glyphs);
+        boolean kerned = !kerning.isEmpty();
+        float scale = metrics.getScale(),
+              width = 0;
+        for (int i = 0; i < count; i++) {
+            if (kerned && i > 0)
+                width += kerning.getAdjustment(glyphs[i - 1], glyphs[i])
+                         * scale;
+            width += metrics.getLayoutAdvance(glyphs[i]);
+        }
+        
+        return width;
+    }
+    
+    /**
+     * Breaks the given text into lines which are no wider than the given
+     * width. Lines are broken greedily at whitespace, placing as many words
+     * on each line as will fit, and a new line is always started after a line
+     * feed. Whitespace at the end of a line is not counted towards its width.
+     * A word which is wider than an entire line is broken between characters.
+     * 
+     * <p>
+     * Each word is measured on its own, with its width taken from the cache
+     * when the word has been seen before, so any kerning between a word and
+     * the whitespace around it is not taken into account.
+     * </p>
+     * 
+     * @param text The text to break into lines.
+     * @param width The width available to each line, in pixels.
+     * 
+     * @return The index after the last character of each line, including any
+     *         whitespace at the end of the line, in order. The last element
+     *         is the length of the text, unless the text is empty.
+     */
+    public synchronized int[] breakLines(CharSequence text, float width) {
+        int[] lines = new int[8];
+        int count = 0,
+            length = text.length();
+        
+        /*
+         * The width of the line up to the end of its last word, and the width
+         * of the whitespace which has followed that word.
+         */
+        float used = 0,
+              pending = 0;
+        boolean empty = true;
+        for (int i = 0; i < length;) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                lines = add(lines, count++, i + 1);
+                used = pending = 0;
+                empty = true;
+                i++;
+                continue;
+            }
+            
+            if (Character.isWhitespace(c)) {
+                pending += getCharacterWidth(c);
+                i++;
+                continue;
+            }
+            
+            int end = i;
+            while (end < length && !Character.isWhitespace(text.charAt(end)))
+                end++;
+            
+            float word = getWordWidth(text, i, end);
+            if (!empty && used + pending + word > width) {
+                lines = add(lines, count++, i);
+                used = pending = 0;
+                empty = true;
+            }
+            
+            if (word > width) {
+                // The word cannot fit on a line of its own, so split it.
+                used += pending;
+                for (int j = i; j < end;) {
+                    int cp = Character.codePointAt(text, j);
+                    float advance = getCharacterWidth(cp);
+                    if (!empty && used + advance > width) {
+                        lines = add(lines, count++, j);
+                        used = 0;
+                    }
+                    
+                    used += advance;
+                    empty = false;
+                    j += Character.charCount(cp);
+                }
+            }
+            else {
+                used += pending + word;
+                empty = false;
+            }
+            
+            pending = 0;
+            i = end;
+        }
+        
+        if (count == 0 ? length > 0 : lines[count - 1] < length)
+            lines = add(lines, count++, length);
+        
+        return Arrays.copyOf(lines, count);
+    }
+    
+    /**
+     * @return The metrics which text is measured with.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    private float getWordWidth(CharSequence text, int start, int end) {
+        if (end - start > MAX_CACHED_WORD)
+            return getWidth(text, start, end);
+        
+        String word = text.subSequence(start, end).toString();
+        Float width = words.get(word);
+        if (width == null) {
+            width = getWidth(word, 0, word.length());
+            words.put(word, width);
+        }
+        
+        return width;
+    }
+    
+    private float getCharacterWidth(int codePoint) {
+        return metrics.getLayoutAdvance(fontFile.getGlyphId(codePoint));
+    }
+    
+    private static int[] add(int[] array, int index, int value) {
+        if (index == array.length)
+            array = Arrays.copyOf(array, index * 2);
+        array[index] = value;
+        
+        return array;
+    }
+}
@@ -16,54 +16,165 @@
 package jtxt.sfnt.ttf.parser;
 
 import java.nio.ByteBuffer;
-
-import static jtxt.sfnt.ttf.parser.CharacterMapper.*;
+import java.util.function.Supplier;
 
 /**
  * Maps the IDs of glyphs in this font to the address of their respective glyph
  * data. The addresses returned by this class are relative to the beginning of
- * the <code>glyf</code> table, as they are stored in the file, and so they need
- * to be added to the offset of that table to locate the actual address.
+ * the <code>glyf</code> table, as they are stored in the file, and so they
+ * index into the slice of the font which contains that table.
+ * 
+ * <p>
+ * The <code>loca</code> table is read directly from the font file each time
+ * that a glyph is located, rather than being copied when the font is opened,
+ * so the cost of opening a font does not depend on the number of glyphs it
+ * contains.
+ * </p>
  */
 public class AddressTranslator {
-    private CharacterMapper cmapper;
-    private boolean saddr;
-    private int goff,
-                loff,
-                addresses[];
+    private final ByteBuffer loca;
+    private final Supplier<CharacterMapper> mappers;
+    private final boolean saddr;
+    private final int numGlyphs;
+    private volatile CharacterMapper cmapper;
     
-    public AddressTranslator(ByteBuffer buffer,
-                             int loff,
-                             int coff,
-                             int goff,
+    /**
+     * @param loca The <code>loca</code> table.
+     * @param cmap The <code>cmap</code> table, which is not read until the
+     *             first character is mapped.
+     * @param numGlyphs The number of glyphs in the font.
+     * @param saddr Whether the <code>loca</code> table uses the short format.
+     */
+    public AddressTranslator(ByteBuffer loca,
+                             ByteBuffer cmap,
                              int numGlyphs,
                              boolean saddr) {
-        this.loff = loff;
+        this(loca,
+             () -> new CharacterMapper(cmap.duplicate(), 0),
+             numGlyphs,
+             saddr);
+    }
+    
+    /**
+     * @param loca The <code>loca</code> table, or <code>null</code> if the
+     *             font has PostScript outlines and so cannot have its glyphs
+     *             located.
+     * @param mappers Provides the character mapping of the font the first
+     *                time that a character is mapped, which allows the
+     *                mapping to be shared between the faces of a collection.
+     * @param numGlyphs The number of glyphs in the font.
+     * @param saddr Whether the <code>loca</code> table uses the short format.
+     */
+    /* package-private */ AddressTranslator(ByteBuffer loca,
+                                            Supplier<CharacterMapper> mappers,
+                                            int numGlyphs,
+                                            boolean saddr) {
+        this.loca = loca;
+        this.mappers = mappers;
         this.saddr = saddr;
-        this.goff = goff;
-        cmapper = new CharacterMapper(buffer.duplicate(),
-                                      coff,
-                                      PLATFORM_WINDOWS,
-                                      PLATFORM_WINDOWS_UNICODE_BMP);
-        addresses = new int[numGlyphs];
-        
-        buffer.position(loff);
-        if (saddr) {
-            short[] addresses = new short[numGlyphs];
-            buffer.asShortBuffer().get(addresses);
-            for (int i = 0; i < addresses.length; i++)
-                this.addresses[i] = addresses[i];
-        }
-        else buffer.asIntBuffer().get(addresses);
+        this.numGlyphs = numGlyphs;
     }
     
     public int lookup(char character) {
-        return lookupId(cmapper.findId(character));
+        return lookupId(findId(character));
+    }
+    
+    public int lookup(int codePoint) {
+        return lookupId(findId(codePoint));
+    }
+    
+    /**
+     * Finds the ID of the glyph which represents the given character, without
+     * translating it to an address in the <code>glyf</code> table.
+     * 
+     * @param character The character to find the glyph ID for.
+     * 
+     * @return The ID of the glyph, or zero if the character is not mapped.
+     */
+    public int findId(char character) {
+        return getCharacterMapper().findId(character);
+    }
+    
+    /**
+     * Finds the ID of the glyph which represents the given code point, which
+     * may lie outside of the BMP.
+     * 
+     * @param codePoint The Unicode code point to find the glyph ID for.
+     * 
+     * @return The ID of the glyph, or zero if the code point is not mapped.
+     */
+    public int findId(int codePoint) {
+        return getCharacterMapper().findId(codePoint);
     }
     
+    /**
+     * Gets the character mapping of the font, which is read from the
+     * <code>cmap</code> table the first time that it is needed.
+     * 
+     * @return The character mapping of the font.
+     */
+    public CharacterMapper getCharacterMapper() {
+        CharacterMapper mapper = cmapper;
+        if (mapper == null) {
+            synchronized (this) {
+                mapper = cmapper;
+                if (mapper == null) cmapper = mapper = mappers.get();
+            }
+        }
+        
+        return mapper;
+    }
+    
+    /**
+     * Gets the address of the data for the glyph with the given ID.
+     * 
+     * @param index The ID of the glyph.
+     * 
+     * @return The offset of the glyph in the <code>glyf</code> table.
+     */
     public int lookupId(int index) {
-        return goff + (int)(addresses[index] * Math.pow(2, saddr
-                                                           ? 1
-                                                           : 0));
+        return getLocation(index);
+    }
+    
+    /**
+     * Gets the length of the data for the glyph with the given ID. Glyphs
+     * without an outline, such as the glyph for a space, have no data at all
+     * in the <code>glyf</code> table.
+     * 
+     * @param index The ID of the glyph.
+     * 
+     * @return The length of the glyph's data, in bytes.
+     */
+    public int getLength(int index) {
+        return getLocation(index + 1) - getLocation(index);
+    }
+    
+    /**
+     * @param index The ID of the glyph.
+     * 
+     * @return Whether the glyph with the given ID has no outline.
+     */
+    public boolean isEmpty(int index) {
+        return getLength(index) == 0;
+    }
+    
+    /*
+     * Reads the offset of a glyph from the loca table. The short format
+     * stores the offset divided by two as an unsigned value, which allows
+     * glyf tables of up to 128 KB to be addressed.
+     */
+    private int getLocation(int index) {
+        if (loca == null)
+            throw new IllegalStateException("The font has no loca table.");
+        if (index < 0 || index > numGlyphs)
+            throw new IllegalArgumentException("There is no glyph with the ID "
+                                               + index
+                                               + " in a font with "
+                                               + numGlyphs
+                                               + " glyphs.");
+        
+        return saddr
+               ? (loca.getShort(2 * index) & 0xFFFF) << 1
+               : loca.getInt(4 * index);
     }
 }
@@ -0,0 +1,139 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+/**
+ * A glyph which is drawn from a bitmap embedded in the font rather than from
+ * its outline. The bitmap is either the coverage of each pixel, decoded from
+ * a monochrome or grayscale strike, or an encoded image (usually a PNG) from
+ * a color strike, which is left for the renderer to decode.
+ * 
+ * <p>
+ * The position of the bitmap is given in pixels relative to the origin of the
+ * glyph on the baseline, with the y-axis pointing up as it does in the font:
+ * the bottom-left corner of the bitmap is placed at
+ * <code>(left,&nbsp;bottom)</code>.
+ * </p>
+ */
+public final class BitmapGlyph {
+    /*
+     * The forms which the data of a bitmap may take: one byte of coverage
+     * for each pixel, stored row by row from the top, or an encoded image.
+     */
+    public static final int FORMAT_COVERAGE = 0,
+                            FORMAT_IMAGE = 1;
+    
+    private final int id,
+                      format,
+                      width,
+                      height,
+                      left,
+                      bottom,
+                      advance,
+                      ppem;
+    private final byte[] data;
+    
+    /* package-private */ BitmapGlyph(int id,
+                                      int format,
+                                      int width,
+                                      int height,
+                                      int left,
+                                      int bottom,
+                                      int advance,
+                                      int ppem,
+                                      byte[] data) {
+        this.id = id;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.left = left;
+        this.bottom = bottom;
+        this.advance = advance;
+        this.ppem = ppem;
+        this.data = data;
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    /**
+     * @return The form of the data of this bitmap, which is one of the
+     *         <code>FORMAT_*</code> constants defined in this class.
+     */
+    public int getFormat() {
+        return format;
+    }
+    
+    /**
+     * @return The width of the bitmap in pixels, which is zero for an image
+     *         whose size is only known once it has been decoded.
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return The height of the bitmap in pixels, which is zero for an image
+     *         whose size is only known once it has been decoded.
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * @return The distance from the origin of the glyph to the left edge of
+     *         the bitmap, in pixels.
+     */
+    public int getLeft() {
+        return left;
+    }
+    
+    /**
+     * @return The distance from the baseline up to the bottom edge of the
+     *         bitmap, in pixels, which is negative for bitmaps that descend
+     *         below the baseline.
+     */
+    public int getBottom() {
+        return bottom;
+    }
+    
+    /**
+     * @return The advance width recorded with the bitmap, in pixels, or -1
+     *         if the strike does not record one.
+     */
+    public int getAdvance() {
+        return advance;
+    }
+    
+    /**
+     * @return The size of the em square of the strike which the bitmap was
+     *         taken from, in pixels.
+     */
+    public int getPixelsPerEm() {
+        return ppem;
+    }
+    
+    /**
+     * Gets the data of this bitmap. The array is not copied, so it must not
+     * be modified.
+     * 
+     * @return The coverage of each pixel, or the encoded image.
+     */
+    public byte[] getData() {
+        return data;
+    }
+}
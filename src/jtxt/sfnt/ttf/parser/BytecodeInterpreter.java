@@ -0,0 +1,1538 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.util.Arrays;
+
+/**
+ * Executes the TrueType instructions of a font: the font program
+ * (<code>fpgm</code>), the control value program (<code>prep</code>) and the
+ * programs of individual glyphs. The instructions move the points of an
+ * outline, which has already been scaled to a size in pixels, so that its
+ * stems and edges fall on the pixel grid.
+ * 
+ * <p>
+ * Coordinates and distances are held in 26.6 fixed point (64 units to a
+ * pixel) and the projection, dual projection and freedom vectors are unit
+ * vectors in 2.14 fixed point, as they are in the specification of the
+ * instruction set. The behaviour of the instructions follows version 35 of
+ * the TrueType rasterizer, which is the version reported by
+ * <code>GETINFO</code>.
+ * </p>
+ * 
+ * <p>
+ * An interpreter holds the state of a single execution, so a new one is
+ * created for every program which is run. The function and instruction
+ * definitions, control value table and storage area which it is given are
+ * modified in place; callers which must preserve them pass copies.
+ * </p>
+ */
+/* package-private */ final class BytecodeInterpreter {
+    // The flags which are kept for each point of a zone.
+    /* package-private */ static final byte TOUCHED_X = 1,
+                                           TOUCHED_Y = 1 << 1,
+                                           ON_CURVE = 1 << 2;
+    
+    // The rounding states which are set by RTG, RTHG, SROUND and the like.
+    private static final int ROUND_TO_HALF_GRID = 0,
+                             ROUND_TO_GRID = 1,
+                             ROUND_TO_DOUBLE_GRID = 2,
+                             ROUND_DOWN_TO_GRID = 3,
+                             ROUND_UP_TO_GRID = 4,
+                             ROUND_OFF = 5,
+                             ROUND_SUPER = 6,
+                             ROUND_SUPER_45 = 7;
+    
+    // The version of the rasterizer which is reported by GETINFO.
+    private static final int RASTERIZER_VERSION = 35;
+    
+    /*
+     * The deepest nesting of function calls which is followed, and the
+     * number of instructions after which a program is assumed to be stuck in
+     * a loop. Either limit causes the program to fail rather than hang.
+     */
+    private static final int MAX_CALL_DEPTH = 64;
+    private static final int MAX_INSTRUCTIONS = 1_000_000;
+    
+    /**
+     * A set of points which instructions may refer to: either the twilight
+     * zone, which holds points created by the instructions themselves, or
+     * the glyph zone, which holds the points of the outline being hinted.
+     */
+    /* package-private */ static final class Zone {
+        final int[] orgX,
+                    orgY,
+                    curX,
+                    curY;
+        final byte[] flags;
+        
+        // The index of the last point of each contour in the zone.
+        final int[] contourEnds;
+        
+        /* package-private */ Zone(int size, int[] contourEnds) {
+            orgX = new int[size];
+            orgY = new int[size];
+            curX = new int[size];
+            curY = new int[size];
+            flags = new byte[size];
+            this.contourEnds = contourEnds;
+        }
+        
+        int size() {
+            return flags.length;
+        }
+    }
+    
+    /**
+     * The graphics state of the interpreter. The control value program may
+     * change the defaults of some of the state, which then apply to the
+     * programs of every glyph at the same size.
+     */
+    /* package-private */ static final class GraphicsState {
+        int rp0,
+            rp1,
+            rp2,
+            projX = 0x4000,
+            projY,
+            dualX = 0x4000,
+            dualY,
+            freeX = 0x4000,
+            freeY,
+            gep0 = 1,
+            gep1 = 1,
+            gep2 = 1,
+            loop = 1,
+            minimumDistance = 64,
+            roundState = ROUND_TO_GRID,
+            period = 64,
+            phase,
+            threshold = 32,
+            controlValueCutIn = 68,
+            singleWidthCutIn,
+            singleWidthValue,
+            deltaBase = 9,
+            deltaShift = 3,
+            instructControl;
+        boolean autoFlip = true;
+        
+        /* package-private */ GraphicsState copy() {
+            GraphicsState state = new GraphicsState();
+            state.minimumDistance = minimumDistance;
+            state.controlValueCutIn = controlValueCutIn;
+            state.singleWidthCutIn = singleWidthCutIn;
+            state.singleWidthValue = singleWidthValue;
+            state.deltaBase = deltaBase;
+            state.deltaShift = deltaShift;
+            state.instructControl = instructControl;
+            state.autoFlip = autoFlip;
+            
+            /*
+             * The vectors, zone pointers, reference points, loop counter and
+             * rounding state are reset at the start of every program, so they
+             * are left at their defaults.
+             */
+            return state;
+        }
+        
+        /* package-private */ boolean isGlyphHintingDisabled() {
+            return (instructControl & 1) != 0;
+        }
+        
+        /* package-private */ boolean isDefaultStateRequired() {
+            return (instructControl & 2) != 0;
+        }
+    }
+    
+    /**
+     * The functions defined by <code>FDEF</code> and the instructions defined
+     * by <code>IDEF</code>, each of which is a range of a program.
+     */
+    /* package-private */ static final class Definitions {
+        private byte[][] programs;
+        private int[] starts,
+                      ends;
+        
+        /* package-private */ Definitions(int functions) {
+            // Instructions are stored after the functions, one per opcode.
+            int size = Math.max(functions, 0) + 256;
+            programs = new byte[size][];
+            starts = new int[size];
+            ends = new int[size];
+        }
+        
+        private Definitions(Definitions definitions) {
+            programs = definitions.programs.clone();
+            starts = definitions.starts.clone();
+            ends = definitions.ends.clone();
+        }
+        
+        /* package-private */ Definitions copy() {
+            return new Definitions(this);
+        }
+        
+        private void defineFunction(int function,
+                                    byte[] program,
+                                    int start,
+                                    int end) {
+            if (function < 0 || function > 0xFFFF)
+                throw new IllegalArgumentException("Invalid function number "
+                                                   + function);
+            
+            int index = function + 256;
+            if (index >= programs.length) {
+                int size = Math.max(index + 1, 2 * programs.length);
+                programs = Arrays.copyOf(programs, size);
+                starts = Arrays.copyOf(starts, size);
+                ends = Arrays.copyOf(ends, size);
+            }
+            define(index, program, start, end);
+        }
+        
+        private void defineInstruction(int opcode,
+                                       byte[] program,
+                                       int start,
+                                       int end) {
+            if (opcode < 0 || opcode > 0xFF)
+                throw new IllegalArgumentException("Invalid opcode "
+                                                   + opcode);
+            
+            define(opcode, program, start, end);
+        }
+        
+        private void define(int index, byte[] program, int start, int end) {
+            programs[index] = program;
+            starts[index] = start;
+            ends[index] = end;
+        }
+        
+        private int indexOfFunction(int function) {
+            int index = function + 256;
+            if (function < 0
+                || index >= programs.length
+                || programs[index] == null)
+                throw new IllegalArgumentException("Function "
+                                                   + function
+                                                   + " is not defined.");
+            
+            return index;
+        }
+        
+        private boolean isInstructionDefined(int opcode) {
+            return programs[opcode] != null;
+        }
+    }
+    
+    private final int[] stack,
+                        storage,
+                        cvt;
+    private final Definitions definitions;
+    private final Zone twilight;
+    private final int ppem;
+    private final double scale;
+    private final boolean controlValueProgram;
+    private GraphicsState state;
+    private Zone glyph,
+                 zp0,
+                 zp1,
+                 zp2;
+    private int sp,
+                instructions;
+    
+    /**
+     * Creates an interpreter for a single program.
+     * 
+     * @param stackSize The maximum depth of the stack.
+     * @param twilightPoints The number of points in the twilight zone.
+     * @param storage The storage area, which is modified in place.
+     * @param cvt The control value table in 26.6 pixels, which is modified
+     *            in place.
+     * @param definitions The functions and instructions which have been
+     *                    defined, to which the program may add.
+     * @param pixelSize The size of the em square in 26.6 pixels.
+     * @param unitsPerEm The number of FUnits to the em square.
+     * @param controlValueProgram Whether the program is the font program or
+     *                            the control value program, in which the
+     *                            instruction control state may be set.
+     */
+    /* package-private */ BytecodeInterpreter(int stackSize,
+                                              int twilightPoints,
+                                              int[] storage,
+                                              int[] cvt,
+                                              Definitions definitions,
+                                              int pixelSize,
+                                              int unitsPerEm,
+                                              boolean controlValueProgram) {
+        stack = new int[stackSize];
+        this.storage = storage;
+        this.cvt = cvt;
+        this.definitions = definitions;
+        twilight = new Zone(twilightPoints, new int[0]);
+        ppem = pixelSize + 32 >> 6;
+        scale = (double)pixelSize / unitsPerEm;
+        this.controlValueProgram = controlValueProgram;
+    }
+    
+    /**
+     * Runs a program over the given glyph zone.
+     * 
+     * @param program The instructions to execute.
+     * @param state The graphics state to execute them with, which is
+     *              modified in place.
+     * @param glyph The points of the glyph, or an empty zone for the font
+     *              and control value programs.
+     * 
+     * @throws IllegalArgumentException If the program is malformed or fails.
+     */
+    /* package-private */ void run(byte[] program,
+                                   GraphicsState state,
+                                   Zone glyph) {
+        this.state = state;
+        this.glyph = glyph;
+        zp0 = zp1 = zp2 = glyph;
+        sp = 0;
+        
+        execute(program, 0, program.length, 0);
+    }
+    
+    /*
+     * Rounds a distance in FUnits to the nearest 26.6 distance at the size
+     * of this interpreter.
+     */
+    /* package-private */ static int scale(int funits, double scale) {
+        return (int)Math.round(funits * scale);
+    }
+    
+    private void execute(byte[] code, int start, int end, int depth) {
+        if (depth > MAX_CALL_DEPTH)
+            throw new IllegalArgumentException("Functions are nested too "
+                                               + "deeply.");
+        
+        int ip = start;
+        while (ip < end) {
+            if (++instructions > MAX_INSTRUCTIONS)
+                throw new IllegalArgumentException("The program did not "
+                                                   + "finish.");
+            
+            int opcode = code[ip] & 0xFF,
+                next = ip + 1;
+            if (opcode >= 0xC0) {
+                if (opcode >= 0xE0) moveIndirectRelative(opcode);
+                else moveDirectRelative(opcode);
+                ip = next;
+                continue;
+            }
+            
+            switch (opcode) {
+            case 0x00: // SVTCA[y]
+            case 0x01: // SVTCA[x]
+                setProjection(opcode);
+                setFreedom(opcode);
+                break;
+            case 0x02: // SPVTCA
+            case 0x03:
+                setProjection(opcode);
+                break;
+            case 0x04: // SFVTCA
+            case 0x05:
+                setFreedom(opcode);
+                break;
+            case 0x06: // SPVTL
+            case 0x07: {
+                int p2 = pop(),
+                    p1 = pop();
+                int[] v = lineVector(zp1, p1, zp2, p2, false, opcode);
+                state.projX = state.dualX = v[0];
+                state.projY = state.dualY = v[1];
+                break;
+            }
+            case 0x08: // SFVTL
+            case 0x09: {
+                int p2 = pop(),
+                    p1 = pop();
+                int[] v = lineVector(zp1, p1, zp2, p2, false, opcode);
+                state.freeX = v[0];
+                state.freeY = v[1];
+                break;
+            }
+            case 0x0A: { // SPVFS
+                int y = pop(),
+                    x = pop();
+                int[] v = normalize(x, y);
+                state.projX = state.dualX = v[0];
+                state.projY = state.dualY = v[1];
+                break;
+            }
+            case 0x0B: { // SFVFS
+                int y = pop(),
+                    x = pop();
+                int[] v = normalize(x, y);
+                state.freeX = v[0];
+                state.freeY = v[1];
+                break;
+            }
+            case 0x0C: // GPV
+                push(state.projX);
+                push(state.projY);
+                break;
+            case 0x0D: // GFV
+                push(state.freeX);
+                push(state.freeY);
+                break;
+            case 0x0E: // SFVTPV
+                state.freeX = state.projX;
+                state.freeY = state.projY;
+                break;
+            case 0x0F: // ISECT
+                intersect();
+                break;
+            case 0x10: // SRP0
+                state.rp0 = pop();
+                break;
+            case 0x11: // SRP1
+                state.rp1 = pop();
+                break;
+            case 0x12: // SRP2
+                state.rp2 = pop();
+                break;
+            case 0x13: // SZP0
+                zp0 = zone(state.gep0 = pop());
+                break;
+            case 0x14: // SZP1
+                zp1 = zone(state.gep1 = pop());
+                break;
+            case 0x15: // SZP2
+                zp2 = zone(state.gep2 = pop());
+                break;
+            case 0x16: { // SZPS
+                int zone = pop();
+                zp0 = zp1 = zp2 = zone(zone);
+                state.gep0 = state.gep1 = state.gep2 = zone;
+                break;
+            }
+            case 0x17: // SLOOP
+                state.loop = pop();
+                if (state.loop < 0)
+                    throw new IllegalArgumentException("The loop counter "
+                                                       + "cannot be "
+                                                       + "negative.");
+                break;
+            case 0x18: // RTG
+                state.roundState = ROUND_TO_GRID;
+                break;
+            case 0x19: // RTHG
+                state.roundState = ROUND_TO_HALF_GRID;
+                break;
+            case 0x1A: // SMD
+                state.minimumDistance = pop();
+                break;
+            case 0x1B: // ELSE
+                next = skip(code, next, end, false);
+                break;
+            case 0x1C: // JMPR
+                next = jump(ip, pop(), start, end);
+                break;
+            case 0x1D: // SCVTCI
+                state.controlValueCutIn = pop();
+                break;
+            case 0x1E: // SSWCI
+                state.singleWidthCutIn = pop();
+                break;
+            case 0x1F: // SSW
+                state.singleWidthValue = scale(pop(), scale);
+                break;
+            case 0x20: { // DUP
+                int value = pop();
+                push(value);
+                push(value);
+                break;
+            }
+            case 0x21: // POP
+                pop();
+                break;
+            case 0x22: // CLEAR
+                sp = 0;
+                break;
+            case 0x23: { // SWAP
+                int b = pop(),
+                    a = pop();
+                push(b);
+                push(a);
+                break;
+            }
+            case 0x24: // DEPTH
+                push(sp);
+                break;
+            case 0x25: { // CINDEX
+                int k = pop();
+                if (k <= 0 || k > sp)
+                    throw new IllegalArgumentException("Invalid stack index "
+                                                       + k);
+                push(stack[sp - k]);
+                break;
+            }
+            case 0x26: { // MINDEX
+                int k = pop();
+                if (k <= 0 || k > sp)
+                    throw new IllegalArgumentException("Invalid stack index "
+                                                       + k);
+                int value = stack[sp - k];
+                System.arraycopy(stack, sp - k + 1, stack, sp - k, k - 1);
+                stack[sp - 1] = value;
+                break;
+            }
+            case 0x27: { // ALIGNPTS
+                int p2 = pop(),
+                    p1 = pop();
+                int distance = project(zp0, p2, zp1, p1) / 2;
+                move(zp1, p1, distance, true);
+                move(zp0, p2, -distance, true);
+                break;
+            }
+            case 0x29: { // UTP
+                int point = check(zp0, pop());
+                if (state.freeX != 0) zp0.flags[point] &= ~TOUCHED_X;
+                if (state.freeY != 0) zp0.flags[point] &= ~TOUCHED_Y;
+                break;
+            }
+            case 0x2A: { // LOOPCALL
+                int function = definitions.indexOfFunction(pop()),
+                    count = pop();
+                for (int i = 0; i < count; i++)
+                    call(function, depth);
+                break;
+            }
+            case 0x2B: // CALL
+                call(definitions.indexOfFunction(pop()), depth);
+                break;
+            case 0x2C: { // FDEF
+                int function = pop(),
+                    endf = findEnd(code, next, end);
+                definitions.defineFunction(function, code, next, endf);
+                next = endf + 1;
+                break;
+            }
+            case 0x2D: // ENDF
+                if (depth == 0)
+                    throw new IllegalArgumentException("ENDF outside of a "
+                                                       + "function.");
+                return;
+            case 0x2E: // MDAP
+            case 0x2F:
+                moveDirectAbsolute(opcode);
+                break;
+            case 0x30: // IUP[y]
+            case 0x31: // IUP[x]
+                interpolateUntouched(opcode == 0x31);
+                break;
+            case 0x32: // SHP
+            case 0x33:
+                shiftPoints(opcode);
+                break;
+            case 0x34: // SHC
+            case 0x35:
+                shiftContour(opcode);
+                break;
+            case 0x36: // SHZ
+            case 0x37:
+                shiftZone(opcode);
+                break;
+            case 0x38: { // SHPIX
+                int distance = pop(),
+                    dx = mulFix14(distance, state.freeX),
+                    dy = mulFix14(distance, state.freeY);
+                for (; state.loop > 0; state.loop--)
+                    shift(zp2, check(zp2, pop()), dx, dy, true);
+                state.loop = 1;
+                break;
+            }
+            case 0x39: // IP
+                interpolatePoints();
+                break;
+            case 0x3A: // MSIRP
+            case 0x3B:
+                moveStackIndirectRelative(opcode);
+                break;
+            case 0x3C: // ALIGNRP
+                for (; state.loop > 0; state.loop--) {
+                    int point = check(zp1, pop());
+                    move(zp1,
+                         point,
+                         -project(zp1, point, zp0, state.rp0),
+                         true);
+                }
+                state.loop = 1;
+                break;
+            case 0x3D: // RTDG
+                state.roundState = ROUND_TO_DOUBLE_GRID;
+                break;
+            case 0x3E: // MIAP
+            case 0x3F:
+                moveIndirectAbsolute(opcode);
+                break;
+            case 0x40: { // NPUSHB
+                int count = read(code, next++, end);
+                for (int i = 0; i < count; i++)
+                    push(read(code, next++, end));
+                break;
+            }
+            case 0x41: { // NPUSHW
+                int count = read(code, next++, end);
+                for (int i = 0; i < count; i++, next += 2)
+                    push((short)(read(code, next, end) << 8
+                                 | read(code, next + 1, end)));
+                break;
+            }
+            case 0x42: { // WS
+                int value = pop(),
+                    index = pop();
+                storage[checkIndex(storage, index)] = value;
+                break;
+            }
+            case 0x43: // RS
+                push(storage[checkIndex(storage, pop())]);
+                break;
+            case 0x44: { // WCVTP
+                int value = pop(),
+                    index = pop();
+                cvt[checkIndex(cvt, index)] = value;
+                break;
+            }
+            case 0x45: // RCVT
+                push(cvt[checkIndex(cvt, pop())]);
+                break;
+            case 0x46: { // GC[current]
+                int point = check(zp2, pop());
+                push(project(zp2.curX[point], zp2.curY[point]));
+                break;
+            }
+            case 0x47: { // GC[original]
+                int point = check(zp2, pop());
+                push(dualProject(zp2.orgX[point], zp2.orgY[point]));
+                break;
+            }
+            case 0x48: { // SCFS
+                int value = pop(),
+                    point = check(zp2, pop());
+                move(zp2,
+                     point,
+                     value - project(zp2.curX[point], zp2.curY[point]),
+                     true);
+                if (zp2 == twilight) {
+                    zp2.orgX[point] = zp2.curX[point];
+                    zp2.orgY[point] = zp2.curY[point];
+                }
+                break;
+            }
+            case 0x49: // MD[current]
+            case 0x4A: { // MD[original]
+                int p2 = check(zp0, pop()),
+                    p1 = check(zp1, pop());
+                push(opcode == 0x49
+                     ? project(zp0, p2, zp1, p1)
+                     : dualProject(zp0.orgX[p2] - zp1.orgX[p1],
+                                   zp0.orgY[p2] - zp1.orgY[p1]));
+                break;
+            }
+            case 0x4B: // MPPEM
+            case 0x4C: // MPS
+                push(ppem);
+                break;
+            case 0x4D: // FLIPON
+                state.autoFlip = true;
+                break;
+            case 0x4E: // FLIPOFF
+                state.autoFlip = false;
+                break;
+            case 0x4F: // DEBUG
+                pop();
+                break;
+            case 0x50: // LT
+            case 0x51: // LTEQ
+            case 0x52: // GT
+            case 0x53: // GTEQ
+            case 0x54: // EQ
+            case 0x55: { // NEQ
+                int b = pop(),
+                    a = pop();
+                boolean result = opcode == 0x50 ? a < b
+                                 : opcode == 0x51 ? a <= b
+                                 : opcode == 0x52 ? a > b
+                                 : opcode == 0x53 ? a >= b
+                                 : opcode == 0x54 ? a == b
+                                 : a != b;
+                push(result ? 1 : 0);
+                break;
+            }
+            case 0x56: // ODD
+                push((round(pop()) & 127) == 64 ? 1 : 0);
+                break;
+            case 0x57: // EVEN
+                push((round(pop()) & 127) == 0 ? 1 : 0);
+                break;
+            case 0x58: // IF
+                if (pop() == 0) next = skip(code, next, end, true);
+                break;
+            case 0x59: // EIF
+                break;
+            case 0x5A: { // AND
+                int b = pop(),
+                    a = pop();
+                push(a != 0 && b != 0 ? 1 : 0);
+                break;
+            }
+            case 0x5B: { // OR
+                int b = pop(),
+                    a = pop();
+                push(a != 0 || b != 0 ? 1 : 0);
+                break;
+            }
+            case 0x5C: // NOT
+                push(pop() == 0 ? 1 : 0);
+                break;
+            case 0x5D: // DELTAP1
+                deltaPoints(0);
+                break;
+            case 0x5E: // SDB
+                state.deltaBase = pop();
+                break;
+            case 0x5F: // SDS
+                state.deltaShift = pop();
+                if (state.deltaShift < 0 || state.deltaShift > 6)
+                    throw new IllegalArgumentException("Invalid delta shift "
+                                                       + state.deltaShift);
+                break;
+            case 0x60: // ADD
+                push(pop() + pop());
+                break;
+            case 0x61: { // SUB
+                int b = pop(),
+                    a = pop();
+                push(a - b);
+                break;
+            }
+            case 0x62: { // DIV
+                int b = pop(),
+                    a = pop();
+                if (b == 0)
+                    throw new IllegalArgumentException("Division by zero.");
+                push((int)((long)a * 64 / b));
+                break;
+            }
+            case 0x63: // MUL
+                push(mulDiv(pop(), pop(), 64));
+                break;
+            case 0x64: // ABS
+                push(Math.abs(pop()));
+                break;
+            case 0x65: // NEG
+                push(-pop());
+                break;
+            case 0x66: // FLOOR
+                push(pop() & -64);
+                break;
+            case 0x67: // CEILING
+                push(pop() + 63 & -64);
+                break;
+            case 0x68: // ROUND
+            case 0x69:
+            case 0x6A:
+            case 0x6B:
+                push(round(pop()));
+                break;
+            case 0x6C: // NROUND
+            case 0x6D:
+            case 0x6E:
+            case 0x6F:
+                break;
+            case 0x70: { // WCVTF
+                int value = pop(),
+                    index = pop();
+                cvt[checkIndex(cvt, index)] = scale(value, scale);
+                break;
+            }
+            case 0x71: // DELTAP2
+                deltaPoints(16);
+                break;
+            case 0x72: // DELTAP3
+                deltaPoints(32);
+                break;
+            case 0x73: // DELTAC1
+            case 0x74: // DELTAC2
+            case 0x75: // DELTAC3
+                deltaControlValues(16 * (opcode - 0x73));
+                break;
+            case 0x76: // SROUND
+                setSuperRound(pop(), 64);
+                state.roundState = ROUND_SUPER;
+                break;
+            case 0x77: // S45ROUND
+                setSuperRound(pop(), 45);
+                state.roundState = ROUND_SUPER_45;
+                break;
+            case 0x78: // JROT
+            case 0x79: { // JROF
+                boolean condition = pop() != 0;
+                int offset = pop();
+                if (condition == (opcode == 0x78))
+                    next = jump(ip, offset, start, end);
+                break;
+            }
+            case 0x7A: // ROFF
+                state.roundState = ROUND_OFF;
+                break;
+            case 0x7C: // RUTG
+                state.roundState = ROUND_UP_TO_GRID;
+                break;
+            case 0x7D: // RDTG
+                state.roundState = ROUND_DOWN_TO_GRID;
+                break;
+            case 0x7E: // SANGW
+            case 0x7F: // AA
+                pop();
+                break;
+            case 0x80: // FLIPPT
+                for (; state.loop > 0; state.loop--)
+                    zp0.flags[check(zp0, pop())] ^= ON_CURVE;
+                state.loop = 1;
+                break;
+            case 0x81: // FLIPRGON
+            case 0x82: { // FLIPRGOFF
+                int high = check(zp0, pop()),
+                    low = check(zp0, pop());
+                for (int i = low; i <= high; i++)
+                    if (opcode == 0x81) zp0.flags[i] |= ON_CURVE;
+                    else zp0.flags[i] &= ~ON_CURVE;
+                break;
+            }
+            case 0x85: // SCANCTRL
+            case 0x8D: // SCANTYPE
+                pop();
+                break;
+            case 0x86: // SDPVTL
+            case 0x87: {
+                int p2 = pop(),
+                    p1 = pop();
+                int[] dual = lineVector(zp1, p1, zp2, p2, true, opcode),
+                      projection = lineVector(zp1, p1, zp2, p2, false, opcode);
+                state.dualX = dual[0];
+                state.dualY = dual[1];
+                state.projX = projection[0];
+                state.projY = projection[1];
+                break;
+            }
+            case 0x88: { // GETINFO
+                int selector = pop(),
+                    result = 0;
+                if ((selector & 1) != 0) result |= RASTERIZER_VERSION;
+                push(result);
+                break;
+            }
+            case 0x89: { // IDEF
+                int instruction = pop(),
+                    endf = findEnd(code, next, end);
+                definitions.defineInstruction(instruction, code, next, endf);
+                next = endf + 1;
+                break;
+            }
+            case 0x8A: { // ROLL
+                int a = pop(),
+                    b = pop(),
+                    c = pop();
+                push(b);
+                push(a);
+                push(c);
+                break;
+            }
+            case 0x8B: // MAX
+                push(Math.max(pop(), pop()));
+                break;
+            case 0x8C: // MIN
+                push(Math.min(pop(), pop()));
+                break;
+            case 0x8E: { // INSTCTRL
+                int selector = pop(),
+                    value = pop();
+                if (!controlValueProgram) break;
+                if (selector < 1 || selector > 3)
+                    throw new IllegalArgumentException("Invalid instruction "
+                                                       + "control selector "
+                                                       + selector);
+                
+                int flag = 1 << selector - 1;
+                state.instructControl = state.instructControl & ~flag
+                                        | (value != 0 ? flag : 0);
+                break;
+            }
+            default:
+                if (opcode >= 0xB0 && opcode <= 0xB7) { // PUSHB
+                    for (int i = 0; i <= opcode - 0xB0; i++)
+                        push(read(code, next++, end));
+                }
+                else if (opcode >= 0xB8 && opcode <= 0xBF) { // PUSHW
+                    for (int i = 0; i <= opcode - 0xB8; i++, next += 2)
+                        push((short)(read(code, next, end) << 8
+                                     | read(code, next + 1, end)));
+                }
+                else if (definitions.isInstructionDefined(opcode))
+                    call(opcode, depth);
+                else
+                    throw new IllegalArgumentException(String.format(
+                        "Unknown instruction 0x%02X",
+                        opcode));
+            }
+            
+            ip = next;
+        }
+    }
+    
+    private void call(int index, int depth) {
+        execute(definitions.programs[index],
+                definitions.starts[index],
+                definitions.ends[index],
+                depth + 1);
+    }
+    
+    private static int read(byte[] code, int index, int end) {
+        if (index >= end)
+            throw new IllegalArgumentException("The arguments of an "
+                                               + "instruction are "
+                                               + "truncated.");
+        
+        return code[index] & 0xFF;
+    }
+    
+    private static int jump(int ip, int offset, int start, int end) {
+        int target = ip + offset;
+        if (offset == 0 || target < start || target > end)
+            throw new IllegalArgumentException("Invalid jump to offset "
+                                               + offset);
+        
+        return target;
+    }
+    
+    // Gets the number of bytes occupied by the instruction at the index.
+    private static int length(byte[] code, int index, int end) {
+        int opcode = code[index] & 0xFF;
+        if (opcode == 0x40) return 2 + read(code, index + 1, end);
+        if (opcode == 0x41) return 2 + 2 * read(code, index + 1, end);
+        if (opcode >= 0xB0 && opcode <= 0xB7) return 2 + opcode - 0xB0;
+        if (opcode >= 0xB8 && opcode <= 0xBF) return 3 + 2 * (opcode - 0xB8);
+        
+        return 1;
+    }
+    
+    /*
+     * Skips the body of an IF or ELSE, returning the index after the ELSE
+     * (if requested) or EIF which matches it.
+     */
+    private static int skip(byte[] code, int ip, int end, boolean toElse) {
+        for (int nesting = 0; ip < end; ip += length(code, ip, end)) {
+            int opcode = code[ip] & 0xFF;
+            if (opcode == 0x58) nesting++;
+            else if (opcode == 0x59 && nesting-- == 0) return ip + 1;
+            else if (opcode == 0x1B && nesting == 0 && toElse) return ip + 1;
+        }
+        
+        throw new IllegalArgumentException("IF without a matching EIF.");
+    }
+    
+    // Finds the ENDF which ends the definition beginning at the index.
+    private static int findEnd(byte[] code, int ip, int end) {
+        for (; ip < end; ip += length(code, ip, end)) {
+            int opcode = code[ip] & 0xFF;
+            if (opcode == 0x2D) return ip;
+            if (opcode == 0x2C || opcode == 0x89)
+                throw new IllegalArgumentException("Definitions cannot be "
+                                                   + "nested.");
+        }
+        
+        throw new IllegalArgumentException("FDEF without a matching ENDF.");
+    }
+    
+    private void push(int value) {
+        if (sp == stack.length)
+            throw new IllegalArgumentException("Stack overflow.");
+        
+        stack[sp++] = value;
+    }
+    
+    private int pop() {
+        if (sp == 0)
+            throw new IllegalArgumentException("Stack underflow.");
+        
+        return stack[--sp];
+    }
+    
+    private Zone zone(int zone) {
+        if (zone == 0) return twilight;
+        if (zone == 1) return glyph;
+        
+        throw new IllegalArgumentException("Invalid zone " + zone);
+    }
+    
+    private static int check(Zone zone, int point) {
+        if (point < 0 || point >= zone.size())
+            throw new IllegalArgumentException("Invalid point " + point);
+        
+        return point;
+    }
+    
+    private static int checkIndex(int[] array, int index) {
+        if (index < 0 || index >= array.length)
+            throw new IllegalArgumentException("Invalid index " + index);
+        
+        return index;
+    }
+    
+    /*
+     * Fixed point arithmetic. Vectors are in 2.14, so a product with one of
+     * their components is shifted back by 14 bits with rounding.
+     */
+    private static int mulFix14(int a, int b) {
+        return (int)((long)a * b + 0x2000 >> 14);
+    }
+    
+    private static int mulDiv(long a, long b, long c) {
+        if (c == 0) return a * b >= 0 ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        
+        long product = a * b;
+        long quotient = (Math.abs(product) + Math.abs(c) / 2) / Math.abs(c);
+        
+        return (int)((product < 0) != (c < 0) ? -quotient : quotient);
+    }
+    
+    private int project(int dx, int dy) {
+        return (int)((long)dx * state.projX
+                     + (long)dy * state.projY
+                     + 0x2000
+                     >> 14);
+    }
+    
+    private int dualProject(int dx, int dy) {
+        return (int)((long)dx * state.dualX
+                     + (long)dy * state.dualY
+                     + 0x2000
+                     >> 14);
+    }
+    
+    // Projects the current distance from point q of one zone to p of another.
+    private int project(Zone pz, int p, Zone qz, int q) {
+        check(pz, p);
+        check(qz, q);
+        
+        return project(pz.curX[p] - qz.curX[q], pz.curY[p] - qz.curY[q]);
+    }
+    
+    private static int[] normalize(int x, int y) {
+        if (x == 0 && y == 0) return new int[] { 0x4000, 0 };
+        
+        double length = Math.hypot(x, y);
+        
+        return new int[] { (int)Math.round(x / length * 0x4000),
+                           (int)Math.round(y / length * 0x4000) };
+    }
+    
+    private void setProjection(int opcode) {
+        boolean x = (opcode & 1) != 0;
+        state.projX = state.dualX = x ? 0x4000 : 0;
+        state.projY = state.dualY = x ? 0 : 0x4000;
+    }
+    
+    private void setFreedom(int opcode) {
+        boolean x = (opcode & 1) != 0;
+        state.freeX = x ? 0x4000 : 0;
+        state.freeY = x ? 0 : 0x4000;
+    }
+    
+    /*
+     * Computes the unit vector parallel (or perpendicular, for odd opcodes)
+     * to the line from point p2 of zp2 to point p1 of zp1, using either the
+     * original or the current positions of the points.
+     */
+    private static int[] lineVector(Zone z1,
+                                    int p1,
+                                    Zone z2,
+                                    int p2,
+                                    boolean original,
+                                    int opcode) {
+        check(z1, p1);
+        check(z2, p2);
+        int dx = original ? z1.orgX[p1] - z2.orgX[p2]
+                          : z1.curX[p1] - z2.curX[p2],
+            dy = original ? z1.orgY[p1] - z2.orgY[p2]
+                          : z1.curY[p1] - z2.curY[p2];
+        if (dx == 0 && dy == 0) return new int[] { 0x4000, 0 };
+        
+        if ((opcode & 1) != 0) {
+            int t = dx;
+            dx = -dy;
+            dy = t;
+        }
+        
+        return normalize(dx, dy);
+    }
+    
+    /*
+     * Moves a point along the freedom vector so that its projection onto the
+     * projection vector changes by the given distance.
+     */
+    private void move(Zone zone, int point, int distance, boolean touch) {
+        check(zone, point);
+        int dot = (int)((long)state.projX * state.freeX
+                        + (long)state.projY * state.freeY
+                        >> 14);
+        if (Math.abs(dot) < 0x400) dot = 0x4000;
+        
+        if (state.freeX != 0) {
+            zone.curX[point] += mulDiv(distance, state.freeX, dot);
+            if (touch) zone.flags[point] |= TOUCHED_X;
+        }
+        if (state.freeY != 0) {
+            zone.curY[point] += mulDiv(distance, state.freeY, dot);
+            if (touch) zone.flags[point] |= TOUCHED_Y;
+        }
+    }
+    
+    // Moves the original position of a point, as move() does the current.
+    private void moveOriginal(Zone zone, int point, int distance) {
+        int dot = (int)((long)state.projX * state.freeX
+                        + (long)state.projY * state.freeY
+                        >> 14);
+        if (Math.abs(dot) < 0x400) dot = 0x4000;
+        
+        if (state.freeX != 0)
+            zone.orgX[point] += mulDiv(distance, state.freeX, dot);
+        if (state.freeY != 0)
+            zone.orgY[point] += mulDiv(distance, state.freeY, dot);
+    }
+    
+    // Shifts a point by a displacement along the freedom vector.
+    private void shift(Zone zone, int point, int dx, int dy, boolean touch) {
+        if (state.freeX != 0) {
+            zone.curX[point] += dx;
+            if (touch) zone.flags[point] |= TOUCHED_X;
+        }
+        if (state.freeY != 0) {
+            zone.curY[point] += dy;
+            if (touch) zone.flags[point] |= TOUCHED_Y;
+        }
+    }
+    
+    private int round(int distance) {
+        switch (state.roundState) {
+        case ROUND_TO_HALF_GRID:
+            return distance >= 0 ? (distance & -64) + 32
+                                 : -((-distance & -64) + 32);
+        case ROUND_TO_GRID:
+            return distance >= 0 ? Math.max(distance + 32 & -64, 0)
+                                 : Math.min(-(32 - distance & -64), 0);
+        case ROUND_TO_DOUBLE_GRID:
+            return distance >= 0 ? Math.max(distance + 16 & -32, 0)
+                                 : Math.min(-(16 - distance & -32), 0);
+        case ROUND_DOWN_TO_GRID:
+            return distance >= 0 ? distance & -64 : -(-distance & -64);
+        case ROUND_UP_TO_GRID:
+            return distance >= 0 ? Math.max(distance + 63 & -64, 0)
+                                 : Math.min(-(63 - distance & -64), 0);
+        case ROUND_SUPER:
+        case ROUND_SUPER_45: {
+            int period = state.period,
+                phase = state.phase,
+                threshold = state.threshold;
+            if (distance >= 0) {
+                int value = (distance - phase + threshold)
+                            / period
+                            * period
+                            + phase;
+                return value < 0 ? phase : value;
+            }
+            
+            int value = -((threshold - phase - distance)
+                          / period
+                          * period)
+                        - phase;
+            return value > 0 ? -phase : value;
+        }
+        default:
+            return distance;
+        }
+    }
+    
+    // Decodes the selector of SROUND or S45ROUND, given the grid period.
+    private void setSuperRound(int selector, int grid) {
+        switch (selector & 0xC0) {
+        case 0x00:
+            state.period = grid / 2;
+            break;
+        case 0x80:
+            state.period = 2 * grid;
+            break;
+        default:
+            state.period = grid;
+        }
+        
+        state.phase = state.period * (selector >> 4 & 3) / 4;
+        state.threshold = (selector & 0x0F) == 0
+                          ? state.period - 1
+                          : ((selector & 0x0F) - 4) * state.period / 8;
+    }
+    
+    private void intersect() {
+        int b1 = check(zp0, pop()),
+            b0 = check(zp0, pop()),
+            a1 = check(zp1, pop()),
+            a0 = check(zp1, pop()),
+            point = check(zp2, pop());
+        
+        long dbx = zp0.curX[b1] - zp0.curX[b0],
+             dby = zp0.curY[b1] - zp0.curY[b0],
+             dax = zp1.curX[a1] - zp1.curX[a0],
+             day = zp1.curY[a1] - zp1.curY[a0],
+             dx = zp0.curX[b0] - zp1.curX[a0],
+             dy = zp0.curY[b0] - zp1.curY[a0];
+        long discriminant = dax * -dby + day * dbx,
+             dot = dax * dbx + day * dby;
+        
+        /*
+         * Lines which are parallel (or nearly so) have no useful
+         * intersection, so the point is placed midway between them.
+         */
+        if (19 * Math.abs(discriminant) > Math.abs(dot)) {
+            long value = dx * -dby + dy * dbx;
+            zp2.curX[point] = zp1.curX[a0]
+                              + (int)Math.round((double)value
+                                                * dax
+                                                / discriminant);
+            zp2.curY[point] = zp1.curY[a0]
+                              + (int)Math.round((double)value
+                                                * day
+                                                / discriminant);
+        }
+        else {
+            zp2.curX[point] = (zp1.curX[a0]
+                               + zp1.curX[a1]
+                               + zp0.curX[b0]
+                               + zp0.curX[b1]) / 4;
+            zp2.curY[point] = (zp1.curY[a0]
+                               + zp1.curY[a1]
+                               + zp0.curY[b0]
+                               + zp0.curY[b1]) / 4;
+        }
+        zp2.flags[point] |= TOUCHED_X | TOUCHED_Y;
+    }
+    
+    private void moveDirectAbsolute(int opcode) {
+        int point = check(zp0, pop()),
+            distance = 0;
+        if ((opcode & 1) != 0) {
+            int current = project(zp0.curX[point], zp0.curY[point]);
+            distance = round(current) - current;
+        }
+        move(zp0, point, distance, true);
+        state.rp0 = state.rp1 = point;
+    }
+    
+    private void moveIndirectAbsolute(int opcode) {
+        int index = checkIndex(cvt, pop()),
+            point = check(zp0, pop()),
+            distance = cvt[index];
+        if (zp0 == twilight) {
+            zp0.orgX[point] = zp0.curX[point] = mulFix14(distance,
+                                                         state.freeX);
+            zp0.orgY[point] = zp0.curY[point] = mulFix14(distance,
+                                                         state.freeY);
+        }
+        
+        int current = project(zp0.curX[point], zp0.curY[point]);
+        if ((opcode & 1) != 0) {
+            if (Math.abs(distance - current) > state.controlValueCutIn)
+                distance = current;
+            distance = round(distance);
+        }
+        move(zp0, point, distance - current, true);
+        state.rp0 = state.rp1 = point;
+    }
+    
+    private void moveStackIndirectRelative(int opcode) {
+        int distance = pop(),
+            point = check(zp1, pop()),
+            rp0 = check(zp0, state.rp0);
+        if (zp1 == twilight) {
+            zp1.orgX[point] = zp0.orgX[rp0];
+            zp1.orgY[point] = zp0.orgY[rp0];
+            moveOriginal(zp1, point, distance);
+            zp1.curX[point] = zp1.orgX[point];
+            zp1.curY[point] = zp1.orgY[point];
+        }
+        
+        move(zp1, point, distance - project(zp1, point, zp0, rp0), true);
+        state.rp1 = state.rp0;
+        state.rp2 = point;
+        if ((opcode & 1) != 0) state.rp0 = point;
+    }
+    
+    private void moveDirectRelative(int opcode) {
+        int point = check(zp1, pop()),
+            rp0 = check(zp0, state.rp0);
+        int original = dualProject(zp1.orgX[point] - zp0.orgX[rp0],
+                                   zp1.orgY[point] - zp0.orgY[rp0]);
+        
+        int width = state.singleWidthValue;
+        if (state.singleWidthCutIn > 0
+            && Math.abs(Math.abs(original) - width)
+               < state.singleWidthCutIn)
+            original = original >= 0 ? width : -width;
+        
+        int distance = (opcode & 4) != 0 ? round(original) : original;
+        if ((opcode & 8) != 0) distance = keepMinimum(original, distance);
+        
+        move(zp1, point, distance - project(zp1, point, zp0, rp0), true);
+        state.rp1 = state.rp0;
+        state.rp2 = point;
+        if ((opcode & 16) != 0) state.rp0 = point;
+    }
+    
+    private void moveIndirectRelative(int opcode) {
+        int index = pop(),
+            point = check(zp1, pop()),
+            rp0 = check(zp0, state.rp0);
+        int value = index == -1 ? 0 : cvt[checkIndex(cvt, index)];
+        
+        int width = state.singleWidthValue;
+        if (state.singleWidthCutIn > 0
+            && Math.abs(Math.abs(value) - width) < state.singleWidthCutIn)
+            value = value >= 0 ? width : -width;
+        
+        if (zp1 == twilight) {
+            zp1.orgX[point] = zp1.curX[point] = zp0.orgX[rp0]
+                                                + mulFix14(value,
+                                                           state.freeX);
+            zp1.orgY[point] = zp1.curY[point] = zp0.orgY[rp0]
+                                                + mulFix14(value,
+                                                           state.freeY);
+        }
+        
+        int original = dualProject(zp1.orgX[point] - zp0.orgX[rp0],
+                                   zp1.orgY[point] - zp0.orgY[rp0]),
+            current = project(zp1, point, zp0, rp0);
+        if (state.autoFlip && (original ^ value) < 0) value = -value;
+        
+        int distance = value;
+        if ((opcode & 4) != 0) {
+            if (zp0 == zp1
+                && Math.abs(value - original) > state.controlValueCutIn)
+                value = original;
+            distance = round(value);
+        }
+        if ((opcode & 8) != 0) distance = keepMinimum(original, distance);
+        
+        move(zp1, point, distance - current, true);
+        state.rp1 = state.rp0;
+        state.rp2 = point;
+        if ((opcode & 16) != 0) state.rp0 = point;
+    }
+    
+    // Applies the minimum distance in the direction of the original distance.
+    private int keepMinimum(int original, int distance) {
+        int minimum = state.minimumDistance;
+        if (original >= 0) return Math.max(distance, minimum);
+        
+        return Math.min(distance, -minimum);
+    }
+    
+    /*
+     * Computes the displacement of the reference point which SHP, SHC and
+     * SHZ shift other points by: rp2 of zp1 for even opcodes and rp1 of zp0
+     * for odd opcodes.
+     */
+    private int[] displacement(int opcode) {
+        Zone zone = reference(opcode);
+        int point = check(zone, (opcode & 1) != 0 ? state.rp1 : state.rp2);
+        int distance = project(zone.curX[point] - zone.orgX[point],
+                               zone.curY[point] - zone.orgY[point]);
+        int dot = (int)((long)state.projX * state.freeX
+                        + (long)state.projY * state.freeY
+                        >> 14);
+        if (Math.abs(dot) < 0x400) dot = 0x4000;
+        
+        return new int[] { mulDiv(distance, state.freeX, dot),
+                           mulDiv(distance, state.freeY, dot),
+                           point };
+    }
+    
+    private Zone reference(int opcode) {
+        return (opcode & 1) != 0 ? zp0 : zp1;
+    }
+    
+    private void shiftPoints(int opcode) {
+        int[] d = displacement(opcode);
+        for (; state.loop > 0; state.loop--)
+            shift(zp2, check(zp2, pop()), d[0], d[1], true);
+        state.loop = 1;
+    }
+    
+    private void shiftContour(int opcode) {
+        int[] d = displacement(opcode);
+        int contour = pop();
+        if (contour < 0 || contour >= zp2.contourEnds.length)
+            throw new IllegalArgumentException("Invalid contour " + contour);
+        
+        int first = contour == 0 ? 0 : zp2.contourEnds[contour - 1] + 1;
+        for (int i = first; i <= zp2.contourEnds[contour]; i++)
+            if (zp2 != reference(opcode) || i != d[2])
+                shift(zp2, i, d[0], d[1], true);
+    }
+    
+    private void shiftZone(int opcode) {
+        int[] d = displacement(opcode);
+        Zone zone = zone(pop());
+        
+        // The phantom points of the glyph zone are not shifted.
+        int limit = zone == twilight
+                    ? zone.size()
+                    : zone.contourEnds.length == 0
+                      ? 0
+                      : zone.contourEnds[zone.contourEnds.length - 1] + 1;
+        for (int i = 0; i < limit; i++)
+            if (zone != reference(opcode) || i != d[2])
+                shift(zone, i, d[0], d[1], false);
+    }
+    
+    private void interpolatePoints() {
+        int rp1 = check(zp0, state.rp1),
+            rp2 = check(zp1, state.rp2);
+        int originalRange = dualProject(zp1.orgX[rp2] - zp0.orgX[rp1],
+                                        zp1.orgY[rp2] - zp0.orgY[rp1]),
+            currentRange = project(zp1, rp2, zp0, rp1);
+        
+        for (; state.loop > 0; state.loop--) {
+            int point = check(zp2, pop());
+            int original = dualProject(zp2.orgX[point] - zp0.orgX[rp1],
+                                       zp2.orgY[point] - zp0.orgY[rp1]),
+                current = project(zp2, point, zp0, rp1),
+                distance = original == 0
+                           ? 0
+                           : originalRange == 0
+                             ? original
+                             : mulDiv(original, currentRange, originalRange);
+            move(zp2, point, distance - current, true);
+        }
+        state.loop = 1;
+    }
+    
+    /*
+     * Interpolates the points of each contour in the glyph zone which have
+     * not been touched along an axis between the touched points on either
+     * side of them.
+     */
+    private void interpolateUntouched(boolean x) {
+        Zone zone = glyph;
+        int[] org = x ? zone.orgX : zone.orgY,
+              cur = x ? zone.curX : zone.curY;
+        byte touched = x ? TOUCHED_X : TOUCHED_Y;
+        
+        int first = 0;
+        for (int end : zone.contourEnds) {
+            int point = first;
+            while (point <= end && (zone.flags[point] & touched) == 0)
+                point++;
+            
+            if (point <= end) {
+                int firstTouched = point,
+                    lastTouched = point;
+                for (point++; point <= end; point++) {
+                    if ((zone.flags[point] & touched) == 0) continue;
+                    
+                    interpolate(org, cur, lastTouched + 1, point - 1,
+                                lastTouched, point);
+                    lastTouched = point;
+                }
+                
+                if (lastTouched == firstTouched) {
+                    int delta = cur[lastTouched] - org[lastTouched];
+                    for (int i = first; i <= end; i++)
+                        if (i != lastTouched) cur[i] += delta;
+                }
+                else {
+                    interpolate(org, cur, lastTouched + 1, end,
+                                lastTouched, firstTouched);
+                    interpolate(org, cur, first, firstTouched - 1,
+                                lastTouched, firstTouched);
+                }
+            }
+            first = end + 1;
+        }
+    }
+    
+    private static void interpolate(int[] org,
+                                    int[] cur,
+                                    int from,
+                                    int to,
+                                    int ref1,
+                                    int ref2) {
+        if (from > to) return;
+        
+        if (org[ref1] > org[ref2]) {
+            int t = ref1;
+            ref1 = ref2;
+            ref2 = t;
+        }
+        
+        int org1 = org[ref1],
+            org2 = org[ref2],
+            cur1 = cur[ref1],
+            cur2 = cur[ref2];
+        for (int i = from; i <= to; i++) {
+            int value = org[i];
+            if (value <= org1) value += cur1 - org1;
+            else if (value >= org2) value += cur2 - org2;
+            else value = cur1 + mulDiv(value - org1, cur2 - cur1, org2 - org1);
+            cur[i] = value;
+        }
+    }
+    
+    /*
+     * Decodes the argument of a DELTAP or DELTAC exception, returning the
+     * distance by which to move when it applies at this size and zero
+     * otherwise.
+     */
+    private int delta(int argument, int range) {
+        int size = state.deltaBase + range + (argument >> 4 & 0x0F);
+        if (size != ppem) return 0;
+        
+        int step = (argument & 0x0F) - 8;
+        if (step >= 0) step++;
+        
+        return step * 64 >> state.deltaShift;
+    }
+    
+    private void deltaPoints(int range) {
+        int count = pop();
+        for (int i = 0; i < count; i++) {
+            int point = check(zp0, pop()),
+                distance = delta(pop(), range);
+            if (distance != 0) move(zp0, point, distance, true);
+        }
+    }
+    
+    private void deltaControlValues(int range) {
+        int count = pop();
+        for (int i = 0; i < count; i++) {
+            int index = checkIndex(cvt, pop());
+            cvt[index] += delta(pop(), range);
+        }
+    }
+}
@@ -0,0 +1,569 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The outlines of a font with PostScript outlines, which are held in a
+ * <code>CFF</code> (Compact Font Format) or <code>CFF2</code> table rather
+ * than in the <code>glyf</code> table. Each glyph is described by a Type 2
+ * charstring, a small program which draws the outline with lines and cubic
+ * curves, and which may call subroutines shared by the whole font (the
+ * global subroutines) or by the glyphs of one font DICT (the local
+ * subroutines).
+ * 
+ * <p>
+ * Only the structures which are needed to draw outlines are read: the
+ * <code>CharStrings</code> INDEX, the global and local subroutines, and, for
+ * CID-keyed fonts and <code>CFF2</code> tables, the font DICTs and the
+ * <code>FDSelect</code> which assigns each glyph to one of them. Glyph names,
+ * encodings and the hints of the Private DICTs are ignored, and a variable
+ * <code>CFF2</code> font is drawn at its default instance.
+ * </p>
+ * 
+ * <p>
+ * The subroutines of a font are decoded the first time that they are called
+ * and kept in decoded form, so the numbers in a subroutine which is called
+ * by many glyphs are only parsed once.
+ * </p>
+ * 
+ * @see CharstringInterpreter
+ */
+public class CFFTable {
+    /*
+     * The operators of the DICT data which are used. Two-byte operators,
+     * which begin with the escape byte 12, are given as 1200 plus their
+     * second byte.
+     */
+    private static final int CHARSTRINGS = 17,
+                             PRIVATE = 18,
+                             SUBRS = 19,
+                             VSINDEX = 22,
+                             BLEND = 23,
+                             VSTORE = 24,
+                             FD_ARRAY = 1236,
+                             FD_SELECT = 1237;
+    
+    // The largest number of operands which a DICT may hold at once.
+    private static final int MAX_OPERANDS = 513;
+    
+    private final ByteBuffer data;
+    private final boolean cff2;
+    private final Index charStrings;
+    private final Subroutines globals;
+    private final Subroutines[] locals;
+    private final int[] vsindices,
+                        regionCounts;
+    private final int fdSelect;
+    
+    /**
+     * Reads the header, top DICT and subroutine INDEXes of a
+     * <code>CFF</code> or <code>CFF2</code> table, which are distinguished by
+     * the major version in their header.
+     * 
+     * @param data The table, beginning at index zero.
+     * 
+     * @throws IllegalArgumentException If the version of the table is not
+     *                                  supported, or the table does not
+     *                                  contain any charstrings.
+     */
+    public CFFTable(ByteBuffer data) {
+        this.data = data;
+        
+        int major = data.get(0) & 0xFF,
+            headerSize = data.get(2) & 0xFF;
+        if (major != 1 && major != 2)
+            throw new IllegalArgumentException("Version "
+                                               + major
+                                               + " of the CFF format is not "
+                                               + "supported.");
+        cff2 = major == 2;
+        
+        /*
+         * The top DICT of a CFF table is the only entry of an INDEX which
+         * follows the names of the fonts in the table, while a CFF2 table has
+         * a single top DICT directly after its header.
+         */
+        Map<Integer, double[]> top;
+        int globalsOffset;
+        if (cff2) {
+            int topLength = data.getShort(3) & 0xFFFF;
+            top = parseDict(headerSize, headerSize + topLength, 0);
+            globalsOffset = headerSize + topLength;
+        }
+        else {
+            Index names = new Index(data, headerSize, false),
+                  topDicts = new Index(data, names.end, false),
+                  strings = new Index(data, topDicts.end, false);
+            top = parseDict(topDicts.getStart(0), topDicts.getEnd(0), 0);
+            globalsOffset = strings.end;
+        }
+        globals = new Subroutines(new Index(data, globalsOffset, cff2));
+        
+        if (!top.containsKey(CHARSTRINGS))
+            throw new IllegalArgumentException("The CFF table does not "
+                                               + "contain any charstrings.");
+        charStrings = new Index(data, getOffset(top, CHARSTRINGS), cff2);
+        regionCounts = top.containsKey(VSTORE)
+                       ? readRegionCounts(getOffset(top, VSTORE))
+                       : new int[0];
+        
+        /*
+         * CID-keyed fonts and CFF2 fonts divide their glyphs between several
+         * font DICTs, each with a Private DICT of its own, while other fonts
+         * have a single Private DICT which is referenced by the top DICT.
+         */
+        if (top.containsKey(FD_ARRAY)) {
+            Index fonts = new Index(data, getOffset(top, FD_ARRAY), cff2);
+            locals = new Subroutines[fonts.count];
+            vsindices = new int[fonts.count];
+            for (int i = 0; i < fonts.count; i++)
+                readPrivate(parseDict(fonts.getStart(i), fonts.getEnd(i), 0),
+                            i);
+            
+            fdSelect = top.containsKey(FD_SELECT)
+                       ? getOffset(top, FD_SELECT)
+                       : -1;
+        }
+        else {
+            locals = new Subroutines[1];
+            vsindices = new int[1];
+            readPrivate(top, 0);
+            fdSelect = -1;
+        }
+    }
+    
+    /**
+     * Passes the outline of the glyph with the given ID to the sink, running
+     * its charstring (and any subroutines which it calls) without
+     * constructing a {@code Glyph}.
+     * 
+     * @param id The ID of the glyph.
+     * @param sink The sink which receives the outline, in FUnits.
+     * 
+     * @throws IllegalArgumentException If there is no glyph with the given
+     *                                  ID, or its charstring is malformed.
+     */
+    public void decode(int id, OutlineSink sink) {
+        new CharstringInterpreter(this).run(id, sink);
+    }
+    
+    /**
+     * @return The number of glyphs which have a charstring in this table.
+     */
+    public int getGlyphCount() {
+        return charStrings.count;
+    }
+    
+    /**
+     * @return Whether this is a <code>CFF2</code> table, whose charstrings
+     *         have no advance widths or <code>endchar</code> operators, and
+     *         may blend the values of a variable font.
+     */
+    public boolean isCFF2() {
+        return cff2;
+    }
+    
+    /* package-private */ ByteBuffer getData() {
+        return data;
+    }
+    
+    /* package-private */ Index getCharStrings() {
+        return charStrings;
+    }
+    
+    /* package-private */ Subroutines getGlobalSubroutines() {
+        return globals;
+    }
+    
+    /*
+     * Gets the local subroutines of a font DICT, which are null if its
+     * Private DICT does not have any.
+     */
+    /* package-private */ Subroutines getLocalSubroutines(int fd) {
+        return locals[fd];
+    }
+    
+    /* package-private */ int getVariationIndex(int fd) {
+        return vsindices[fd];
+    }
+    
+    /*
+     * Gets the number of regions which the deltas of a blend are given for,
+     * under the variation data at the given index of the variation store.
+     */
+    /* package-private */ int getRegionCount(int vsindex) {
+        // The variation store is not known while the top DICT is parsed.
+        if (regionCounts == null
+            || vsindex < 0
+            || vsindex >= regionCounts.length)
+            throw new IllegalArgumentException("There is no variation data "
+                                               + "at index "
+                                               + vsindex);
+        
+        return regionCounts[vsindex];
+    }
+    
+    /**
+     * Finds the font DICT which the glyph with the given ID belongs to.
+     * 
+     * @param id The ID of the glyph.
+     * 
+     * @return The index of the font DICT, which is always zero for fonts
+     *         which only have one.
+     */
+    /* package-private */ int getFontDict(int id) {
+        if (fdSelect < 0) return 0;
+        
+        int fd,
+            format = data.get(fdSelect) & 0xFF;
+        switch (format) {
+        case 0:
+            fd = data.get(fdSelect + 1 + id) & 0xFF;
+            break;
+        case 3:
+        case 4:
+            /*
+             * The ranges are sorted by their first glyph, so the range which
+             * contains the glyph is the last one to begin at or before it.
+             * Format 4 is the same as format 3 with wider fields.
+             */
+            boolean wide = format == 4;
+            int count = wide
+                        ? data.getInt(fdSelect + 1)
+                        : data.getShort(fdSelect + 1) & 0xFFFF,
+                ranges = fdSelect + (wide ? 5 : 3),
+                size = wide ? 6 : 3,
+                low = 0,
+                high = count - 1;
+            fd = 0;
+            while (low <= high) {
+                int mid = low + high >>> 1,
+                    range = ranges + mid * size;
+                int first = wide
+                            ? data.getInt(range)
+                            : data.getShort(range) & 0xFFFF;
+                if (first > id) high = mid - 1;
+                else {
+                    fd = wide
+                         ? data.getShort(range + 4) & 0xFFFF
+                         : data.get(range + 2) & 0xFF;
+                    low = mid + 1;
+                }
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Format "
+                                               + format
+                                               + " of the FDSelect is not "
+                                               + "supported.");
+        }
+        
+        if (fd >= locals.length)
+            throw new IllegalArgumentException("The glyph "
+                                               + id
+                                               + " belongs to a font DICT "
+                                               + "which does not exist.");
+        
+        return fd;
+    }
+    
+    /*
+     * Reads the Private DICT which is referenced by a top or font DICT,
+     * keeping the location of its local subroutines and its default variation
+     * index.
+     */
+    private void readPrivate(Map<Integer, double[]> dict, int fd) {
+        double[] location = dict.get(PRIVATE);
+        if (location == null || location.length < 2) return;
+        
+        int size = (int)location[0],
+            offset = (int)location[1];
+        Map<Integer, double[]> priv = parseDict(offset, offset + size, 0);
+        if (priv.containsKey(VSINDEX))
+            vsindices[fd] = getOffset(priv, VSINDEX);
+        
+        // The offset of the local subroutines is relative to the Private DICT.
+        if (priv.containsKey(SUBRS))
+            locals[fd] = new Subroutines(new Index(data,
+                                                   offset
+                                                   + getOffset(priv, SUBRS),
+                                                   cff2));
+    }
+    
+    /*
+     * Reads the number of regions of each item variation data in the variation
+     * store of a CFF2 table, which determines how many deltas follow each
+     * value that is blended. The store begins with its length.
+     */
+    private int[] readRegionCounts(int offset) {
+        int store = offset + 2,
+            count = data.getShort(store + 6) & 0xFFFF;
+        
+        int[] counts = new int[count];
+        for (int i = 0; i < count; i++) {
+            int variationData = store + data.getInt(store + 8 + 4 * i);
+            counts[i] = data.getShort(variationData + 4) & 0xFFFF;
+        }
+        
+        return counts;
+    }
+    
+    private static int getOffset(Map<Integer, double[]> dict, int operator) {
+        double[] operands = dict.get(operator);
+        if (operands.length == 0)
+            throw new IllegalArgumentException("The DICT operator "
+                                               + operator
+                                               + " has no operands.");
+        
+        return (int)operands[0];
+    }
+    
+    /*
+     * Parses the DICT data between the given offsets into a map from each
+     * operator to its operands. Blended operands in the Private DICT of a
+     * CFF2 table are replaced by their default values.
+     */
+    private Map<Integer, double[]> parseDict(int start, int end, int vsindex) {
+        Map<Integer, double[]> dict = new HashMap<>();
+        double[] operands = new double[MAX_OPERANDS];
+        int count = 0;
+        
+        for (int i = start; i < end;) {
+            int b0 = data.get(i++) & 0xFF;
+            if (b0 <= 27) {
+                int operator = b0 == 12 ? 1200 + (data.get(i++) & 0xFF) : b0;
+                if (operator == BLEND) {
+                    if (count == 0)
+                        throw new IllegalArgumentException("A blend in the "
+                                                           + "DICT has no "
+                                                           + "operands.");
+                    
+                    int n = (int)operands[--count];
+                    count -= n * getRegionCount(vsindex);
+                    if (count < n)
+                        throw new IllegalArgumentException("A blend in the "
+                                                           + "DICT has too "
+                                                           + "few operands.");
+                    continue;
+                }
+                
+                double[] values = new double[count];
+                System.arraycopy(operands, 0, values, 0, count);
+                dict.put(operator, values);
+                if (operator == VSINDEX && count > 0)
+                    vsindex = (int)values[0];
+                count = 0;
+                continue;
+            }
+            
+            if (count == MAX_OPERANDS)
+                throw new IllegalArgumentException("A DICT has too many "
+                                                   + "operands.");
+            
+            double value;
+            if (b0 == 28) {
+                value = data.getShort(i);
+                i += 2;
+            }
+            else if (b0 == 29) {
+                value = data.getInt(i);
+                i += 4;
+            }
+            else if (b0 == 30) {
+                StringBuilder real = new StringBuilder();
+                i = readReal(i, real);
+                value = Double.parseDouble(real.toString());
+            }
+            else if (b0 >= 32 && b0 <= 246) value = b0 - 139;
+            else if (b0 >= 247 && b0 <= 250)
+                value = (b0 - 247) * 256 + (data.get(i++) & 0xFF) + 108;
+            else if (b0 >= 251 && b0 <= 254)
+                value = -(b0 - 251) * 256 - (data.get(i++) & 0xFF) - 108;
+            else
+                throw new IllegalArgumentException("The byte "
+                                                   + b0
+                                                   + " is not valid in a "
+                                                   + "DICT.");
+            
+            operands[count++] = value;
+        }
+        
+        return dict;
+    }
+    
+    /*
+     * Reads a real number, which is stored as a string of nibbles that each
+     * hold a digit, a decimal point, an exponent, a minus sign, or the end of
+     * the number. Returns the offset after the last byte of the number.
+     */
+    private int readReal(int offset, StringBuilder real) {
+        for (;;) {
+            int b = data.get(offset++) & 0xFF;
+            for (int nibble : new int[] { b >> 4, b & 0xF }) {
+                switch (nibble) {
+                case 0xA:
+                    real.append('.');
+                    break;
+                case 0xB:
+                    real.append('E');
+                    break;
+                case 0xC:
+                    real.append("E-");
+                    break;
+                case 0xE:
+                    real.append('-');
+                    break;
+                case 0xF:
+                    if (real.length() == 0) real.append('0');
+                    return offset;
+                default:
+                    if (nibble > 9)
+                        throw new IllegalArgumentException("A real number "
+                                                           + "in a DICT is "
+                                                           + "malformed.");
+                    real.append((char)('0' + nibble));
+                }
+            }
+        }
+    }
+    
+    /**
+     * An INDEX, which is an array of variable-length objects (such as
+     * charstrings) stored one after another and located through an array of
+     * offsets. The offsets are relative to the byte before the first object,
+     * and there is one more offset than there are objects, so the last
+     * offset gives the end of the INDEX.
+     */
+    /* package-private */ static final class Index {
+        final int count,
+                  end;
+        private final ByteBuffer data;
+        private final int offSize,
+                          offsets,
+                          base;
+        
+        /**
+         * @param data The table containing the INDEX.
+         * @param offset The offset of the INDEX in the table.
+         * @param cff2 Whether the INDEX belongs to a <code>CFF2</code> table,
+         *             in which its count is 32 bits wide rather than 16.
+         */
+        Index(ByteBuffer data, int offset, boolean cff2) {
+            this.data = data;
+            count = cff2
+                    ? data.getInt(offset)
+                    : data.getShort(offset) & 0xFFFF;
+            offsets = offset + (cff2 ? 4 : 2) + 1;
+            
+            // An empty INDEX is only as long as its count.
+            if (count == 0) {
+                offSize = base = 0;
+                end = offsets - 1;
+                return;
+            }
+            
+            offSize = data.get(offsets - 1) & 0xFF;
+            if (count < 0 || offSize < 1 || offSize > 4)
+                throw new IllegalArgumentException("An INDEX in the CFF "
+                                                   + "table is malformed.");
+            
+            base = offsets + (count + 1) * offSize - 1;
+            end = base + getOffset(count);
+        }
+        
+        /**
+         * @return The offset in the table of the object at the given index.
+         */
+        int getStart(int index) {
+            check(index);
+            
+            return base + getOffset(index);
+        }
+        
+        /**
+         * @return The offset in the table after the end of the object at the
+         *         given index.
+         */
+        int getEnd(int index) {
+            check(index);
+            
+            return base + getOffset(index + 1);
+        }
+        
+        private void check(int index) {
+            if (index < 0 || index >= count)
+                throw new IllegalArgumentException("There is no object at "
+                                                   + "index "
+                                                   + index
+                                                   + " of an INDEX with "
+                                                   + count
+                                                   + " objects.");
+        }
+        
+        private int getOffset(int index) {
+            int offset = 0;
+            for (int i = 0, o = offsets + index * offSize; i < offSize; i++)
+                offset = offset << 8 | data.get(o + i) & 0xFF;
+            
+            return offset;
+        }
+    }
+    
+    /**
+     * The global subroutines of a font, or the local subroutines of one of
+     * its font DICTs, along with the subroutines which have been decoded.
+     * Decoded subroutines never change, so threads which decode the same
+     * subroutine at once may each store their own copy without harm.
+     */
+    /* package-private */ static final class Subroutines {
+        final Index index;
+        final int bias;
+        private final CharstringInterpreter.Subroutine[] decoded;
+        
+        Subroutines(Index index) {
+            this.index = index;
+            
+            /*
+             * The number given to callsubr and callgsubr is biased, so that
+             * more subroutines can be called with numbers which are encoded
+             * in a single byte.
+             */
+            bias = index.count < 1240
+                   ? 107
+                   : index.count < 33900 ? 1131 : 32768;
+            decoded = new CharstringInterpreter.Subroutine[index.count];
+        }
+        
+        /**
+         * Gets the decoded form of the subroutine at the given index,
+         * decoding it if this is the first time that it has been called.
+         */
+        CharstringInterpreter.Subroutine get(int i) {
+            CharstringInterpreter.Subroutine subroutine = decoded[i];
+            if (subroutine == null)
+                decoded[i] = subroutine = CharstringInterpreter
+                                          .decode(index.data,
+                                                  index.getStart(i),
+                                                  index.getEnd(i));
+            
+            return subroutine;
+        }
+    }
+}
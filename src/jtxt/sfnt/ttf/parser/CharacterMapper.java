@@ -27,13 +27,48 @@ public class CharacterMapper {
                             PLATFORM_WINDOWS = 3,
                             PLATFORM_CUSTOM = 4;
     
+    /*
+     * The strategies which may be used to find the glyph for a character in
+     * a segment mapping (format 4). A dense lookup builds a table of the
+     * glyph IDs for the entire BMP the first time that a character is looked
+     * up, which requires 128KB per font, while a binary search requires no
+     * additional memory.
+     */
+    public static final int LOOKUP_DENSE = 0,
+                            LOOKUP_BINARY_SEARCH = 1;
+    
     // The subset of encodings which are supported by this character mapper.
     public static final int PLATFORM_UNICODE_ID = 5,
+                            PLATFORM_UNICODE_BMP = 3,
+                            PLATFORM_UNICODE_FULL = 4,
+                            PLATFORM_UNICODE_FULL_REPERTOIRE = 6,
                             PLATFORM_OS_X_ID = 0,
                             PLATFORM_WINDOWS_SYMBOL_ID = 0,
                             PLATFORM_WINDOWS_UNICODE_BMP = 1,
                             PLATFORM_WINDOWS_UNICODE_FULL = 10;
     
+    /*
+     * The encodings which are chosen automatically when no encoding has been
+     * requested, in order of preference, as pairs of platform and encoding
+     * IDs. Encodings covering the full range of Unicode are preferred, since
+     * their subtables also contain the characters outside of the BMP. The
+     * full repertoire encoding, (0, 6), goes with the many-to-one format 13
+     * subtable of last-resort fonts, so it is only used when nothing else is
+     * available.
+     */
+    private static final int[] PREFERRED_ENCODINGS = {
+        PLATFORM_WINDOWS, PLATFORM_WINDOWS_UNICODE_FULL,
+        PLATFORM_UNICODE, PLATFORM_UNICODE_FULL,
+        PLATFORM_WINDOWS, PLATFORM_WINDOWS_UNICODE_BMP,
+        PLATFORM_UNICODE, PLATFORM_UNICODE_BMP,
+        PLATFORM_UNICODE, 2,
+        PLATFORM_UNICODE, 1,
+        PLATFORM_UNICODE, 0,
+        PLATFORM_WINDOWS, PLATFORM_WINDOWS_SYMBOL_ID,
+        PLATFORM_OS_X, PLATFORM_OS_X_ID,
+        PLATFORM_UNICODE, PLATFORM_UNICODE_FULL_REPERTOIRE
+    };
+    
     protected static final class EncodingRecord {
         public short platformId,
                      encodingId;
@@ -63,7 +98,18 @@ public class CharacterMapper {
         public static GlyphIndexer createIndexer(ByteBuffer buffer,
                                                  int offset) {
             short format = buffer.getShort();
-            int length = buffer.getShort();
+            if (format == 12 || format == 13) {
+                /* reserved */ buffer.getShort();
+                int length = buffer.getInt();
+                /* language */ buffer.getInt();
+                
+                return new SegmentedCoverageIndexer(buffer,
+                                                    offset,
+                                                    length,
+                                                    format == 13);
+            }
+            
+            int length = buffer.getShort() & 0xFFFF;
             /* language */ buffer.getShort();
             
             switch (format) {
@@ -76,7 +122,9 @@ public class CharacterMapper {
                                                offset,
                                                length);
             case 6:
-            case 12:
+                return new TrimmedIndexer(buffer,
+                                          offset,
+                                          length);
             case 14:
             default:
                 /*
@@ -114,81 +162,253 @@ public class CharacterMapper {
         public int getGlyphId(int character) {
             if (character < 0 || character >= 256) return 0;
             
-            return indices[character];
+            return indices[character] & 0xFF;
         }
     }
     
     private static class SegmentDeltaIndexer implements GlyphIndexer {
         private ShortBuffer buffer;
-        private int glyphIdArrayOffset;
+        private int idRangeOffsetsStart,
+                    mode;
         
         private short segments;
-        private short[] endCodes,
-                        startCodes,
-                        idDeltas,
-                        idRangeOffsets;
+        private char[] endCodes,
+                       startCodes,
+                       idRangeOffsets;
+        private short[] idDeltas;
+        
+        /*
+         * The glyph ID of every character in the BMP, which is only built if
+         * dense lookups have been requested and a character is looked up.
+         */
+        private volatile char[] table;
         
         private SegmentDeltaIndexer(ByteBuffer buff,
                                     int offset,
                                     int length) {
             buffer = buff.asShortBuffer();
-            segments = (short)(buffer.get() / 2);
+            segments = (short)((buffer.get() & 0xFFFF) / 2);
             /* searchRange */ buffer.get();
             /* entrySelector */ buffer.get();
             /* rangeShift */ buffer.get();
             
-            endCodes = new short[segments];
-            startCodes = new short[segments];
+            endCodes = new char[segments];
+            startCodes = new char[segments];
             idDeltas = new short[segments];
-            idRangeOffsets = new short[segments];
+            idRangeOffsets = new char[segments];
             
-            buffer.get(endCodes);
+            readCodes(endCodes);
             /* reserved */ buffer.get();
-            buffer.get(startCodes);
+            readCodes(startCodes);
             buffer.get(idDeltas);
-            buffer.get(idRangeOffsets);
-            glyphIdArrayOffset = buffer.position();
+            idRangeOffsetsStart = buffer.position();
+            readCodes(idRangeOffsets);
+        }
+        
+        private void readCodes(char[] codes) {
+            for (int i = 0; i < codes.length; i++)
+                codes[i] = (char)buffer.get();
+        }
+        
+        /*
+         * Finds the glyph ID for the given code, which is known to lie within
+         * the given segment.
+         */
+        private int mapInSegment(int segment, int code) {
+            int idRangeOffset = idRangeOffsets[segment];
+            if (idRangeOffset == 0)
+                return code + idDeltas[segment] & 0xFFFF;
+            
+            /*
+             * The range offset is the distance in bytes from its own position
+             * in the font to the glyph ID for the first code in the segment.
+             */
+            int index = idRangeOffsetsStart
+                        + segment
+                        + idRangeOffset / 2
+                        + (code - startCodes[segment]);
+            if (index >= buffer.limit()) return 0;
+            
+            int id = buffer.get(index) & 0xFFFF;
+            if (id == 0) return 0;
+            
+            return id + idDeltas[segment] & 0xFFFF;
         }
         
-        private int findAddressForIdRange(int segment) {
-            return glyphIdArrayOffset
-                   - (idRangeOffsets.length - segment)
-                   * 2;
+        private int search(int code) {
+            // Find the first segment whose end code is at least the code.
+            int lo = 0,
+                hi = segments - 1;
+            while (lo < hi) {
+                int mid = lo + hi >>> 1;
+                if (endCodes[mid] < code) lo = mid + 1;
+                else hi = mid;
+            }
+            
+            if (segments == 0
+                || code > endCodes[lo]
+                || code < startCodes[lo])
+                return 0;
+            
+            return mapInSegment(lo, code);
+        }
+        
+        private char[] buildTable() {
+            char[] table = new char[65536];
+            for (int s = 0; s < segments; s++) {
+                int end = endCodes[s];
+                for (int code = startCodes[s]; code <= end; code++)
+                    table[code] = (char)mapInSegment(s, code);
+            }
+            
+            return table;
         }
         
         @Override
         public int getGlyphId(int character) {
-            char code = (char)character;
+            if (character < 0 || character > 0xFFFF) return 0;
+            if (mode == LOOKUP_BINARY_SEARCH) return search(character);
             
-            int s = 0;
-            for (; s < segments; s++) {
-                /*
-                 * Check to see if the character we are searching for lies within the
-                 * range of one of the segments defined by this mapping.
-                 */
-                if (code <= endCodes[s]) {
-                    if (code >= startCodes[s]) break;
-                    
-                    // No mappings contain this character.
-                    return 0;
+            char[] table = this.table;
+            if (table == null) this.table = table = buildTable();
+            
+            return table[character];
+        }
+        
+        @Override
+        public int getGlyphIds(CharSequence text,
+                               int start,
+                               int end,
+                               int[] out) {
+            if (mode == LOOKUP_BINARY_SEARCH)
+                return GlyphIndexer.super.getGlyphIds(text, start, end, out);
+            
+            char[] table = this.table;
+            if (table == null) this.table = table = buildTable();
+            
+            /*
+             * A format 4 subtable only maps the BMP, so surrogate pairs are
+             * consumed as a single character which maps to .notdef.
+             */
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (Character.isHighSurrogate(c)
+                    && i + 1 < end
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    out[count++] = 0;
+                    i++;
+                    continue;
                 }
+                
+                out[count++] = table[c];
             }
             
-            short idRangeOffset = idRangeOffsets[s];
-            if (idRangeOffset == 0) return code + idDeltas[s];
+            return count;
+        }
+        
+        void setLookupMode(int mode) {
+            this.mode = mode;
+            // Release the table if memory has become constrained.
+            if (mode == LOOKUP_BINARY_SEARCH) table = null;
+        }
+    }
+    
+    private static class TrimmedIndexer implements GlyphIndexer {
+        private final int firstCode;
+        private final char[] ids;
+        
+        private TrimmedIndexer(ByteBuffer buffer,
+                               int offset,
+                               int length) {
+            firstCode = buffer.getShort() & 0xFFFF;
+            ids = new char[buffer.getShort() & 0xFFFF];
+            buffer.asCharBuffer().get(ids);
+        }
+        
+        @Override
+        public int getGlyphId(int character) {
+            int index = character - firstCode;
+            if (index < 0 || index >= ids.length) return 0;
             
-            int id = buffer.get(idRangeOffset
-                                + (code - startCodes[s])
-                                + findAddressForIdRange(s));
+            return ids[index];
+        }
+    }
+    
+    /**
+     * Maps characters using groups of sequential character codes (format 12)
+     * or groups of characters which all map to the same glyph (format 13).
+     * The groups are sorted by their character codes, so the group for a
+     * character is found using a binary search.
+     */
+    private static class SegmentedCoverageIndexer implements GlyphIndexer {
+        private final int[] startCodes,
+                            endCodes,
+                            startIds;
+        private final boolean manyToOne;
+        
+        private SegmentedCoverageIndexer(ByteBuffer buffer,
+                                         int offset,
+                                         int length,
+                                         boolean manyToOne) {
+            this.manyToOne = manyToOne;
             
-            if (id == 0) return 0;
+            int groups = buffer.getInt();
+            startCodes = new int[groups];
+            endCodes = new int[groups];
+            startIds = new int[groups];
+            for (int i = 0; i < groups; i++) {
+                startCodes[i] = buffer.getInt();
+                endCodes[i] = buffer.getInt();
+                startIds[i] = buffer.getInt();
+            }
+        }
+        
+        @Override
+        public int getGlyphId(int character) {
+            int lo = 0,
+                hi = endCodes.length - 1;
+            while (lo <= hi) {
+                int mid = lo + hi >>> 1;
+                if (endCodes[mid] < character) lo = mid + 1;
+                else if (startCodes[mid] > character) hi = mid - 1;
+                else return manyToOne
+                            ? startIds[mid]
+                            : startIds[mid] + character - startCodes[mid];
+            }
             
-            return (id + idDeltas[s]) % 65536;
+            return 0;
         }
     }
     
     private EncodingRecord[] records;
     private GlyphIndexer indexer;
+    private int mode,
+                platformId,
+                encodingId;
+    
+    /**
+     * Creates a mapping from the subtable of the <code>cmap</code> table which
+     * best covers Unicode. Subtables for the full Unicode repertoire, (3, 10)
+     * and (0, 4), are preferred over those which only cover the BMP.
+     * 
+     * @param buffer The buffer for this font.
+     * @param offset The offset of the <code>cmap</code> table.
+     */
+    /* package-private */ CharacterMapper(ByteBuffer buffer, int offset) {
+        readRecords(buffer, offset);
+        
+        for (int i = 0; i < PREFERRED_ENCODINGS.length; i += 2) {
+            if (select(buffer,
+                       offset,
+                       PREFERRED_ENCODINGS[i],
+                       PREFERRED_ENCODINGS[i + 1]))
+                return;
+        }
+        
+        throw new UnsupportedEncodingScheme("The font does not contain a "
+                                            + "Unicode character mapping.");
+    }
     
     /**
      * TODO: Update this documentation once the API is stable.
@@ -201,6 +421,16 @@ public class CharacterMapper {
             throw new IllegalArgumentException("Unsupported platform ID "
                                                + platformId);
         
+        readRecords(buffer, offset);
+        if (!select(buffer, offset, platformId, encodingId))
+            throw new UnsupportedEncodingScheme("The font does not contain a "
+                                                + "mapping for platform "
+                                                + platformId
+                                                + ", encoding "
+                                                + encodingId);
+    }
+    
+    private void readRecords(ByteBuffer buffer, int offset) {
         buffer.position(offset);
         /* version */ buffer.getShort();
         short numTables = buffer.getShort();
@@ -217,14 +447,104 @@ public class CharacterMapper {
             records[i] = new EncodingRecord(pId,
                                             eId,
                                             buffer.getInt());
+        }
+        
+    }
+    
+    private boolean select(ByteBuffer buffer,
+                           int offset,
+                           int platformId,
+                           int encodingId) {
+        for (EncodingRecord record : records) {
+            if (record.platformId != platformId
+                || record.encodingId != encodingId)
+                continue;
             
-            if (pId == platformId && eId == encodingId)
-                indexer = EncodingRecord.createIndexer(buffer,
-                                                       offset + 4 + i * 8);
+            int subtable = offset + record.offset;
+            buffer.position(subtable);
+            indexer = EncodingRecord.createIndexer(buffer, subtable);
+            this.platformId = platformId;
+            this.encodingId = encodingId;
+            
+            return true;
         }
+        
+        return false;
+    }
+    
+    public int getPlatformId() {
+        return platformId;
+    }
+    
+    public int getEncodingId() {
+        return encodingId;
+    }
+    
+    /**
+     * Selects the strategy used to find the glyph for a character, which is
+     * one of the <code>LOOKUP_*</code> constants defined in this class. The
+     * mode only affects subtables which map segments of characters (format
+     * 4), since the other formats are already indexed directly.
+     * 
+     * @param mode The lookup mode to use.
+     */
+    public void setLookupMode(int mode) {
+        if (mode != LOOKUP_DENSE && mode != LOOKUP_BINARY_SEARCH)
+            throw new IllegalArgumentException("Unknown lookup mode " + mode);
+        
+        this.mode = mode;
+        if (indexer instanceof SegmentDeltaIndexer)
+            ((SegmentDeltaIndexer)indexer).setLookupMode(mode);
+    }
+    
+    public int getLookupMode() {
+        return mode;
     }
     
     public int findId(char character) {
         return indexer.getGlyphId(character);
     }
+    
+    /**
+     * Finds the ID of the glyph for the given Unicode code point, which may
+     * lie outside of the BMP if the selected subtable supports it.
+     * 
+     * @param codePoint The code point to find the glyph for.
+     * 
+     * @return The ID of the glyph, or zero if the code point is not mapped.
+     */
+    public int findId(int codePoint) {
+        return indexer.getGlyphId(codePoint);
+    }
+    
+    /**
+     * Maps a range of text to glyph IDs in a single call, writing the IDs
+     * into an array owned by the caller. Surrogate pairs are combined into a
+     * single code point, and so produce a single glyph ID.
+     * 
+     * @param text The text to map.
+     * @param start The index of the first character to map.
+     * @param end The index after the last character to map.
+     * @param out The array which receives the glyph IDs, starting at index
+     *            zero. It must have room for <code>end - start</code> IDs.
+     * 
+     * @return The number of glyph IDs written to the array, which is less
+     *         than the number of characters if the text contains surrogate
+     *         pairs.
+     */
+    public int mapToGlyphIds(CharSequence text,
+                             int start,
+                             int end,
+                             int[] out) {
+        if (start < 0 || end > text.length() || start > end)
+            throw new IndexOutOfBoundsException("Invalid range [" + start
+                                                + ", " + end + ") for text of "
+                                                + "length " + text.length());
+        if (out.length < end - start)
+            throw new IllegalArgumentException("The output array must have "
+                                               + "room for " + (end - start)
+                                               + " glyph IDs.");
+        
+        return indexer.getGlyphIds(text, start, end, out);
+    }
 }
\ No newline at end of file
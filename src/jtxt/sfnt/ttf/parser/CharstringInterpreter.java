@@ -0,0 +1,689 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Runs the Type 2 charstrings of a <code>CFF</code> or <code>CFF2</code>
+ * table, passing the lines and cubic curves which they draw to an
+ * {@code OutlineSink}. A charstring is a program for a simple stack machine,
+ * in which numbers are pushed onto an argument stack and operators consume
+ * them, drawing relative to the current point.
+ * 
+ * <p>
+ * Hints are not applied: stem operators are only counted, so that the masks
+ * of <code>hintmask</code> and <code>cntrmask</code> can be skipped. The
+ * <code>seac</code> form of <code>endchar</code>, which builds an accented
+ * character from two glyphs of the standard encoding, is not supported, and
+ * <code>random</code> is treated as an unknown operator.
+ * </p>
+ * 
+ * <p>
+ * An interpreter holds the state of a single charstring while it runs, so a
+ * new interpreter is used for each glyph which is decoded.
+ * </p>
+ */
+/* package-private */ final class CharstringInterpreter {
+    // Operators
+    private static final int HSTEM = 1,
+                             VSTEM = 3,
+                             VMOVETO = 4,
+                             RLINETO = 5,
+                             HLINETO = 6,
+                             VLINETO = 7,
+                             RRCURVETO = 8,
+                             CALLSUBR = 10,
+                             RETURN = 11,
+                             ESCAPE = 12,
+                             ENDCHAR = 14,
+                             VSINDEX = 15,
+                             BLEND = 16,
+                             HSTEMHM = 18,
+                             HINTMASK = 19,
+                             CNTRMASK = 20,
+                             RMOVETO = 21,
+                             HMOVETO = 22,
+                             VSTEMHM = 23,
+                             RCURVELINE = 24,
+                             RLINECURVE = 25,
+                             VVCURVETO = 26,
+                             HHCURVETO = 27,
+                             SHORTINT = 28,
+                             CALLGSUBR = 29,
+                             VHCURVETO = 30,
+                             HVCURVETO = 31;
+    
+    /*
+     * Two-byte operators, which begin with the escape byte, are given as 1200
+     * plus their second byte.
+     */
+    private static final int AND = 1203,
+                             OR = 1204,
+                             NOT = 1205,
+                             ABS = 1209,
+                             ADD = 1210,
+                             SUB = 1211,
+                             DIV = 1212,
+                             NEG = 1214,
+                             EQ = 1215,
+                             DROP = 1218,
+                             PUT = 1220,
+                             GET = 1221,
+                             IFELSE = 1222,
+                             MUL = 1224,
+                             SQRT = 1226,
+                             DUP = 1227,
+                             EXCH = 1228,
+                             INDEX = 1229,
+                             ROLL = 1230,
+                             HFLEX = 1234,
+                             FLEX = 1235,
+                             HFLEX1 = 1236,
+                             FLEX1 = 1237;
+    
+    /*
+     * The instruction of a decoded subroutine which pushes the operands left
+     * at its end, for the caller to consume.
+     */
+    private static final int NONE = 0xFFFF;
+    
+    // What should happen once an operator has been executed.
+    private static final int CONTINUE = 0,
+                             RETURN_FROM_SUBROUTINE = 1,
+                             END_OF_GLYPH = 2;
+    
+    /*
+     * The largest argument stack allowed by the CFF2 specification, which
+     * is larger than that of CFF, and the deepest nesting of subroutines.
+     */
+    private static final int MAX_STACK = 513,
+                             MAX_DEPTH = 10;
+    
+    private final CFFTable font;
+    private final float[] stack = new float[MAX_STACK],
+                          storage = new float[32];
+    private OutlineSink sink;
+    private CFFTable.Subroutines locals;
+    private int sp,
+                stems,
+                regionCount;
+    private float x,
+                  y;
+    private boolean open,
+                    widthParsed;
+    
+    /* package-private */ CharstringInterpreter(CFFTable font) {
+        this.font = font;
+    }
+    
+    /**
+     * A subroutine which has been decoded into the operands and operators
+     * which it contains, so that it can be run without parsing its numbers
+     * again. Each instruction holds an operator in its low 16 bits and the
+     * number of operands which are pushed before it in its high 16 bits.
+     * 
+     * <p>
+     * Subroutines which contain a hint mask cannot be decoded ahead of time,
+     * since the length of the mask depends on the stems declared before the
+     * subroutine is called. These are represented by {@link #UNDECODABLE}
+     * and run from the font each time that they are called.
+     * </p>
+     */
+    /* package-private */ static final class Subroutine {
+        static final Subroutine UNDECODABLE = new Subroutine(new float[0],
+                                                             new int[0]);
+        
+        final float[] operands;
+        final int[] instructions;
+        
+        Subroutine(float[] operands, int[] instructions) {
+            this.operands = operands;
+            this.instructions = instructions;
+        }
+    }
+    
+    /**
+     * Decodes the subroutine in the given range of a table.
+     * 
+     * @param data The table containing the subroutine.
+     * @param start The offset of the first byte of the subroutine.
+     * @param end The offset after the last byte of the subroutine.
+     * 
+     * @return The decoded subroutine, or {@link Subroutine#UNDECODABLE} if
+     *         it contains a hint mask.
+     */
+    /* package-private */ static Subroutine decode(ByteBuffer data,
+                                                   int start,
+                                                   int end) {
+        float[] operands = new float[end - start];
+        int[] instructions = new int[end - start + 1];
+        int numOperands = 0,
+            numInstructions = 0,
+            pending = 0;
+        
+        for (int i = start; i < end;) {
+            int b0 = data.get(i) & 0xFF;
+            if (b0 == SHORTINT || b0 >= 32) {
+                if (++pending > MAX_STACK)
+                    throw new IllegalArgumentException("A subroutine pushes "
+                                                       + "too many operands.");
+                
+                operands[numOperands++] = readNumber(data, i, b0);
+                i += getNumberLength(b0);
+                continue;
+            }
+            
+            int operator = b0 == ESCAPE && i + 1 < end
+                           ? 1200 + (data.get(i + 1) & 0xFF)
+                           : b0;
+            i += operator >= 1200 ? 2 : 1;
+            if (operator == HINTMASK || operator == CNTRMASK)
+                return Subroutine.UNDECODABLE;
+            
+            instructions[numInstructions++] = pending << 16 | operator;
+            pending = 0;
+            
+            // Anything after the end of the subroutine is unreachable.
+            if (operator == RETURN || operator == ENDCHAR) break;
+        }
+        if (pending > 0) instructions[numInstructions++] = pending << 16 | NONE;
+        
+        return new Subroutine(Arrays.copyOf(operands, numOperands),
+                              Arrays.copyOf(instructions, numInstructions));
+    }
+    
+    /**
+     * Runs the charstring of the glyph with the given ID, passing its
+     * outline to the sink. Every contour which is drawn is closed.
+     * 
+     * @param id The ID of the glyph.
+     * @param sink The sink which receives the outline, in FUnits.
+     */
+    /* package-private */ void run(int id, OutlineSink sink) {
+        CFFTable.Index charStrings = font.getCharStrings();
+        int start = charStrings.getStart(id),
+            end = charStrings.getEnd(id),
+            fd = font.getFontDict(id);
+        
+        this.sink = sink;
+        locals = font.getLocalSubroutines(fd);
+        regionCount = font.isCFF2()
+                      ? font.getRegionCount(font.getVariationIndex(fd))
+                      : 0;
+        sp = stems = 0;
+        x = y = 0;
+        open = false;
+        // Only the charstrings of CFF tables begin with an advance width.
+        widthParsed = font.isCFF2();
+        
+        execute(font.getData(), start, end, 0);
+        if (open) sink.closePath();
+    }
+    
+    /*
+     * Runs a charstring (or a subroutine which could not be decoded) directly
+     * from the table.
+     */
+    private int execute(ByteBuffer data, int start, int end, int depth) {
+        for (int i = start; i < end;) {
+            int b0 = data.get(i) & 0xFF;
+            if (b0 == SHORTINT || b0 >= 32) {
+                push(readNumber(data, i, b0));
+                i += getNumberLength(b0);
+                continue;
+            }
+            
+            int operator = b0 == ESCAPE && i + 1 < end
+                           ? 1200 + (data.get(i + 1) & 0xFF)
+                           : b0;
+            i += operator >= 1200 ? 2 : 1;
+            
+            /*
+             * The mask which follows these operators has a bit for each stem,
+             * and the arguments on the stack (if there are any) are an
+             * implicit vstemhm.
+             */
+            if (operator == HINTMASK || operator == CNTRMASK) {
+                addStems();
+                i += stems + 7 >> 3;
+                continue;
+            }
+            
+            int result = execute(operator, depth);
+            if (result != CONTINUE) return result;
+        }
+        
+        return CONTINUE;
+    }
+    
+    /*
+     * Runs a decoded subroutine.
+     */
+    private int execute(Subroutine subroutine, int depth) {
+        float[] operands = subroutine.operands;
+        for (int i = 0, o = 0; i < subroutine.instructions.length; i++) {
+            int instruction = subroutine.instructions[i],
+                count = instruction >>> 16;
+            if (sp + count > MAX_STACK)
+                throw new IllegalArgumentException("The argument stack of a "
+                                                   + "charstring overflowed.");
+            
+            System.arraycopy(operands, o, stack, sp, count);
+            sp += count;
+            o += count;
+            
+            int operator = instruction & 0xFFFF;
+            if (operator == NONE) break;
+            
+            int result = execute(operator, depth);
+            if (result != CONTINUE) return result;
+        }
+        
+        return CONTINUE;
+    }
+    
+    /*
+     * Executes a single operator, which clears the argument stack unless it
+     * is a subroutine call, an arithmetic operator or a blend.
+     */
+    private int execute(int operator, int depth) {
+        float[] s = stack;
+        int i = 0;
+        
+        switch (operator) {
+        case HSTEM:
+        case VSTEM:
+        case HSTEMHM:
+        case VSTEMHM:
+            addStems();
+            return CONTINUE;
+        case RMOVETO:
+            i = skipWidth(sp > 2);
+            moveTo(s[i], s[i + 1]);
+            break;
+        case HMOVETO:
+            i = skipWidth(sp > 1);
+            moveTo(s[i], 0);
+            break;
+        case VMOVETO:
+            i = skipWidth(sp > 1);
+            moveTo(0, s[i]);
+            break;
+        case RLINETO:
+            for (; i + 2 <= sp; i += 2)
+                lineTo(s[i], s[i + 1]);
+            break;
+        case HLINETO:
+        case VLINETO:
+            // The lines alternate between horizontal and vertical.
+            for (boolean h = operator == HLINETO; i < sp; i++, h = !h) {
+                if (h) lineTo(s[i], 0);
+                else lineTo(0, s[i]);
+            }
+            break;
+        case RRCURVETO:
+            for (; i + 6 <= sp; i += 6)
+                curveTo(s[i], s[i + 1], s[i + 2], s[i + 3], s[i + 4], s[i + 5]);
+            break;
+        case RCURVELINE:
+            for (; sp - i >= 8; i += 6)
+                curveTo(s[i], s[i + 1], s[i + 2], s[i + 3], s[i + 4], s[i + 5]);
+            if (i + 2 <= sp) lineTo(s[i], s[i + 1]);
+            break;
+        case RLINECURVE:
+            for (; sp - i >= 8; i += 2)
+                lineTo(s[i], s[i + 1]);
+            if (i + 6 <= sp)
+                curveTo(s[i], s[i + 1], s[i + 2], s[i + 3], s[i + 4], s[i + 5]);
+            break;
+        case VVCURVETO: {
+            // An odd argument is the horizontal offset of the first curve.
+            float dx = sp % 2 != 0 ? s[i++] : 0;
+            for (; i + 4 <= sp; i += 4, dx = 0)
+                curveTo(dx, s[i], s[i + 1], s[i + 2], 0, s[i + 3]);
+            break;
+        }
+        case HHCURVETO: {
+            float dy = sp % 2 != 0 ? s[i++] : 0;
+            for (; i + 4 <= sp; i += 4, dy = 0)
+                curveTo(s[i], dy, s[i + 1], s[i + 2], s[i + 3], 0);
+            break;
+        }
+        case HVCURVETO:
+        case VHCURVETO:
+            /*
+             * The curves alternate between starting horizontally and ending
+             * vertically, and starting vertically and ending horizontally. A
+             * fifth argument for the last curve gives the other coordinate of
+             * its end point.
+             */
+            for (boolean h = operator == HVCURVETO;
+                 i + 4 <= sp;
+                 i += 4, h = !h) {
+                float last = sp - i == 5 ? s[i + 4] : 0;
+                if (h) curveTo(s[i], 0, s[i + 1], s[i + 2], last, s[i + 3]);
+                else curveTo(0, s[i], s[i + 1], s[i + 2], s[i + 3], last);
+            }
+            break;
+        case FLEX:
+            need(13);
+            curveTo(s[0], s[1], s[2], s[3], s[4], s[5]);
+            curveTo(s[6], s[7], s[8], s[9], s[10], s[11]);
+            break;
+        case HFLEX:
+            need(7);
+            curveTo(s[0], 0, s[1], s[2], s[3], 0);
+            curveTo(s[4], 0, s[5], -s[2], s[6], 0);
+            break;
+        case HFLEX1:
+            need(9);
+            curveTo(s[0], s[1], s[2], s[3], s[4], 0);
+            curveTo(s[5], 0, s[6], s[7], s[8], -(s[1] + s[3] + s[7]));
+            break;
+        case FLEX1: {
+            /*
+             * The last point lies on the same line as the first, along
+             * whichever axis the flex travels further.
+             */
+            need(11);
+            float dx = s[0] + s[2] + s[4] + s[6] + s[8],
+                  dy = s[1] + s[3] + s[5] + s[7] + s[9];
+            curveTo(s[0], s[1], s[2], s[3], s[4], s[5]);
+            if (Math.abs(dx) > Math.abs(dy))
+                curveTo(s[6], s[7], s[8], s[9], s[10], -dy);
+            else curveTo(s[6], s[7], s[8], s[9], -dx, s[10]);
+            break;
+        }
+        case ENDCHAR:
+            skipWidth(sp == 1 || sp == 5);
+            if (open) sink.closePath();
+            open = false;
+            sp = 0;
+            return END_OF_GLYPH;
+        case RETURN:
+            return RETURN_FROM_SUBROUTINE;
+        case CALLSUBR:
+        case CALLGSUBR: {
+            need(1);
+            CFFTable.Subroutines subroutines = operator == CALLSUBR
+                                               ? locals
+                                               : font.getGlobalSubroutines();
+            int result = call(subroutines, (int)s[--sp], depth + 1);
+            
+            return result == END_OF_GLYPH ? END_OF_GLYPH : CONTINUE;
+        }
+        case VSINDEX:
+            need(1);
+            regionCount = font.getRegionCount((int)s[sp - 1]);
+            break;
+        case BLEND: {
+            /*
+             * The default instance of a variable font is drawn, so only the
+             * first value of each blend is kept, and its deltas are dropped.
+             */
+            need(1);
+            int n = (int)s[--sp];
+            need(n * (regionCount + 1));
+            sp -= n * regionCount;
+            return CONTINUE;
+        }
+        default:
+            return arithmetic(operator);
+        }
+        
+        sp = 0;
+        return CONTINUE;
+    }
+    
+    /*
+     * Executes one of the arithmetic and storage operators, which work on the
+     * top of the stack rather than clearing it. Unknown operators clear the
+     * stack.
+     */
+    private int arithmetic(int operator) {
+        float[] s = stack;
+        switch (operator) {
+        case ABS:
+            need(1);
+            s[sp - 1] = Math.abs(s[sp - 1]);
+            break;
+        case NEG:
+            need(1);
+            s[sp - 1] = -s[sp - 1];
+            break;
+        case SQRT:
+            need(1);
+            s[sp - 1] = (float)Math.sqrt(s[sp - 1]);
+            break;
+        case NOT:
+            need(1);
+            s[sp - 1] = s[sp - 1] == 0 ? 1 : 0;
+            break;
+        case ADD:
+            need(2);
+            s[sp - 2] += s[--sp];
+            break;
+        case SUB:
+            need(2);
+            s[sp - 2] -= s[--sp];
+            break;
+        case MUL:
+            need(2);
+            s[sp - 2] *= s[--sp];
+            break;
+        case DIV:
+            need(2);
+            s[sp - 2] /= s[--sp];
+            break;
+        case AND:
+            need(2);
+            s[sp - 2] = s[sp - 2] != 0 && s[sp - 1] != 0 ? 1 : 0;
+            sp--;
+            break;
+        case OR:
+            need(2);
+            s[sp - 2] = s[sp - 2] != 0 || s[sp - 1] != 0 ? 1 : 0;
+            sp--;
+            break;
+        case EQ:
+            need(2);
+            s[sp - 2] = s[sp - 2] == s[sp - 1] ? 1 : 0;
+            sp--;
+            break;
+        case IFELSE:
+            need(4);
+            s[sp - 4] = s[sp - 2] <= s[sp - 1] ? s[sp - 4] : s[sp - 3];
+            sp -= 3;
+            break;
+        case DROP:
+            need(1);
+            sp--;
+            break;
+        case DUP:
+            need(1);
+            push(s[sp - 1]);
+            break;
+        case EXCH: {
+            need(2);
+            float top = s[sp - 1];
+            s[sp - 1] = s[sp - 2];
+            s[sp - 2] = top;
+            break;
+        }
+        case INDEX: {
+            need(1);
+            int n = Math.max(0, (int)s[sp - 1]);
+            need(n + 2);
+            s[sp - 1] = s[sp - 2 - n];
+            break;
+        }
+        case ROLL: {
+            need(2);
+            int j = (int)s[--sp],
+                n = (int)s[--sp];
+            if (n <= 0) break;
+            
+            need(n);
+            float[] rolled = new float[n];
+            for (int k = 0; k < n; k++)
+                rolled[Math.floorMod(k + j, n)] = s[sp - n + k];
+            System.arraycopy(rolled, 0, s, sp - n, n);
+            break;
+        }
+        case PUT: {
+            need(2);
+            int k = (int)s[--sp];
+            float value = s[--sp];
+            if (k >= 0 && k < storage.length) storage[k] = value;
+            break;
+        }
+        case GET: {
+            need(1);
+            int k = (int)s[sp - 1];
+            s[sp - 1] = k >= 0 && k < storage.length ? storage[k] : 0;
+            break;
+        }
+        default:
+            sp = 0;
+        }
+        
+        return CONTINUE;
+    }
+    
+    /*
+     * Calls the subroutine with the given (biased) number, running its
+     * decoded form if it has one.
+     */
+    private int call(CFFTable.Subroutines subroutines, int number, int depth) {
+        if (depth > MAX_DEPTH)
+            throw new IllegalArgumentException("The subroutines of a "
+                                               + "charstring are nested too "
+                                               + "deeply.");
+        if (subroutines == null)
+            throw new IllegalArgumentException("A charstring called a local "
+                                               + "subroutine, but there are "
+                                               + "none.");
+        
+        int index = number + subroutines.bias;
+        if (index < 0 || index >= subroutines.index.count)
+            throw new IllegalArgumentException("There is no subroutine "
+                                               + number);
+        
+        Subroutine subroutine = subroutines.get(index);
+        if (subroutine != Subroutine.UNDECODABLE)
+            return execute(subroutine, depth);
+        
+        return execute(font.getData(),
+                       subroutines.index.getStart(index),
+                       subroutines.index.getEnd(index),
+                       depth);
+    }
+    
+    /*
+     * Counts the stems declared by the arguments on the stack, which are
+     * pairs of an edge and a width, and clears the stack.
+     */
+    private void addStems() {
+        int i = skipWidth(sp % 2 != 0);
+        stems += (sp - i) / 2;
+        sp = 0;
+    }
+    
+    /*
+     * The first operator which clears the stack in a CFF charstring may be
+     * preceded by the advance width of the glyph, which is not needed since
+     * advances are read from the hmtx table. Returns the index of the first
+     * argument of the operator.
+     */
+    private int skipWidth(boolean hasWidth) {
+        if (widthParsed) return 0;
+        
+        widthParsed = true;
+        return hasWidth ? 1 : 0;
+    }
+    
+    private void moveTo(float dx, float dy) {
+        if (open) sink.closePath();
+        
+        x += dx;
+        y += dy;
+        sink.moveTo(x, y);
+        open = true;
+    }
+    
+    private void lineTo(float dx, float dy) {
+        if (!open) moveTo(0, 0);
+        
+        x += dx;
+        y += dy;
+        sink.lineTo(x, y);
+    }
+    
+    private void curveTo(float dxa,
+                         float dya,
+                         float dxb,
+                         float dyb,
+                         float dxc,
+                         float dyc) {
+        if (!open) moveTo(0, 0);
+        
+        float c1x = x + dxa,
+              c1y = y + dya,
+              c2x = c1x + dxb,
+              c2y = c1y + dyb;
+        x = c2x + dxc;
+        y = c2y + dyc;
+        sink.curveTo(c1x, c1y, c2x, c2y, x, y);
+    }
+    
+    private void push(float value) {
+        if (sp == MAX_STACK)
+            throw new IllegalArgumentException("The argument stack of a "
+                                               + "charstring overflowed.");
+        
+        stack[sp++] = value;
+    }
+    
+    private void need(int count) {
+        if (sp < count)
+            throw new IllegalArgumentException("An operator in a charstring "
+                                               + "has too few arguments.");
+    }
+    
+    /*
+     * Reads the number which begins with the given byte. Numbers of the form
+     * 255 are 16.16 fixed-point values, while the others are integers.
+     */
+    private static float readNumber(ByteBuffer data, int offset, int b0) {
+        if (b0 <= 246 && b0 >= 32) return b0 - 139;
+        if (b0 <= 250 && b0 >= 247)
+            return (b0 - 247) * 256 + (data.get(offset + 1) & 0xFF) + 108;
+        if (b0 <= 254 && b0 >= 251)
+            return -(b0 - 251) * 256 - (data.get(offset + 1) & 0xFF) - 108;
+        if (b0 == SHORTINT) return data.getShort(offset + 1);
+        
+        return data.getInt(offset + 1) / 65536f;
+    }
+    
+    private static int getNumberLength(int b0) {
+        if (b0 == SHORTINT) return 3;
+        if (b0 == 255) return 5;
+        
+        return b0 >= 247 ? 2 : 1;
+    }
+}
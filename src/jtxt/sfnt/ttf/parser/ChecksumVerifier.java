@@ -0,0 +1,323 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Verifies the checksums which a font records for each of its tables, as
+ * well as the <code>checkSumAdjustment</code> of the <code>head</code> table,
+ * which covers the font file as a whole.
+ * 
+ * <p>
+ * A checksum is the sum of the big-endian 32-bit words of a table, so it can
+ * be computed over separate pieces of a table and the results added together.
+ * Verification uses this to divide the work between the threads of a
+ * fork/join pool, both across tables and within large tables such as
+ * <code>glyf</code>, so that it costs little more than the time taken to read
+ * the font from memory.
+ * </p>
+ */
+public class ChecksumVerifier {
+    /*
+     * The magic number from which the checksum of the whole font is
+     * subtracted to compute the checkSumAdjustment of the head table.
+     */
+    private static final int CHECKSUM_MAGIC = 0xB1B0AFBA;
+    
+    // The offset of checkSumAdjustment in the head table.
+    private static final int CHECKSUM_ADJUSTMENT = 8;
+    
+    
+    /*
+     * Pieces of the font which are shorter than this number of bytes are
+     * summed by a single thread.
+     */
+    private static final int SPLIT_THRESHOLD = 256 * 1024;
+    
+    private final int[] tags,
+                        expected,
+                        computed;
+    private final int expectedAdjustment,
+                      computedAdjustment;
+    private final boolean checkedAdjustment;
+    
+    private ChecksumVerifier(int[] tags,
+                             int[] expected,
+                             int[] computed,
+                             boolean checkedAdjustment,
+                             int expectedAdjustment,
+                             int computedAdjustment) {
+        this.tags = tags;
+        this.expected = expected;
+        this.computed = computed;
+        this.checkedAdjustment = checkedAdjustment;
+        this.expectedAdjustment = expectedAdjustment;
+        this.computedAdjustment = computedAdjustment;
+    }
+    
+    /**
+     * Verifies the checksums of a font using the common fork/join pool.
+     * 
+     * @param buffer The buffer containing the font file.
+     * @param tables The table directory of the font.
+     * 
+     * @return The result of the verification.
+     */
+    public static ChecksumVerifier verify(ByteBuffer buffer,
+                                          TableDirectory tables) {
+        return verify(buffer, tables, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Verifies the checksums of a font, computing the checksums of its
+     * tables in parallel on the given pool.
+     * 
+     * <p>
+     * The <code>checkSumAdjustment</code> is only checked when the buffer
+     * contains a single font, since the fonts of a collection cannot each
+     * adjust the checksum of the whole file.
+     * </p>
+     * 
+     * @param buffer The buffer containing the font file.
+     * @param tables The table directory of the font.
+     * @param pool The pool to run the verification on.
+     * 
+     * @return The result of the verification.
+     */
+    public static ChecksumVerifier verify(ByteBuffer buffer,
+                                          TableDirectory tables,
+                                          ForkJoinPool pool) {
+        int count = tables.getTableCount();
+        int[] tags = new int[count],
+              expected = new int[count],
+              computed = new int[count];
+        
+        int headIndex = tables.indexOf(OTFFileReader.head);
+        int adjustment = headIndex >= 0
+                         && tables.getLength(headIndex)
+                            >= CHECKSUM_ADJUSTMENT + 4
+                         ? buffer.getInt(tables.getOffset(headIndex)
+                                         + CHECKSUM_ADJUSTMENT)
+                         : 0;
+        boolean checkAdjustment = headIndex >= 0
+                                  && buffer.getInt(0)
+                                     != FontCollection.COLLECTION_TAG;
+        
+        ChecksumTask[] tasks = new ChecksumTask[count];
+        for (int i = 0; i < count; i++) {
+            int offset = tables.getOffset(i);
+            tasks[i] = new ChecksumTask(buffer,
+                                        offset,
+                                        offset + tables.getLength(i));
+        }
+        ChecksumTask file = checkAdjustment
+                            ? new ChecksumTask(buffer, 0, buffer.limit())
+                            : null;
+        
+        pool.invoke(new RecursiveTask<Void>() {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected Void compute() {
+                if (file != null) file.fork();
+                invokeAll(tasks);
+                if (file != null) file.join();
+                
+                return null;
+            }
+        });
+        
+        for (int i = 0; i < count; i++) {
+            tags[i] = tables.getTag(i);
+            expected[i] = tables.getChecksum(i);
+            computed[i] = tasks[i].join();
+        }
+        
+        /*
+         * The checksum of the head table is computed as if its
+         * checkSumAdjustment were zero, and the same is true of the checksum
+         * of the whole font.
+         */
+        if (headIndex >= 0) computed[headIndex] -= adjustment;
+        
+        return new ChecksumVerifier(tags,
+                                    expected,
+                                    computed,
+                                    checkAdjustment,
+                                    adjustment,
+                                    checkAdjustment
+                                    ? CHECKSUM_MAGIC
+                                      - (file.join() - adjustment)
+                                    : 0);
+    }
+    
+    /**
+     * Computes the checksum of a range of a buffer, where the range begins
+     * on a word boundary of the table it belongs to. A final partial word is
+     * padded with zeros.
+     * 
+     * @param buffer The buffer to read from.
+     * @param start The index of the first byte to sum.
+     * @param end The index after the last byte to sum.
+     * 
+     * @return The sum of the words in the range, modulo 2<sup>32</sup>.
+     */
+    public static int checksum(ByteBuffer buffer, int start, int end) {
+        int sum = 0,
+            i = start;
+        for (; i + 4 <= end; i += 4)
+            sum += buffer.getInt(i);
+        
+        for (int shift = 24; i < end; i++, shift -= 8)
+            sum += (buffer.get(i) & 0xFF) << shift;
+        
+        return sum;
+    }
+    
+    /**
+     * @return Whether every checksum in the font matched.
+     */
+    public boolean isValid() {
+        return getFailureCount() == 0 && isAdjustmentValid();
+    }
+    
+    /**
+     * @return Whether the <code>checkSumAdjustment</code> matched the
+     *         checksum of the font file, which is always true if it was not
+     *         checked.
+     */
+    public boolean isAdjustmentValid() {
+        return !checkedAdjustment || expectedAdjustment == computedAdjustment;
+    }
+    
+    /**
+     * @return The number of tables whose checksum did not match.
+     */
+    public int getFailureCount() {
+        int failures = 0;
+        for (int i = 0; i < tags.length; i++)
+            if (expected[i] != computed[i]) failures++;
+        
+        return failures;
+    }
+    
+    /**
+     * @return The tags of the tables whose checksum did not match.
+     */
+    public int[] getFailedTags() {
+        int[] failed = new int[getFailureCount()];
+        for (int i = 0, n = 0; i < tags.length; i++)
+            if (expected[i] != computed[i]) failed[n++] = tags[i];
+        
+        return failed;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder("ChecksumVerifier: [tables=")
+                               .append(tags.length)
+                               .append(", failures=")
+                               .append(getFailureCount());
+        for (int i = 0; i < tags.length; i++) {
+            if (expected[i] == computed[i]) continue;
+            
+            report.append(String.format(", %s: expected=0x%08X computed=0x%08X",
+                                        OTFFileReader.DataConverter
+                                                     .getTagAsString(tags[i]),
+                                        expected[i],
+                                        computed[i]));
+        }
+        if (!isAdjustmentValid())
+            report.append(String.format(", checkSumAdjustment: expected=0x%08X "
+                                        + "computed=0x%08X",
+                                        expectedAdjustment,
+                                        computedAdjustment));
+        
+        return report.append("]").toString();
+    }
+    
+    /*
+     * Sums a range of the font, dividing it in half on a word boundary until
+     * the pieces are small enough to be summed directly.
+     */
+    private static class ChecksumTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+        
+        private final ByteBuffer buffer;
+        private final int start,
+                          end;
+        
+        ChecksumTask(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        protected Integer compute() {
+            if (end - start <= SPLIT_THRESHOLD)
+                return checksum(buffer, start, end);
+            
+            int mid = start + (end - start >>> 1 & ~3);
+            ChecksumTask right = new ChecksumTask(buffer, mid, end);
+            right.fork();
+            int sum = new ChecksumTask(buffer, start, mid).compute();
+            
+            return sum + right.join();
+        }
+    }
+    
+    /**
+     * Measures the throughput of checksum verification for the given font
+     * files, both on a single thread and on the common fork/join pool.
+     * 
+     * @param args The paths of the fonts to verify.
+     */
+    public static void main(String[] args) {
+        final int iterations = 50;
+        ForkJoinPool serial = new ForkJoinPool(1);
+        for (String path : args) {
+            ByteBuffer buffer = SfntSource.of(new File(path)).getBuffer();
+            TableDirectory tables = new TableDirectory(buffer, 0);
+            
+            System.out.println(path + ": " + verify(buffer, tables));
+            for (ForkJoinPool pool : new ForkJoinPool[] { serial,
+                                                          ForkJoinPool
+                                                          .commonPool() }) {
+                // Warm up the JIT before the measured iterations.
+                for (int i = 0; i < iterations; i++)
+                    verify(buffer, tables, pool);
+                
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++)
+                    verify(buffer, tables, pool);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double megabytes = (double)buffer.limit()
+                                   * iterations
+                                   / (1024 * 1024);
+                
+                System.out.printf("  %2d thread(s): %8.1f MB/s%n",
+                                  pool.getParallelism(),
+                                  megabytes / seconds);
+            }
+        }
+        serial.shutdown();
+    }
+}
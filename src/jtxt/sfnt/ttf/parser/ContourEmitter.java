@@ -0,0 +1,126 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+/**
+ * Converts the points of a TrueType contour, given one at a time, into the
+ * segments of an outline. Consecutive off-curve points imply an on-curve
+ * point at their midpoint, and a contour which begins off the curve is
+ * started from the next on-curve point (real or implied), with the curve
+ * through the first point emitted when the contour is closed.
+ * 
+ * <p>
+ * Since the points are consumed in order and never stored, the emitter can be
+ * driven directly by a decoder reading from the font file. An emitter keeps
+ * no state between outlines, so a renderer may hold one and pass it to each
+ * outline that it decodes, rather than have every outline create its own.
+ * </p>
+ */
+public final class ContourEmitter {
+    private OutlineSink sink;
+    private boolean started,
+                    control,
+                    firstOff;
+    private int points;
+    private float startX,
+                  startY,
+                  firstX,
+                  firstY,
+                  cx,
+                  cy;
+    
+    public ContourEmitter() {}
+    
+    /* package-private */ ContourEmitter(OutlineSink sink) {
+        this.sink = sink;
+    }
+    
+    /* package-private */ void setSink(OutlineSink sink) {
+        this.sink = sink;
+    }
+    
+    void beginContour() {
+        started = control = firstOff = false;
+        points = 0;
+    }
+    
+    void addPoint(float x, float y, boolean onCurve) {
+        if (points++ == 0) {
+            if (onCurve) start(x, y);
+            else {
+                firstOff = true;
+                firstX = x;
+                firstY = y;
+            }
+            
+            return;
+        }
+        
+        if (!started) {
+            // The first point was off the curve, so start from this one.
+            if (onCurve) start(x, y);
+            else {
+                start((firstX + x) / 2, (firstY + y) / 2);
+                cx = x;
+                cy = y;
+                control = true;
+            }
+            
+            return;
+        }
+        
+        if (onCurve) {
+            if (control) sink.quadTo(cx, cy, x, y);
+            else sink.lineTo(x, y);
+            control = false;
+            return;
+        }
+        
+        // Two consecutive off-curve points imply an on-curve midpoint.
+        if (control) sink.quadTo(cx, cy, (cx + x) / 2, (cy + y) / 2);
+        cx = x;
+        cy = y;
+        control = true;
+    }
+    
+    void endContour() {
+        if (!started) {
+            // A contour consisting of a single off-curve point.
+            if (firstOff) {
+                sink.moveTo(firstX, firstY);
+                sink.closePath();
+            }
+            
+            return;
+        }
+        
+        if (firstOff) {
+            if (control)
+                sink.quadTo(cx, cy, (cx + firstX) / 2, (cy + firstY) / 2);
+            sink.quadTo(firstX, firstY, startX, startY);
+        }
+        else if (control) sink.quadTo(cx, cy, startX, startY);
+        
+        sink.closePath();
+    }
+    
+    private void start(float x, float y) {
+        startX = x;
+        startY = y;
+        started = true;
+        sink.moveTo(x, y);
+    }
+}
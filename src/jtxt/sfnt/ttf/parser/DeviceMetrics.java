@@ -0,0 +1,242 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The metrics which a font records for particular sizes on the device,
+ * rather than in FUnits. These are read from four optional tables:
+ * 
+ * <ul>
+ * <li><code>hdmx</code>, which holds the advance width of every glyph in
+ * whole pixels for some sizes, as the glyphs measure once they have been
+ * hinted.</li>
+ * <li><code>VDMX</code>, which holds the highest and lowest pixel reached by
+ * any glyph at each size, from which the height of a line of text can be
+ * found exactly.</li>
+ * <li><code>LTSH</code>, which holds the size at which the advance width of
+ * each glyph begins to scale linearly, so that its hinted advance is simply
+ * its scaled advance rounded to a whole pixel.</li>
+ * <li><code>gasp</code>, which holds whether the outlines should be hinted
+ * and anti-aliased over each range of sizes.</li>
+ * </ul>
+ * 
+ * <p>
+ * All of the sizes used by these tables are sizes of the em square in whole
+ * pixels. Each table is read once, and lookups for a size do not examine any
+ * outlines.
+ * </p>
+ */
+public class DeviceMetrics {
+    /*
+     * The flags of the behavior which the gasp table recommends for a range
+     * of sizes.
+     */
+    public static final int GASP_GRIDFIT = 1,
+                            GASP_DOGRAY = 1 << 1,
+                            GASP_SYMMETRIC_GRIDFIT = 1 << 2,
+                            GASP_SYMMETRIC_SMOOTHING = 1 << 3;
+    
+    /**
+     * The behavior which is assumed for sizes that the gasp table does not
+     * cover, or when the font has no gasp table: outlines are both hinted and
+     * anti-aliased.
+     */
+    public static final int DEFAULT_BEHAVIOR = GASP_GRIDFIT | GASP_DOGRAY;
+    
+    private final ByteBuffer hdmx,
+                             vdmx,
+                             ltsh,
+                             gasp;
+    private final int numGlyphs;
+    
+    /**
+     * Reads the device metrics of a font from its tables, any of which may be
+     * <code>null</code> if the font does not contain it.
+     * 
+     * @param hdmx The <code>hdmx</code> table.
+     * @param vdmx The <code>VDMX</code> table.
+     * @param ltsh The <code>LTSH</code> table.
+     * @param gasp The <code>gasp</code> table.
+     * @param numGlyphs The number of glyphs in the font.
+     */
+    public DeviceMetrics(ByteBuffer hdmx,
+                         ByteBuffer vdmx,
+                         ByteBuffer ltsh,
+                         ByteBuffer gasp,
+                         int numGlyphs) {
+        this.hdmx = hdmx != null && hdmx.limit() >= 8 ? hdmx : null;
+        this.vdmx = vdmx != null && vdmx.limit() >= 6 ? vdmx : null;
+        this.ltsh = ltsh != null && ltsh.limit() >= 4 + numGlyphs
+                    ? ltsh
+                    : null;
+        this.gasp = gasp != null && gasp.limit() >= 4 ? gasp : null;
+        this.numGlyphs = numGlyphs;
+    }
+    
+    /**
+     * Finds the record of the <code>hdmx</code> table for the given size.
+     * 
+     * @param ppem The size of the em square, in pixels.
+     * 
+     * @return The offset of the widths of the record in the table, or -1 if
+     *         there is no record for the size.
+     */
+    /* package-private */ int findDeviceRecord(int ppem) {
+        if (hdmx == null) return -1;
+        
+        int records = hdmx.getShort(2),
+            size = hdmx.getInt(4);
+        if (records < 0 || size < 2 + numGlyphs) return -1;
+        
+        for (int i = 0, offset = 8;
+             i < records && offset + size <= hdmx.limit();
+             i++, offset += size)
+            if ((hdmx.get(offset) & 0xFF) == ppem) return offset + 2;
+        
+        return -1;
+    }
+    
+    /**
+     * @param ppem The size of the em square, in pixels.
+     * 
+     * @return Whether the <code>hdmx</code> table holds the advance widths of
+     *         the glyphs at the given size.
+     */
+    public boolean hasDeviceAdvances(int ppem) {
+        return findDeviceRecord(ppem) >= 0;
+    }
+    
+    /**
+     * Gets the advance width of a glyph in whole pixels from the
+     * <code>hdmx</code> table.
+     * 
+     * @param ppem The size of the em square, in pixels.
+     * @param id The ID of the glyph.
+     * 
+     * @return The advance width of the glyph, or -1 if the table does not
+     *         record it for the given size.
+     */
+    public int getDeviceAdvance(int ppem, int id) {
+        int record = findDeviceRecord(ppem);
+        if (record < 0 || id < 0 || id >= numGlyphs) return -1;
+        
+        return hdmx.get(record + id) & 0xFF;
+    }
+    
+    /**
+     * Copies the advance widths of every glyph at the given size from the
+     * <code>hdmx</code> table.
+     * 
+     * @param ppem The size of the em square, in pixels.
+     * 
+     * @return The advance width of each glyph, in pixels, or
+     *         <code>null</code> if the table does not record the size.
+     */
+    public byte[] getDeviceAdvances(int ppem) {
+        int record = findDeviceRecord(ppem);
+        if (record < 0) return null;
+        
+        byte[] widths = new byte[numGlyphs];
+        ByteBuffer source = hdmx.duplicate();
+        source.position(record);
+        source.get(widths);
+        
+        return widths;
+    }
+    
+    /**
+     * Determines whether the advance width of a glyph scales linearly at the
+     * given size according to the <code>LTSH</code> table, in which case its
+     * hinted advance is its scaled advance rounded to the nearest pixel.
+     * 
+     * @param ppem The size of the em square, in pixels.
+     * @param id The ID of the glyph.
+     * 
+     * @return Whether the advance scales linearly, which is false if the font
+     *         has no <code>LTSH</code> table.
+     */
+    public boolean isLinear(int ppem, int id) {
+        if (ltsh == null || id < 0 || id >= numGlyphs) return false;
+        
+        return ppem >= (ltsh.get(4 + id) & 0xFF);
+    }
+    
+    /**
+     * Gets the highest and lowest pixels reached by any glyph at the given
+     * size from the <code>VDMX</code> table, for a device with square pixels.
+     * 
+     * @param ppem The size of the em square, in pixels.
+     * 
+     * @return An array holding the highest pixel above the baseline and the
+     *         lowest pixel (which is usually negative), or <code>null</code>
+     *         if the table does not record the size.
+     */
+    public int[] getVerticalExtents(int ppem) {
+        if (vdmx == null) return null;
+        
+        int ratios = vdmx.getShort(4) & 0xFFFF,
+            offsets = 6 + 4 * ratios;
+        if (offsets + 2 * ratios > vdmx.limit()) return null;
+        
+        for (int i = 0; i < ratios; i++) {
+            /*
+             * A ratio of zero matches any device, and otherwise the range of
+             * y ratios must include the x ratio for square pixels.
+             */
+            int x = vdmx.get(6 + 4 * i + 1) & 0xFF,
+                yStart = vdmx.get(6 + 4 * i + 2) & 0xFF,
+                yEnd = vdmx.get(6 + 4 * i + 3) & 0xFF;
+            if (x != 0 && (x < yStart || x > yEnd)) continue;
+            
+            int group = vdmx.getShort(offsets + 2 * i) & 0xFFFF;
+            if (group + 4 > vdmx.limit()) return null;
+            
+            int records = vdmx.getShort(group) & 0xFFFF;
+            for (int r = 0, entry = group + 4;
+                 r < records && entry + 6 <= vdmx.limit();
+                 r++, entry += 6)
+                if ((vdmx.getShort(entry) & 0xFFFF) == ppem)
+                    return new int[] { vdmx.getShort(entry + 2),
+                                       vdmx.getShort(entry + 4) };
+            
+            return null;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Gets the behavior which the <code>gasp</code> table recommends for the
+     * given size.
+     * 
+     * @param ppem The size of the em square, in pixels.
+     * 
+     * @return A combination of the <code>GASP_*</code> flags, which is
+     *         {@link #DEFAULT_BEHAVIOR} if the table does not cover the size.
+     */
+    public int getBehavior(int ppem) {
+        if (gasp == null) return DEFAULT_BEHAVIOR;
+        
+        int ranges = gasp.getShort(2) & 0xFFFF;
+        for (int i = 0; i < ranges && 8 + 4 * i <= gasp.limit(); i++)
+            if (ppem <= (gasp.getShort(4 + 4 * i) & 0xFFFF))
+                return gasp.getShort(6 + 4 * i) & 0xFFFF;
+        
+        return DEFAULT_BEHAVIOR;
+    }
+}
@@ -0,0 +1,487 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The bitmap strikes embedded in a font, each of which holds bitmaps of some
+ * of its glyphs at a single size. Strikes are read from the
+ * <code>EBLC</code> and <code>EBDT</code> tables (monochrome and grayscale
+ * bitmaps), the <code>CBLC</code> and <code>CBDT</code> tables (which share
+ * their format and add PNG images for color glyphs), and the
+ * <code>sbix</code> table (PNG, JPEG or TIFF images).
+ * 
+ * <p>
+ * Nothing is decoded ahead of time: the location of a bitmap is found from
+ * the tables each time that a glyph is requested, and monochrome and
+ * grayscale bitmaps are unpacked straight from the font file into one byte
+ * of coverage for each pixel. Encoded images are copied out as they are.
+ * Callers are expected to cache the bitmaps which they render.
+ * </p>
+ * 
+ * <p>
+ * Strikes are numbered with those of the <code>EBLC</code> or
+ * <code>CBLC</code> table first, followed by those of the <code>sbix</code>
+ * table.
+ * </p>
+ */
+public class EmbeddedBitmaps {
+    // The size of a BitmapSize record in the EBLC and CBLC tables.
+    private static final int BITMAP_SIZE_LENGTH = 48;
+    
+    // The types of graphics in the sbix table.
+    private static final int SBIX_DUPE = 0x64_75_70_65,
+                             SBIX_PNG = 0x70_6E_67_20,
+                             SBIX_JPG = 0x6A_70_67_20,
+                             SBIX_TIFF = 0x74_69_66_66;
+    
+    private final ByteBuffer location,
+                             data,
+                             sbix;
+    private final int numGlyphs,
+                      sizes,
+                      sbixStrikes;
+    
+    // Whether the location table is a CBLC table, whose strikes are in color.
+    private final boolean color;
+    
+    /**
+     * Reads the strikes of a font from its tables, any of which may be
+     * <code>null</code> if the font does not contain it.
+     * 
+     * @param location The <code>EBLC</code> or <code>CBLC</code> table.
+     * @param data The <code>EBDT</code> or <code>CBDT</code> table which
+     *             accompanies the location table.
+     * @param sbix The <code>sbix</code> table.
+     * @param numGlyphs The number of glyphs in the font.
+     */
+    public EmbeddedBitmaps(ByteBuffer location,
+                           ByteBuffer data,
+                           ByteBuffer sbix,
+                           int numGlyphs) {
+        this.numGlyphs = numGlyphs;
+        if (location != null && data != null && location.limit() >= 8) {
+            int count = location.getInt(4);
+            if (count < 0
+                || 8 + (long)count * BITMAP_SIZE_LENGTH > location.limit())
+                throw new IllegalArgumentException("The bitmap location "
+                                                   + "table is truncated.");
+            
+            this.location = location;
+            this.data = data;
+            sizes = count;
+            color = (location.getShort(0) & 0xFFFF) == 3;
+        }
+        else {
+            this.location = this.data = null;
+            sizes = 0;
+            color = false;
+        }
+        
+        if (sbix != null && sbix.limit() >= 8) {
+            int count = sbix.getInt(4);
+            if (count < 0 || 8 + 4L * count > sbix.limit())
+                throw new IllegalArgumentException("The sbix table is "
+                                                   + "truncated.");
+            
+            this.sbix = sbix;
+            sbixStrikes = count;
+        }
+        else {
+            this.sbix = null;
+            sbixStrikes = 0;
+        }
+    }
+    
+    /**
+     * @return Whether the font has no strikes at all.
+     */
+    public boolean isEmpty() {
+        return getStrikeCount() == 0;
+    }
+    
+    public int getStrikeCount() {
+        return sizes + sbixStrikes;
+    }
+    
+    /**
+     * @param strike The index of the strike.
+     * 
+     * @return The size of the em square of the strike, in pixels.
+     */
+    public int getStrikeSize(int strike) {
+        checkStrike(strike);
+        if (strike < sizes)
+            return location.get(8 + strike * BITMAP_SIZE_LENGTH + 45) & 0xFF;
+        
+        return sbix.getShort(getSbixStrike(strike - sizes)) & 0xFFFF;
+    }
+    
+    /**
+     * @param strike The index of the strike.
+     * 
+     * @return Whether the strike holds color images, rather than monochrome
+     *         or grayscale bitmaps.
+     */
+    public boolean isColorStrike(int strike) {
+        checkStrike(strike);
+        
+        return strike >= sizes || color;
+    }
+    
+    /**
+     * Finds the bitmap of a glyph for the given size. A strike of exactly
+     * that size is used if one contains the glyph. Otherwise, a strike of
+     * another size may be used, which is the smallest strike larger than the
+     * size if there is one and the largest strike if not; the bitmap must
+     * then be scaled by the caller. Color strikes may always be used at other
+     * sizes, since they are usually only provided at a few large sizes, but
+     * monochrome and grayscale strikes are tuned for their own sizes and are
+     * only used at others if requested.
+     * 
+     * @param id The ID of the glyph.
+     * @param ppem The size of the em square, in pixels.
+     * @param anySize Whether monochrome and grayscale strikes of other sizes
+     *                may be used, as they should be for a font which has no
+     *                outlines.
+     * 
+     * @return The bitmap of the glyph, or <code>null</code> if no suitable
+     *         strike contains it.
+     */
+    public BitmapGlyph getGlyph(int id, int ppem, boolean anySize) {
+        int count = getStrikeCount();
+        if (count == 0 || id < 0 || id >= numGlyphs) return null;
+        
+        /*
+         * The strikes are ordered by how closely they match the size, with
+         * the exact size first and then larger strikes before smaller ones.
+         */
+        long[] candidates = new long[count];
+        int n = 0;
+        for (int strike = 0; strike < count; strike++) {
+            int size = getStrikeSize(strike);
+            if (size != ppem && !anySize && !isColorStrike(strike)) continue;
+            
+            long distance = size >= ppem ? size - ppem : 0x10000 + ppem - size;
+            candidates[n++] = distance << 32 | strike;
+        }
+        Arrays.sort(candidates, 0, n);
+        
+        for (int i = 0; i < n; i++) {
+            BitmapGlyph glyph = getGlyph((int)candidates[i], id);
+            if (glyph != null) return glyph;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Gets the bitmap of a glyph from a particular strike.
+     * 
+     * @param strike The index of the strike.
+     * @param id The ID of the glyph.
+     * 
+     * @return The bitmap of the glyph, or <code>null</code> if the strike
+     *         does not contain it or stores it in an unsupported format.
+     */
+    public BitmapGlyph getGlyph(int strike, int id) {
+        checkStrike(strike);
+        if (id < 0 || id >= numGlyphs) return null;
+        
+        return strike < sizes
+               ? getLocatedGlyph(strike, id)
+               : getSbixGlyph(strike - sizes, id, true);
+    }
+    
+    private void checkStrike(int strike) {
+        if (strike < 0 || strike >= getStrikeCount())
+            throw new IllegalArgumentException("There is no strike "
+                                               + strike
+                                               + " in a font with "
+                                               + getStrikeCount()
+                                               + " strikes.");
+    }
+    
+    /*
+     * Finds a glyph through the index subtables of a BitmapSize record in
+     * the EBLC or CBLC table.
+     */
+    private BitmapGlyph getLocatedGlyph(int strike, int id) {
+        int record = 8 + strike * BITMAP_SIZE_LENGTH;
+        int array = location.getInt(record),
+            subtables = location.getInt(record + 8),
+            ppem = location.get(record + 45) & 0xFF,
+            bitDepth = location.get(record + 46) & 0xFF;
+        if (id < (location.getShort(record + 40) & 0xFFFF)
+            || id > (location.getShort(record + 42) & 0xFFFF))
+            return null;
+        
+        for (int i = 0; i < subtables; i++) {
+            int entry = array + 8 * i;
+            if (entry + 8 > location.limit()) return null;
+            
+            int first = location.getShort(entry) & 0xFFFF,
+                last = location.getShort(entry + 2) & 0xFFFF;
+            if (id < first || id > last) continue;
+            
+            int subtable = array + location.getInt(entry + 4);
+            int indexFormat = location.getShort(subtable) & 0xFFFF,
+                imageFormat = location.getShort(subtable + 2) & 0xFFFF,
+                imageData = location.getInt(subtable + 4),
+                index = id - first;
+            
+            // The metrics of glyphs of a constant size are kept in the index.
+            int start,
+                end,
+                metrics = -1;
+            switch (indexFormat) {
+            case 1:
+                start = location.getInt(subtable + 8 + 4 * index);
+                end = location.getInt(subtable + 12 + 4 * index);
+                break;
+            case 2: {
+                int size = location.getInt(subtable + 8);
+                metrics = subtable + 12;
+                start = size * index;
+                end = start + size;
+                break;
+            }
+            case 3:
+                start = location.getShort(subtable + 8 + 2 * index) & 0xFFFF;
+                end = location.getShort(subtable + 10 + 2 * index) & 0xFFFF;
+                break;
+            case 4: {
+                int glyphs = location.getInt(subtable + 8),
+                    pair = findGlyph(subtable + 12, 4, glyphs, id);
+                if (pair < 0) return null;
+                
+                start = location.getShort(pair + 2) & 0xFFFF;
+                end = location.getShort(pair + 6) & 0xFFFF;
+                break;
+            }
+            case 5: {
+                int size = location.getInt(subtable + 8),
+                    glyphs = location.getInt(subtable + 20),
+                    found = findGlyph(subtable + 24, 2, glyphs, id);
+                if (found < 0) return null;
+                
+                metrics = subtable + 12;
+                start = size * ((found - subtable - 24) / 2);
+                end = start + size;
+                break;
+            }
+            default:
+                return null;
+            }
+            if (end <= start) return null;
+            
+            return decode(id,
+                          imageFormat,
+                          imageData + start,
+                          imageData + end,
+                          metrics,
+                          bitDepth,
+                          ppem);
+        }
+        
+        return null;
+    }
+    
+    /*
+     * Finds the entry for a glyph in a sorted array of glyph IDs in the
+     * location table, returning its offset or -1 if it is not there.
+     */
+    private int findGlyph(int offset, int stride, int count, int id) {
+        int low = 0,
+            high = count - 1;
+        while (low <= high) {
+            int mid = low + high >>> 1;
+            int value = location.getShort(offset + mid * stride) & 0xFFFF;
+            if (value < id) low = mid + 1;
+            else if (value > id) high = mid - 1;
+            else return offset + mid * stride;
+        }
+        
+        return -1;
+    }
+    
+    /*
+     * Decodes an image from the EBDT or CBDT table. The metrics are read
+     * from the image itself unless the offset of the metrics in the index is
+     * given.
+     */
+    private BitmapGlyph decode(int id,
+                               int format,
+                               int start,
+                               int end,
+                               int indexMetrics,
+                               int bitDepth,
+                               int ppem) {
+        if (start < 0 || end > data.limit()) return null;
+        
+        ByteBuffer metrics;
+        int offset,
+            bits;
+        boolean aligned;
+        switch (format) {
+        case 1: // Small metrics, byte-aligned data.
+        case 2: // Small metrics, bit-aligned data.
+        case 17: // Small metrics, PNG data.
+            metrics = data;
+            offset = start;
+            bits = start + 5;
+            aligned = format == 1;
+            break;
+        case 6: // Big metrics, byte-aligned data.
+        case 7: // Big metrics, bit-aligned data.
+        case 18: // Big metrics, PNG data.
+            metrics = data;
+            offset = start;
+            bits = start + 8;
+            aligned = format == 6;
+            break;
+        case 5: // Metrics in the index, bit-aligned data.
+        case 19: // Metrics in the index, PNG data.
+            if (indexMetrics < 0) return null;
+            
+            metrics = location;
+            offset = indexMetrics;
+            bits = start;
+            aligned = false;
+            break;
+        default:
+            // Composite bitmaps (formats 8 and 9) are not supported.
+            return null;
+        }
+        
+        int height = metrics.get(offset) & 0xFF,
+            width = metrics.get(offset + 1) & 0xFF,
+            left = metrics.get(offset + 2),
+            top = metrics.get(offset + 3),
+            advance = metrics.get(offset + 4) & 0xFF;
+        
+        if (format >= 17) {
+            int length = data.getInt(bits);
+            if (length < 0 || bits + 4 + length > end) return null;
+            
+            byte[] image = new byte[length];
+            ByteBuffer source = data.duplicate();
+            source.position(bits + 4);
+            source.get(image);
+            
+            return new BitmapGlyph(id,
+                                   BitmapGlyph.FORMAT_IMAGE,
+                                   width,
+                                   height,
+                                   left,
+                                   top - height,
+                                   advance,
+                                   ppem,
+                                   image);
+        }
+        
+        if (bitDepth != 1 && bitDepth != 2 && bitDepth != 4 && bitDepth != 8)
+            return null;
+        
+        int stride = aligned
+                     ? (width * bitDepth + 7) / 8 * 8
+                     : width * bitDepth;
+        if (bits + ((long)stride * height + 7) / 8 > end) return null;
+        
+        byte[] coverage = new byte[width * height];
+        int max = (1 << bitDepth) - 1;
+        for (int y = 0; y < height; y++) {
+            long bit = (long)bits * 8 + (long)y * stride;
+            for (int x = 0; x < width; x++, bit += bitDepth) {
+                int value = data.get((int)(bit >> 3))
+                            >> 8 - bitDepth - (int)(bit & 7)
+                            & max;
+                coverage[y * width + x] = (byte)(value * 255 / max);
+            }
+        }
+        
+        return new BitmapGlyph(id,
+                               BitmapGlyph.FORMAT_COVERAGE,
+                               width,
+                               height,
+                               left,
+                               top - height,
+                               advance,
+                               ppem,
+                               coverage);
+    }
+    
+    // Gets the offset of a strike of the sbix table.
+    private int getSbixStrike(int strike) {
+        return sbix.getInt(8 + 4 * strike);
+    }
+    
+    /*
+     * Reads a glyph from a strike of the sbix table, following a reference
+     * to another glyph if the glyph is a duplicate (and duplicates are
+     * followed).
+     */
+    private BitmapGlyph getSbixGlyph(int strike, int id, boolean dupes) {
+        int offset = getSbixStrike(strike);
+        if (offset + 4 + 4L * (numGlyphs + 1) > sbix.limit()) return null;
+        
+        int ppem = sbix.getShort(offset) & 0xFFFF,
+            start = offset + sbix.getInt(offset + 4 + 4 * id),
+            end = offset + sbix.getInt(offset + 8 + 4 * id);
+        if (end - start <= 8 || start < offset || end > sbix.limit())
+            return null;
+        
+        int left = sbix.getShort(start),
+            bottom = sbix.getShort(start + 2),
+            type = sbix.getInt(start + 4);
+        if (type == SBIX_DUPE) {
+            int original = sbix.getShort(start + 8) & 0xFFFF;
+            if (!dupes || original >= numGlyphs) return null;
+            
+            BitmapGlyph glyph = getSbixGlyph(strike, original, false);
+            if (glyph == null) return null;
+            
+            return new BitmapGlyph(id,
+                                   glyph.getFormat(),
+                                   glyph.getWidth(),
+                                   glyph.getHeight(),
+                                   glyph.getLeft(),
+                                   glyph.getBottom(),
+                                   glyph.getAdvance(),
+                                   ppem,
+                                   glyph.getData());
+        }
+        if (type != SBIX_PNG && type != SBIX_JPG && type != SBIX_TIFF)
+            return null;
+        
+        byte[] image = new byte[end - start - 8];
+        ByteBuffer source = sbix.duplicate();
+        source.position(start + 8);
+        source.get(image);
+        
+        return new BitmapGlyph(id,
+                               BitmapGlyph.FORMAT_IMAGE,
+                               0,
+                               0,
+                               left,
+                               bottom,
+                               -1,
+                               ppem,
+                               image);
+    }
+}
@@ -0,0 +1,141 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * A TrueType collection, which is a single file containing several fonts (or
+ * "faces") that may share some of their tables. The file is mapped into
+ * memory (or otherwise loaded) once, and each face is read from the same
+ * buffer.
+ * 
+ * <p>
+ * The faces of a collection share a {@link TableCache}, so a table which is
+ * used by several faces (the <code>glyf</code>, <code>loca</code> and
+ * <code>cmap</code> tables of a CJK collection, for instance) is parsed once
+ * for all of them, and faces which share a <code>glyf</code> table also share
+ * a glyph cache. A file containing a single font may also be opened as a
+ * collection of one face.
+ * </p>
+ */
+public class FontCollection {
+    // The tag which begins the header of a font collection, 'ttcf'.
+    /* package-private */ static final int COLLECTION_TAG = 0x74_74_63_66;
+    
+    private final ByteBuffer buffer;
+    private final TableCache tables;
+    private final int[] offsets;
+    private final OTFFileReader[] faces;
+    
+    /**
+     * Maps the font collection at the given file. None of the faces are read
+     * until they are requested.
+     * 
+     * @param file The collection (or single font) to open.
+     */
+    public FontCollection(File file) {
+        this(SfntSource.of(file));
+    }
+    
+    /**
+     * Opens the font collection provided by the given source. None of the
+     * faces are read until they are requested.
+     * 
+     * @param source The source of the collection (or single font).
+     */
+    public FontCollection(SfntSource source) {
+        buffer = source.getBuffer();
+        tables = new TableCache();
+        
+        if (buffer.limit() >= 12 && buffer.getInt(0) == COLLECTION_TAG) {
+            int numFonts = buffer.getInt(8);
+            if (numFonts < 0 || buffer.limit() < 12 + 4 * (long)numFonts)
+                throw new IllegalArgumentException("The header of the font "
+                                                   + "collection is "
+                                                   + "truncated.");
+            
+            offsets = new int[numFonts];
+            for (int i = 0; i < numFonts; i++) {
+                offsets[i] = buffer.getInt(12 + 4 * i);
+                if (offsets[i] < 0 || offsets[i] > buffer.limit() - 12)
+                    throw new IllegalArgumentException("The offset of face "
+                                                       + i
+                                                       + " lies outside of "
+                                                       + "the font "
+                                                       + "collection.");
+            }
+        }
+        else offsets = new int[] { 0 };
+        
+        faces = new OTFFileReader[offsets.length];
+    }
+    
+    /**
+     * @return The number of faces in this collection.
+     */
+    public int getFaceCount() {
+        return offsets.length;
+    }
+    
+    /**
+     * Gets a reader for the face at the given index of this collection. The
+     * reader is created the first time that the face is requested, and the
+     * same reader is returned afterwards.
+     * 
+     * @param index The index of the face.
+     * 
+     * @return The reader for the face.
+     */
+    public synchronized OTFFileReader getFace(int index) {
+        if (index < 0 || index >= offsets.length)
+            throw new IllegalArgumentException("The collection does not "
+                                               + "contain a face at index "
+                                               + index);
+        
+        if (faces[index] == null)
+            faces[index] = new OTFFileReader(buffer,
+                                             offsets[index],
+                                             null,
+                                             tables,
+                                             false);
+        
+        return faces[index];
+    }
+    
+    /**
+     * @return Whether the file is a collection, rather than a single font.
+     */
+    public boolean isCollection() {
+        return buffer.getInt(0) == COLLECTION_TAG;
+    }
+    
+    /**
+     * @return The size of the collection, in bytes.
+     */
+    public long getSize() {
+        return buffer.limit();
+    }
+    
+    /**
+     * @return The cache of tables which are shared by the faces of this
+     *         collection.
+     */
+    public TableCache getTableCache() {
+        return tables;
+    }
+}
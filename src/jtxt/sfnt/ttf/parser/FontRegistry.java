@@ -0,0 +1,238 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shares parsed fonts across an entire process. Each font file is mapped and
+ * parsed once, however many times it is acquired, and every caller which
+ * acquires the same face of the same file receives the same reader, along
+ * with its caches of glyphs, metrics and character mappings.
+ * 
+ * <p>
+ * The registry counts the references to each file. Every call to
+ * {@link #acquire(Path, int)} should be balanced by a call to
+ * {@link #release(Path)} once the caller is finished with the font. When the
+ * last reference to a file is released, the registry drops its mapping, so
+ * the memory is returned to the system once the garbage collector has
+ * reclaimed the buffers which refer to it (mapped buffers cannot be unmapped
+ * explicitly while any slice of them might still be in use).
+ * </p>
+ * 
+ * <p>
+ * The total size of the files mapped by a registry is limited by a
+ * configurable cap, which protects a process from exhausting its address
+ * space when fonts are acquired and never released.
+ * </p>
+ */
+public class FontRegistry {
+    /**
+     * The cap on the number of mapped bytes which is used for a registry when
+     * none has been specified.
+     */
+    public static final long DEFAULT_MAPPED_BYTES_CAP = 512L * 1024 * 1024;
+    
+    private static final FontRegistry DEFAULT = new FontRegistry();
+    
+    /*
+     * A font file in the registry, along with the number of references which
+     * have been acquired and not yet released.
+     */
+    private static class Entry {
+        final FontCollection collection;
+        final long size;
+        int references;
+        
+        Entry(FontCollection collection) {
+            this.collection = collection;
+            size = collection.getSize();
+        }
+    }
+    
+    private final Map<Path, Entry> entries = new LinkedHashMap<>();
+    private long cap,
+                 mappedBytes;
+    
+    public FontRegistry() {
+        this(DEFAULT_MAPPED_BYTES_CAP);
+    }
+    
+    /**
+     * @param cap The largest total size of the font files which may be
+     *            mapped by this registry at once, in bytes.
+     */
+    public FontRegistry(long cap) {
+        setMappedBytesCap(cap);
+    }
+    
+    /**
+     * @return The registry which is shared by the whole process.
+     */
+    public static FontRegistry getDefault() {
+        return DEFAULT;
+    }
+    
+    /**
+     * Acquires the first face of the font at the given path.
+     * 
+     * @param path The path of the font file.
+     * 
+     * @return The shared reader for the font.
+     * 
+     * @see #acquire(Path, int)
+     */
+    public OTFFileReader acquire(Path path) {
+        return acquire(path, 0);
+    }
+    
+    /**
+     * Acquires a face of the font at the given path, mapping the file if it
+     * has not already been mapped. Each call increments the reference count
+     * of the file, and must be balanced by a call to {@link #release(Path)}.
+     * 
+     * @param path The path of the font file.
+     * @param face The index of the face, which is zero unless the file is a
+     *             font collection.
+     * 
+     * @return The shared reader for the face.
+     * 
+     * @throws IllegalStateException If mapping the file would exceed the cap
+     *                               on the number of mapped bytes.
+     */
+    public synchronized OTFFileReader acquire(Path path, int face) {
+        Path key = path.toAbsolutePath().normalize();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            /*
+             * The cap is checked against the size of the file on disk, so
+             * that a file which would exceed it is never mapped at all.
+             */
+            long size;
+            try {
+                size = Files.size(key);
+            }
+            catch (IOException ioe) {
+                throw new IllegalArgumentException("The provided file could "
+                                                   + "not be read from "
+                                                   + "disk.");
+            }
+            if (mappedBytes + size > cap)
+                throw new IllegalStateException("Mapping "
+                                                + key
+                                                + " would exceed the cap of "
+                                                + cap
+                                                + " mapped bytes.");
+            
+            entry = new Entry(new FontCollection(key.toFile()));
+            entries.put(key, entry);
+            mappedBytes += entry.size;
+        }
+        
+        /*
+         * The face is read before the reference is counted, so that a face
+         * which does not exist does not leave a reference behind.
+         */
+        OTFFileReader reader;
+        try {
+            reader = entry.collection.getFace(face);
+        }
+        catch (IllegalArgumentException iae) {
+            if (entry.references == 0) remove(key, entry);
+            throw iae;
+        }
+        entry.references++;
+        
+        return reader;
+    }
+    
+    /**
+     * Releases a reference to the font at the given path. When no references
+     * to the font remain, the registry forgets the font and drops its
+     * mapping, and the next call to {@link #acquire(Path, int)} maps and
+     * parses the file again.
+     * 
+     * @param path The path of the font file.
+     * 
+     * @throws IllegalArgumentException If the font has not been acquired.
+     */
+    public synchronized void release(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        Entry entry = entries.get(key);
+        if (entry == null)
+            throw new IllegalArgumentException(key
+                                               + " has not been acquired "
+                                               + "from this registry.");
+        
+        if (--entry.references == 0) remove(key, entry);
+    }
+    
+    private void remove(Path key, Entry entry) {
+        entries.remove(key);
+        mappedBytes -= entry.size;
+    }
+    
+    /**
+     * @param path The path of a font file.
+     * 
+     * @return The number of unreleased references to the font.
+     */
+    public synchronized int getReferenceCount(Path path) {
+        Entry entry = entries.get(path.toAbsolutePath().normalize());
+        
+        return entry != null ? entry.references : 0;
+    }
+    
+    /**
+     * @return The total size of the font files mapped by this registry.
+     */
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+    
+    public synchronized long getMappedBytesCap() {
+        return cap;
+    }
+    
+    /**
+     * Sets the largest total size of the font files which may be mapped by
+     * this registry at once. Lowering the cap does not affect the files which
+     * are already mapped, but prevents further files from being mapped until
+     * enough of them have been released.
+     * 
+     * @param cap The cap on the number of mapped bytes.
+     */
+    public synchronized void setMappedBytesCap(long cap) {
+        if (cap < 0)
+            throw new IllegalArgumentException("The cap on mapped bytes "
+                                               + "cannot be negative.");
+        
+        this.cap = cap;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return String.format("FontRegistry: [fonts=%d, mappedBytes=%d, "
+                             + "cap=%d]%n",
+                             entries.size(),
+                             mappedBytes,
+                             cap);
+    }
+}
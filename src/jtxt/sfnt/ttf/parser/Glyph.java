@@ -16,10 +16,11 @@
 package jtxt.sfnt.ttf.parser;
 
 import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * A {@code Glyph} is the representation of a character in a font. Characters
@@ -50,10 +51,50 @@ public abstract class Glyph {
         this.bounds = bounds;
     }
     
+    /**
+     * Reads the glyph at the given offset of the <code>glyf</code> table. The
+     * components of a composite glyph are parsed along with it.
+     * 
+     * @param buffer The buffer containing the <code>glyf</code> table.
+     * @param offset The offset of the glyph in the buffer.
+     * @param id The ID of the glyph.
+     * @param translator Locates the components of composite glyphs.
+     * 
+     * @return The glyph.
+     */
     public static Glyph createGlyph(ByteBuffer buffer,
                                     int offset,
                                     int id,
                                     AddressTranslator translator) {
+        return createGlyph(buffer, offset, id, translator, null, 0);
+    }
+    
+    /**
+     * Reads the glyph at the given offset of the <code>glyf</code> table,
+     * resolving the components of a composite glyph through the given
+     * resolver (a glyph cache, for instance), or by parsing them directly if
+     * the resolver is <code>null</code>.
+     * 
+     * @param depth The number of composite glyphs which the glyph is nested
+     *              within, which is zero unless it is being read as a
+     *              component.
+     */
+    /* package-private */ static Glyph createGlyph(ByteBuffer buffer,
+                                                   int offset,
+                                                   int id,
+                                                   AddressTranslator
+                                                   translator,
+                                                   ComponentResolver
+                                                   components,
+                                                   int depth) {
+        // Glyphs without any data in the glyf table have no outline at all.
+        if (translator.isEmpty(id))
+            return new SimpleGlyph(buffer,
+                                   offset,
+                                   id,
+                                   (short)0,
+                                   new Rectangle2D.Float());
+        
         buffer.position(offset);
         short numContours = buffer.getShort();
         short xMin = buffer.getShort(),
@@ -62,15 +103,19 @@ public abstract class Glyph {
               yMax = buffer.getShort();
         Rectangle2D bounds = new Rectangle2D.Float(xMin,
                                                    yMin,
-                                                   xMax,
-                                                   yMax);
+                                                   xMax - xMin,
+                                                   yMax - yMin);
         if (numContours < 0)
             return new CompositeGlyph(buffer,
                                       offset,
                                       id,
                                       numContours,
                                       bounds,
-                                      translator);
+                                      components != null
+                                      ? components
+                                      : CompositeGlyph.parser(buffer,
+                                                              translator),
+                                      depth);
         
         return new SimpleGlyph(buffer,
                                offset,
@@ -79,6 +124,20 @@ public abstract class Glyph {
                                bounds);
     }
     
+    /**
+     * Finds the glyphs which are the components of a composite glyph.
+     */
+    /* package-private */ interface ComponentResolver {
+        /**
+         * @param id The ID of the component.
+         * @param depth The number of composite glyphs which the component is
+         *              nested within.
+         * 
+         * @return The component.
+         */
+        Glyph resolve(int id, int depth);
+    }
+    
     public Rectangle2D getBounds() {
         return bounds.getBounds2D();
     }
@@ -101,6 +160,37 @@ public abstract class Glyph {
      */
     public abstract Path2D getPath();
     
+    /**
+     * Passes the outline of this glyph, in FUnits, to the given sink. Unlike
+     * {@link #getPath()}, this does not construct a shape, so a consumer
+     * such as a rasterizer can be driven by the outline directly.
+     * 
+     * @param sink The sink which receives the segments of the outline.
+     */
+    public abstract void decode(OutlineSink sink);
+    
+    /**
+     * Passes the outline of this glyph, in FUnits, to the given sink, using
+     * an emitter which is reused for each glyph. Glyphs whose outlines are
+     * not made of TrueType contours do not need the emitter.
+     * 
+     * @param sink The sink which receives the segments of the outline.
+     * @param emitter The emitter which converts the points of the outline
+     *                into segments.
+     */
+    public void decode(OutlineSink sink, ContourEmitter emitter) {
+        decode(sink);
+    }
+    
+    /**
+     * Estimates the number of bytes of heap which this glyph occupies. This
+     * is used by the {@code GlyphCache} to keep the size of the cache within
+     * its memory budget, so it need only be a rough approximation.
+     * 
+     * @return The approximate size of this glyph, in bytes.
+     */
+    /* package-private */ abstract int footprint();
+    
     /**
      * A {@code SimpleGlyph} is a glyph which defines all of the contours
      * required for drawing it.
@@ -115,44 +205,13 @@ public abstract class Glyph {
                                   Y_DELTA = 1 << 5,
                                   OVERLAP_SIMPLE = 1 << 6;
         
-        /**
-         * A class which represents an (x,&nbsp;y) Cartesian coordinate and
-         * that coordinate's associated flag. This simplifies the
-         * representation of these elements during the curve construction
-         * process and reduces the number of variables which must be kept track
-         * of there.
+        private final GlyphOutline outline;
+        /*
+         * The instructions are left in the font file until they are needed,
+         * since most glyphs are never hinted.
          */
-        private static final class Coordinate {
-            private final int flag,
-                              x,
-                              y;
-            
-            Coordinate(int flag,
-                       int x,
-                       int y) {
-                this.flag = flag;
-                this.x = x;
-                this.y = y;
-            }
-            
-            boolean onCurve() {
-                return (ON_CURVE_POINT & flag) > 0;
-            }
-            
-            @Override
-            public String toString() {
-                return String.format("Coordinate: [flag=%s, x=%d, y=%d]%n",
-                                     Integer.toBinaryString(flag),
-                                     x,
-                                     y);
-            }
-        }
-        
-        private final short numCoordinates;
-        private final short[] endPoints;
-        private Coordinate[] coords;
-        private final byte[] flags,
-                             instructions;
+        private final int instructionOffset,
+                          instructionLength;
         
         public SimpleGlyph(ByteBuffer buffer,
                            int offset,
@@ -161,49 +220,171 @@ public abstract class Glyph {
                            Rectangle2D bounds) {
             super(buffer, offset, id, numContours, bounds);
             
-            int lo = buffer.position();
-            endPoints = new short[numContours];
-            buffer.asShortBuffer()
-                  .get(endPoints);
-            numCoordinates = (short)(endPoints[numContours - 1] + 1);
-            buffer.position(lo + numContours * 2);
-            instructions = new byte[buffer.getShort()];
-            buffer.get(instructions);
-            flags = new byte[numCoordinates];
+            if (numContours == 0) {
+                outline = GlyphOutline.EMPTY;
+                instructionOffset = instructionLength = 0;
+                return;
+            }
             
-            for (int i = 0; i < flags.length; i++) {
+            short[] endPoints = new short[numContours];
+            for (int i = 0; i < numContours; i++)
+                endPoints[i] = buffer.getShort();
+            int numCoordinates = (endPoints[numContours - 1] & 0xFFFF) + 1;
+            
+            instructionLength = buffer.getShort() & 0xFFFF;
+            instructionOffset = buffer.position();
+            buffer.position(instructionOffset + instructionLength);
+            
+            /*
+             * The flags are only needed while the coordinates are decoded, so
+             * they are not kept once the outline has been constructed.
+             */
+            byte[] flags = new byte[numCoordinates];
+            long[] onCurve = new long[(numCoordinates + 63) >> 6];
+            for (int i = 0; i < numCoordinates; i++) {
                 byte flag = buffer.get();
-                flags[i] = flag;
+                int n = (REPEAT & flag) > 0
+                        ? buffer.get() & 0xFF
+                        : 0;
                 
-                if ((REPEAT & flag) > 0) {
-                    byte n = buffer.get();
-                    while (n-- > 0) flags[++i] = flag;
+                for (; n >= 0 && i < numCoordinates; n--, i++) {
+                    flags[i] = flag;
+                    if ((ON_CURVE_POINT & flag) > 0)
+                        onCurve[i >> 6] |= 1L << i;
                 }
+                i--;
+            }
+            
+            short[] xCoords = readCoordinates(flags, X_SHORT_VECTOR, X_DELTA);
+            short[] yCoords = readCoordinates(flags, Y_SHORT_VECTOR, Y_DELTA);
+            outline = new GlyphOutline(xCoords,
+                                       yCoords,
+                                       onCurve,
+                                       endPoints);
+        }
+        
+        /**
+         * Decodes the outline of the simple glyph at the given offset
+         * directly from the font, passing each segment to the sink as it is
+         * read. No intermediate objects are created for the points of the
+         * outline, and the position of the buffer is not changed.
+         * 
+         * @param buffer The buffer containing the <code>glyf</code> table.
+         * @param offset The offset of the glyph in the buffer.
+         * @param sink The sink which receives the outline, in FUnits.
+         * 
+         * @return Whether the glyph was decoded, which is false if the glyph
+         *         is a composite of other glyphs.
+         */
+        public static boolean decodeOutline(ByteBuffer buffer,
+                                            int offset,
+                                            OutlineSink sink) {
+            short numContours = buffer.getShort(offset);
+            if (numContours < 0) return false;
+            if (numContours == 0) return true;
+            
+            int endPoints = offset + 10;
+            int numPoints = (buffer.getShort(endPoints
+                                             + 2 * (numContours - 1))
+                             & 0xFFFF) + 1;
+            int instructionLength = buffer.getShort(endPoints
+                                                    + 2 * numContours)
+                                    & 0xFFFF;
+            int flagOffset = endPoints
+                             + 2 * numContours
+                             + 2
+                             + instructionLength;
+            
+            /*
+             * The flags, x-coordinates and y-coordinates are stored one after
+             * another, so the flags are scanned once to find where each of
+             * the coordinate arrays begins.
+             */
+            int f = flagOffset,
+                xLength = 0;
+            for (int i = 0; i < numPoints;) {
+                byte flag = buffer.get(f++);
+                int count = 1;
+                if ((REPEAT & flag) > 0)
+                    count += buffer.get(f++) & 0xFF;
+                count = Math.min(count, numPoints - i);
+                
+                if ((X_SHORT_VECTOR & flag) > 0) xLength += count;
+                else if ((X_DELTA & flag) == 0) xLength += 2 * count;
+                i += count;
             }
             
-            short[] xCoords = readCoordinates(X_SHORT_VECTOR, X_DELTA);
-            short[] yCoords = readCoordinates(Y_SHORT_VECTOR, Y_DELTA);
+            int xo = f,
+                yo = f + xLength;
+            f = flagOffset;
+            
+            ContourEmitter emitter = new ContourEmitter(sink);
+            int contour = 0,
+                end = buffer.getShort(endPoints) & 0xFFFF,
+                repeat = 0,
+                x = 0,
+                y = 0;
+            byte flag = 0;
             
-            coords = new Coordinate[numCoordinates];
-            for (int i = 0; i < numCoordinates; i++)
-                coords[i] = new Coordinate(flags[i],
-                                           xCoords[i],
-                                           yCoords[i]);
+            emitter.beginContour();
+            for (int i = 0; i < numPoints; i++) {
+                if (repeat > 0) repeat--;
+                else {
+                    flag = buffer.get(f++);
+                    if ((REPEAT & flag) > 0) repeat = buffer.get(f++) & 0xFF;
+                }
+                
+                if ((X_SHORT_VECTOR & flag) > 0) {
+                    int d = buffer.get(xo++) & 0xFF;
+                    x += (X_DELTA & flag) > 0 ? d : -d;
+                }
+                else if ((X_DELTA & flag) == 0) {
+                    x += buffer.getShort(xo);
+                    xo += 2;
+                }
+                
+                if ((Y_SHORT_VECTOR & flag) > 0) {
+                    int d = buffer.get(yo++) & 0xFF;
+                    y += (Y_DELTA & flag) > 0 ? d : -d;
+                }
+                else if ((Y_DELTA & flag) == 0) {
+                    y += buffer.getShort(yo);
+                    yo += 2;
+                }
+                
+                emitter.addPoint((short)x,
+                                 (short)y,
+                                 (ON_CURVE_POINT & flag) > 0);
+                if (i == end) {
+                    emitter.endContour();
+                    if (++contour < numContours) {
+                        end = buffer.getShort(endPoints + 2 * contour)
+                              & 0xFFFF;
+                        emitter.beginContour();
+                    }
+                }
+            }
+            
+            return true;
         }
         
-        private short[] readCoordinates(int shortVector, int delta) {
-            short[] coords = new short[numCoordinates];
+        /*
+         * Reads the coordinates for one axis, converting the deltas stored in
+         * the font into absolute coordinates.
+         */
+        private short[] readCoordinates(byte[] flags,
+                                        int shortVector,
+                                        int delta) {
+            short[] coords = new short[flags.length];
             
             short val = 0;
-            for (int i = 0; i < numCoordinates; i++) {
+            for (int i = 0; i < flags.length; i++) {
                 byte flag = flags[i];
                 if ((shortVector & flag) > 0) {
-                    short sign = (short)Math.pow(-1,
-                                                 ~((flag & delta)
-                                                   >> (int)Math.sqrt(delta)));
-                    val += (buffer.get() & 0xFF) * sign;
+                    int d = buffer.get() & 0xFF;
+                    val += (delta & flag) > 0 ? d : -d;
                 }
-                else if ((delta & ~flag) > 0)
+                else if ((delta & flag) == 0)
                     val += buffer.getShort();
                 
                 coords[i] = val;
@@ -213,61 +394,97 @@ public abstract class Glyph {
         }
         
         byte[] getInstructions() {
+            byte[] instructions = new byte[instructionLength];
+            ByteBuffer source = buffer.duplicate();
+            source.position(instructionOffset);
+            source.get(instructions);
+            
             return instructions;
         }
         
+        /**
+         * @return The points and contours of this glyph, in FUnits.
+         */
+        public GlyphOutline getOutline() {
+            return outline;
+        }
+        
+        @Override
+        int footprint() {
+            return 64 + outline.footprint();
+        }
+        
         @Override
         public Path2D getPath() {
-            Path2D path = new Path2D.Float(Path2D.WIND_NON_ZERO);
-            
-            int point = 0;
-            for (int contour = 0; contour < endPoints.length; contour++) {
-                Coordinate start = coords[point],
-                           last = start;
-                
-                path.moveTo(start.x, start.y);
-                for (; point <= endPoints[contour]; point++) {
-                    Coordinate curr = coords[point];
-                    if (curr.onCurve()) {
-                        if (last.onCurve()) path.lineTo(curr.x,
-                                                        curr.y);
-                        else path.quadTo(last.x,
-                                         last.y,
-                                         curr.x,
-                                         curr.y);
-                    }
-                    else if (!last.onCurve())
-                        path.quadTo(last.x,
-                                    last.y,
-                                    (last.x + curr.x) / 2.d,
-                                    (last.y + curr.y) / 2.d);
-                    
-                    last = curr;
-                }
-                
-                path.closePath();
-            }
-            
-            return path;
+            return outline.getPath();
+        }
+        
+        @Override
+        public void decode(OutlineSink sink) {
+            outline.decode(sink);
+        }
+        
+        @Override
+        public void decode(OutlineSink sink, ContourEmitter emitter) {
+            outline.decode(sink, emitter);
         }
     }
     
+    /**
+     * A {@code CompositeGlyph} is a glyph which is assembled from other glyphs
+     * (its components), such as an accented letter which is made of a base
+     * letter and an accent. Each component may be scaled, reflected, rotated
+     * or skewed before it is placed, either at an offset or so that one of
+     * its points lies on a point of the components before it.
+     * 
+     * <p>
+     * The components are resolved through the glyph cache of the font when
+     * the composite is read through an {@code OTFFileReader}, so the base
+     * letter shared by a family of accented letters is only parsed once. The
+     * points of the components are transformed and joined into a single
+     * outline in FUnits, which is rounded to whole units as it is in a simple
+     * glyph.
+     * </p>
+     */
     public static class CompositeGlyph extends Glyph {
-        @SuppressWarnings("unused")
-        private static final short ARG_1_AND_2_ARE_WORDS = 1,
-                                   ARGS_ARE_XY_VALUES = 1 << 1,
-                                   ROUND_XY_TO_GRID = 1 << 2,
-                                   WE_HAVE_A_SCALE = 1 << 3,
-                                   MORE_COMPONENTS = 1 << 4,
-                                   WE_HAVE_AN_X_AND_Y_SCALE = 1 << 5,
-                                   WE_HAVE_A_TWO_BY_TWO = 1 << 6,
-                                   WE_HAVE_INSTRUCTIONS = 1 << 7,
-                                   USE_MY_METRICS = 1 << 8,
-                                   OVERLAP_COMPOUND = 1 << 9,
-                                   SCALED_COMPONENT_OFFSET = 1 << 10,
-                                   UNSCALED_COMPONENT_OFFSET = 1 << 11;
-        
-        private Path2D path;
+        /* package-private */ static final short ARG_1_AND_2_ARE_WORDS = 1,
+                                                ARGS_ARE_XY_VALUES = 1 << 1,
+                                                ROUND_XY_TO_GRID = 1 << 2,
+                                                WE_HAVE_A_SCALE = 1 << 3,
+                                                MORE_COMPONENTS = 1 << 5,
+                                                WE_HAVE_AN_X_AND_Y_SCALE
+                                                = 1 << 6,
+                                                WE_HAVE_A_TWO_BY_TWO = 1 << 7,
+                                                WE_HAVE_INSTRUCTIONS = 1 << 8,
+                                                USE_MY_METRICS = 1 << 9,
+                                                OVERLAP_COMPOUND = 1 << 10,
+                                                SCALED_COMPONENT_OFFSET
+                                                = 1 << 11,
+                                                UNSCALED_COMPONENT_OFFSET
+                                                = 1 << 12;
+        
+        /*
+         * The deepest nesting of composite glyphs which is followed. This
+         * guards against fonts in which a glyph is (indirectly) a component
+         * of itself.
+         */
+        private static final int MAX_DEPTH = 16;
+        
+        private final GlyphOutline outline;
+        private final int instructionOffset,
+                          instructionLength;
+        
+        /*
+         * The records of the components, which the hinter needs in order to
+         * place components after they have been hinted: the ID and flags of
+         * each component, its two arguments, and the four elements of its
+         * transformation.
+         */
+        private int[] components = new int[4],
+                      componentFlags = new int[4],
+                      componentArgs = new int[8];
+        private float[] componentTransforms = new float[16];
+        private int numComponents;
         
         public CompositeGlyph(ByteBuffer buffer,
                               int offset,
@@ -275,53 +492,384 @@ public abstract class Glyph {
                               short numContours,
                               Rectangle2D bounds,
                               AddressTranslator translator) {
+            this(buffer,
+                 offset,
+                 id,
+                 numContours,
+                 bounds,
+                 parser(buffer, translator),
+                 0);
+        }
+        
+        /**
+         * Reads the composite glyph whose component records begin at the
+         * position of the buffer.
+         * 
+         * @param components Resolves the glyph ID of each component.
+         * @param depth The number of composite glyphs which this glyph is
+         *              nested within.
+         * 
+         * @throws IllegalArgumentException If the components are nested too
+         *                                  deeply, or a component is matched
+         *                                  to a point which does not exist.
+         */
+        /* package-private */ CompositeGlyph(ByteBuffer buffer,
+                                             int offset,
+                                             int id,
+                                             short numContours,
+                                             Rectangle2D bounds,
+                                             ComponentResolver components,
+                                             int depth) {
             super(buffer, offset, id, numContours, bounds);
-            path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+            if (depth >= MAX_DEPTH)
+                throw new IllegalArgumentException("The components of the "
+                                                   + "glyph "
+                                                   + id
+                                                   + " are nested too "
+                                                   + "deeply.");
             
-            int flag,
-                gind,
-                arg1,
-                arg2,
-                caddr;
-            Glyph component;
-            AffineTransform at;
+            short[] xCoords = new short[64],
+                    yCoords = new short[64],
+                    endPoints = new short[8];
+            long[] onCurve = new long[1];
+            int numPoints = 0,
+                contours = 0,
+                flags;
             
             do {
-                flag = buffer.getShort();
-                gind = buffer.getShort();
-                caddr = translator.lookupId(gind);
-                System.out.println(Integer.toHexString(flag));
+                flags = buffer.getShort() & 0xFFFF;
+                int component = buffer.getShort() & 0xFFFF;
+                boolean xy = (flags & ARGS_ARE_XY_VALUES) > 0;
                 
-                if ((flag & ARG_1_AND_2_ARE_WORDS) > 0) {
+                /*
+                 * The arguments are signed offsets, or unsigned point numbers
+                 * when the component is placed by matching points.
+                 */
+                int arg1,
+                    arg2;
+                if ((flags & ARG_1_AND_2_ARE_WORDS) > 0) {
                     arg1 = buffer.getShort();
                     arg2 = buffer.getShort();
+                    if (!xy) {
+                        arg1 &= 0xFFFF;
+                        arg2 &= 0xFFFF;
+                    }
                 }
                 else {
                     arg1 = buffer.get();
                     arg2 = buffer.get();
+                    if (!xy) {
+                        arg1 &= 0xFF;
+                        arg2 &= 0xFF;
+                    }
                 }
                 
-                component = Glyph.createGlyph(buffer.duplicate(),
-                                              caddr,
-                                              id,
-                                              translator);
+                // The transformation is x' = a * x + c * y, y' = b * x + d * y.
+                float a = 1,
+                      b = 0,
+                      c = 0,
+                      d = 1;
+                if ((flags & WE_HAVE_A_SCALE) > 0)
+                    a = d = readF2Dot14(buffer);
+                else if ((flags & WE_HAVE_AN_X_AND_Y_SCALE) > 0) {
+                    a = readF2Dot14(buffer);
+                    d = readF2Dot14(buffer);
+                }
+                else if ((flags & WE_HAVE_A_TWO_BY_TWO) > 0) {
+                    a = readF2Dot14(buffer);
+                    b = readF2Dot14(buffer);
+                    c = readF2Dot14(buffer);
+                    d = readF2Dot14(buffer);
+                }
+                
+                addComponent(component, flags, arg1, arg2, a, b, c, d);
+                GlyphOutline part = getOutline(components.resolve(component,
+                                                                  depth
+                                                                  + 1));
+                int n = part.getPointCount(),
+                    total = numPoints + n;
+                if (total > xCoords.length) {
+                    int capacity = Math.max(2 * xCoords.length, total);
+                    xCoords = Arrays.copyOf(xCoords, capacity);
+                    yCoords = Arrays.copyOf(yCoords, capacity);
+                    onCurve = Arrays.copyOf(onCurve, capacity + 63 >> 6);
+                }
+                if (contours + part.getContourCount() > endPoints.length)
+                    endPoints = Arrays.copyOf(endPoints,
+                                              Math.max(2 * endPoints.length,
+                                                       contours
+                                                       + part
+                                                         .getContourCount()));
+                
+                for (int i = 0; i < n; i++) {
+                    int x = part.getX(i),
+                        y = part.getY(i);
+                    xCoords[numPoints + i] = (short)Math.round(a * x + c * y);
+                    yCoords[numPoints + i] = (short)Math.round(b * x + d * y);
+                    if (part.isOnCurve(i))
+                        onCurve[numPoints + i >> 6] |= 1L << numPoints + i;
+                }
                 
                 /*
-                 * The flags that should be ignored whenever parsing composite 
-                 * glyph data.
+                 * Offsets are applied after the transformation, and are only
+                 * transformed themselves when the font asks for it. Otherwise,
+                 * the component is moved so that its point (arg2) lies on the
+                 * point (arg1) of the components which came before it.
                  */
-                if ((flag & (WE_HAVE_A_SCALE
-                             | WE_HAVE_AN_X_AND_Y_SCALE
-                             | WE_HAVE_A_TWO_BY_TWO)) > 0)
-                    continue;
+                int dx,
+                    dy;
+                if (xy) {
+                    if ((flags & SCALED_COMPONENT_OFFSET) > 0
+                        && (flags & UNSCALED_COMPONENT_OFFSET) == 0) {
+                        dx = Math.round(a * arg1 + c * arg2);
+                        dy = Math.round(b * arg1 + d * arg2);
+                    }
+                    else {
+                        dx = arg1;
+                        dy = arg2;
+                    }
+                }
+                else {
+                    if (arg1 >= numPoints || arg2 >= n)
+                        throw new IllegalArgumentException("A component of "
+                                                           + "the glyph "
+                                                           + id
+                                                           + " is matched to "
+                                                           + "a point which "
+                                                           + "does not "
+                                                           + "exist.");
+                    
+                    dx = xCoords[arg1] - xCoords[numPoints + arg2];
+                    dy = yCoords[arg1] - yCoords[numPoints + arg2];
+                }
+                for (int i = numPoints; i < total; i++) {
+                    xCoords[i] += dx;
+                    yCoords[i] += dy;
+                }
                 
-                path.append(component.getPath(), false);
-            } while ((flag & MORE_COMPONENTS) > 0);
+                for (int i = 0; i < part.getContourCount(); i++)
+                    endPoints[contours++] = (short)(numPoints
+                                                    + part.getContourEnd(i));
+                numPoints = total;
+            } while ((flags & MORE_COMPONENTS) > 0);
+            
+            if ((flags & WE_HAVE_INSTRUCTIONS) > 0) {
+                instructionLength = buffer.getShort() & 0xFFFF;
+                instructionOffset = buffer.position();
+            }
+            else instructionLength = instructionOffset = 0;
+            
+            outline = new GlyphOutline(Arrays.copyOf(xCoords, numPoints),
+                                       Arrays.copyOf(yCoords, numPoints),
+                                       Arrays.copyOf(onCurve,
+                                                     numPoints + 63 >> 6),
+                                       Arrays.copyOf(endPoints, contours));
         }
-
+        
+        private void addComponent(int component,
+                                  int flags,
+                                  int arg1,
+                                  int arg2,
+                                  float a,
+                                  float b,
+                                  float c,
+                                  float d) {
+            if (numComponents == this.components.length) {
+                int capacity = 2 * numComponents;
+                this.components = Arrays.copyOf(this.components, capacity);
+                componentFlags = Arrays.copyOf(componentFlags, capacity);
+                componentArgs = Arrays.copyOf(componentArgs, 2 * capacity);
+                componentTransforms = Arrays.copyOf(componentTransforms,
+                                                    4 * capacity);
+            }
+            
+            int i = numComponents++;
+            this.components[i] = component;
+            componentFlags[i] = flags;
+            componentArgs[2 * i] = arg1;
+            componentArgs[2 * i + 1] = arg2;
+            componentTransforms[4 * i] = a;
+            componentTransforms[4 * i + 1] = b;
+            componentTransforms[4 * i + 2] = c;
+            componentTransforms[4 * i + 3] = d;
+        }
+        
+        /* package-private */ int getComponentCount() {
+            return numComponents;
+        }
+        
+        /* package-private */ int getComponent(int index) {
+            return components[index];
+        }
+        
+        /* package-private */ int getComponentFlags(int index) {
+            return componentFlags[index];
+        }
+        
+        /*
+         * Gets one of the two arguments of a component, which are its offset
+         * or the points which are matched to place it.
+         */
+        /* package-private */ int getComponentArgument(int index, int arg) {
+            return componentArgs[2 * index + arg];
+        }
+        
+        /*
+         * Gets an element of the transformation of a component, in the order
+         * a, b, c, d, where x' = a * x + c * y and y' = b * x + d * y.
+         */
+        /* package-private */ float getComponentTransform(int index,
+                                                          int element) {
+            return componentTransforms[4 * index + element];
+        }
+        
+        /*
+         * Resolves components by parsing them from the glyf table directly,
+         * for composites which are not read through a glyph cache.
+         */
+        private static ComponentResolver parser(ByteBuffer buffer,
+                                                AddressTranslator translator) {
+            return (component, depth) -> {
+                return createGlyph(buffer.duplicate(),
+                                   translator.lookupId(component),
+                                   component,
+                                   translator,
+                                   null,
+                                   depth);
+            };
+        }
+        
+        private static float readF2Dot14(ByteBuffer buffer) {
+            return buffer.getShort() / 16384f;
+        }
+        
+        private static GlyphOutline getOutline(Glyph component) {
+            if (component instanceof SimpleGlyph)
+                return ((SimpleGlyph)component).getOutline();
+            if (component instanceof CompositeGlyph)
+                return ((CompositeGlyph)component).getOutline();
+            
+            throw new IllegalArgumentException("The glyph "
+                                               + component.id
+                                               + " cannot be a component of "
+                                               + "a composite glyph.");
+        }
+        
+        byte[] getInstructions() {
+            byte[] instructions = new byte[instructionLength];
+            ByteBuffer source = buffer.duplicate();
+            source.position(instructionOffset);
+            source.get(instructions);
+            
+            return instructions;
+        }
+        
+        /**
+         * @return The points and contours of all of the components of this
+         *         glyph, transformed and placed, in FUnits.
+         */
+        public GlyphOutline getOutline() {
+            return outline;
+        }
+        
         @Override
         public Path2D getPath() {
+            return outline.getPath();
+        }
+        
+        @Override
+        public void decode(OutlineSink sink) {
+            outline.decode(sink);
+        }
+        
+        @Override
+        public void decode(OutlineSink sink, ContourEmitter emitter) {
+            outline.decode(sink, emitter);
+        }
+        
+        @Override
+        int footprint() {
+            return 64 + outline.footprint();
+        }
+    }
+    
+    /**
+     * A {@code CFFGlyph} is a glyph whose outline is drawn by a charstring in
+     * the <code>CFF</code> or <code>CFF2</code> table of a font, and so is
+     * made of cubic rather than quadratic curves. The charstring is run once
+     * when the glyph is created, and the outline it draws is kept as a path.
+     * Since charstrings do not record the bounds of their glyphs, the bounds
+     * are taken from the path.
+     * 
+     * @see CFFTable
+     */
+    public static final class CFFGlyph extends Glyph {
+        private final Path2D path;
+        private final int size;
+        
+        public CFFGlyph(CFFTable outlines, int id) {
+            this(outlines, id, draw(outlines, id));
+        }
+        
+        private CFFGlyph(CFFTable outlines, int id, Path2D path) {
+            super(outlines.getData(),
+                  outlines.getCharStrings().getStart(id),
+                  id,
+                  (short)0,
+                  path.getBounds2D());
+            this.path = path;
+            
+            int segments = 0;
+            for (PathIterator it = path.getPathIterator(null);
+                 !it.isDone();
+                 it.next())
+                segments++;
+            size = 16 * segments;
+        }
+        
+        private static Path2D draw(CFFTable outlines, int id) {
+            Path2D path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+            outlines.decode(id, OutlineSink.of(path));
+            
             return path;
         }
+        
+        @Override
+        public Path2D getPath() {
+            return new Path2D.Float(path);
+        }
+        
+        @Override
+        public void decode(OutlineSink sink) {
+            float[] coords = new float[6];
+            for (PathIterator it = path.getPathIterator(null);
+                 !it.isDone();
+                 it.next()) {
+                switch (it.currentSegment(coords)) {
+                case PathIterator.SEG_MOVETO:
+                    sink.moveTo(coords[0], coords[1]);
+                    break;
+                case PathIterator.SEG_LINETO:
+                    sink.lineTo(coords[0], coords[1]);
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    sink.curveTo(coords[0],
+                                 coords[1],
+                                 coords[2],
+                                 coords[3],
+                                 coords[4],
+                                 coords[5]);
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    sink.closePath();
+                    break;
+                }
+            }
+        }
+        
+        @Override
+        int footprint() {
+            return 64 + size;
+        }
     }
 }
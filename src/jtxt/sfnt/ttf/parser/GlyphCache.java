@@ -0,0 +1,172 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed {@code Glyph} outlines, keyed by the ID of the
+ * glyph in the font. The size of the cache is limited by an approximate
+ * memory budget rather than by a count of entries, since the outline of a
+ * complex ideograph may be many times larger than that of a Latin letter.
+ * Whenever the budget is exceeded, entries are evicted according to the
+ * policy this cache was constructed with.
+ * 
+ * <p>
+ * The cache is safe for use by multiple threads, though it is expected that
+ * most lookups will come from the thread which is rendering text.
+ * </p>
+ */
+public class GlyphCache {
+    /*
+     * The policies which may be used for determining which glyph should be
+     * evicted from the cache once the memory budget has been exceeded.
+     */
+    public static final int EVICT_LEAST_RECENTLY_USED = 0,
+                            EVICT_FIRST_IN_FIRST_OUT = 1;
+    
+    /**
+     * The budget which is used for a cache when none has been specified. This
+     * is enough to hold several thousand Latin glyphs.
+     */
+    public static final long DEFAULT_BUDGET = 4 * 1024 * 1024;
+    
+    private final Map<Integer, Glyph> glyphs;
+    private final long budget;
+    private long size,
+                 hits,
+                 misses,
+                 evictions;
+    
+    public GlyphCache() {
+        this(DEFAULT_BUDGET, EVICT_LEAST_RECENTLY_USED);
+    }
+    
+    /**
+     * Creates a new cache which will hold parsed glyphs until their combined
+     * (estimated) size exceeds the given budget.
+     * 
+     * @param budget The approximate number of bytes which the glyphs in this
+     *               cache may occupy. A budget of zero disables caching.
+     * @param policy The eviction policy, which is one of the
+     *               <code>EVICT_*</code> constants defined in this class.
+     */
+    public GlyphCache(long budget, int policy) {
+        if (budget < 0)
+            throw new IllegalArgumentException("The memory budget of a glyph "
+                                               + "cache cannot be negative.");
+        if (policy != EVICT_LEAST_RECENTLY_USED
+            && policy != EVICT_FIRST_IN_FIRST_OUT)
+            throw new IllegalArgumentException("Unknown eviction policy "
+                                               + policy);
+        
+        this.budget = budget;
+        glyphs = new LinkedHashMap<>(256,
+                                     0.75f,
+                                     policy == EVICT_LEAST_RECENTLY_USED);
+    }
+    
+    /**
+     * Gets the glyph with the given ID from this cache.
+     * 
+     * @param id The ID of the glyph, as determined by the character mapping.
+     * 
+     * @return The cached glyph, or <code>null</code> if the glyph has not been
+     *         parsed yet or has since been evicted.
+     */
+    public synchronized Glyph get(int id) {
+        Glyph glyph = glyphs.get(id);
+        if (glyph == null) misses++;
+        else hits++;
+        
+        return glyph;
+    }
+    
+    /**
+     * Places the glyph in this cache, evicting older entries if the memory
+     * budget would otherwise be exceeded. Glyphs which are larger than the
+     * entire budget are not cached.
+     * 
+     * @param glyph The glyph to add to the cache.
+     */
+    public synchronized void put(Glyph glyph) {
+        long footprint = glyph.footprint();
+        if (footprint > budget) return;
+        
+        Glyph previous = glyphs.put(glyph.id, glyph);
+        if (previous != null) size -= previous.footprint();
+        size += footprint;
+        
+        Iterator<Glyph> it = glyphs.values().iterator();
+        while (size > budget && it.hasNext()) {
+            Glyph eldest = it.next();
+            if (eldest == glyph) continue;
+            
+            size -= eldest.footprint();
+            evictions++;
+            it.remove();
+        }
+    }
+    
+    /**
+     * Removes all of the glyphs from this cache. The hit and miss counters are
+     * left untouched.
+     */
+    public synchronized void clear() {
+        glyphs.clear();
+        size = 0;
+    }
+    
+    public synchronized long getHitCount() {
+        return hits;
+    }
+    
+    public synchronized long getMissCount() {
+        return misses;
+    }
+    
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+    
+    /**
+     * @return The estimated number of bytes occupied by the glyphs which are
+     *         currently held in this cache.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+    
+    public long getBudget() {
+        return budget;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        String fmt = "GlyphCache: [glyphs=%d, size=%d, budget=%d, hits=%d, "
+                     + "misses=%d, evictions=%d]%n";
+        
+        return String.format(fmt,
+                             glyphs.size(),
+                             size,
+                             budget,
+                             hits,
+                             misses,
+                             evictions);
+    }
+}
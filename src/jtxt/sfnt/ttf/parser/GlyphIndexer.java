@@ -33,4 +33,39 @@ public interface GlyphIndexer {
      *         not contained within this mapping.
      */
     int getGlyphId(int character);
+    
+    /**
+     * Finds the IDs of the glyphs for a range of text, combining surrogate
+     * pairs into a single code point. Unpaired surrogates are looked up as
+     * they are, which maps them to the <code>.notdef</code> glyph in any
+     * well-formed font.
+     * 
+     * @param text The text to map.
+     * @param start The index of the first character to map.
+     * @param end The index after the last character to map.
+     * @param out The array which receives the glyph IDs, starting at index
+     *            zero.
+     * 
+     * @return The number of glyph IDs written to the array.
+     */
+    default int getGlyphIds(CharSequence text,
+                            int start,
+                            int end,
+                            int[] out) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            int codePoint = text.charAt(i);
+            if (Character.isHighSurrogate((char)codePoint) && i + 1 < end) {
+                char low = text.charAt(i + 1);
+                if (Character.isLowSurrogate(low)) {
+                    codePoint = Character.toCodePoint((char)codePoint, low);
+                    i++;
+                }
+            }
+            
+            out[count++] = getGlyphId(codePoint);
+        }
+        
+        return count;
+    }
 }
\ No newline at end of file
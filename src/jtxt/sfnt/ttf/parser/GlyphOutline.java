@@ -0,0 +1,152 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.awt.geom.Path2D;
+
+/**
+ * The points and contours of a TrueType outline, stored in flat primitive
+ * arrays rather than as an object for each point. The coordinates of each
+ * point are kept in FUnits, whether the point is on or off the curve is kept
+ * in a bit mask, and each contour is described by the index of its last
+ * point, just as they are stored in the <code>glyf</code> table.
+ * 
+ * <p>
+ * An outline is immutable once it has been constructed, so it may be freely
+ * shared between threads and held in a cache.
+ * </p>
+ */
+public final class GlyphOutline {
+    /**
+     * An outline without any contours, such as the outline of a space.
+     */
+    public static final GlyphOutline EMPTY = new GlyphOutline(new short[0],
+                                                              new short[0],
+                                                              new long[0],
+                                                              new short[0]);
+    
+    private final short[] xCoordinates,
+                          yCoordinates,
+                          endPoints;
+    private final long[] onCurve;
+    
+    /**
+     * Constructs an outline from its packed representation. The arrays are
+     * not copied.
+     * 
+     * @param xCoordinates The absolute x-coordinate of each point.
+     * @param yCoordinates The absolute y-coordinate of each point.
+     * @param onCurve A bit mask where bit <code>i % 64</code> of element
+     *                <code>i / 64</code> is set when point <code>i</code> is
+     *                on the curve.
+     * @param endPoints The index of the last point of each contour.
+     */
+    /* package-private */ GlyphOutline(short[] xCoordinates,
+                                       short[] yCoordinates,
+                                       long[] onCurve,
+                                       short[] endPoints) {
+        this.xCoordinates = xCoordinates;
+        this.yCoordinates = yCoordinates;
+        this.onCurve = onCurve;
+        this.endPoints = endPoints;
+    }
+    
+    public int getPointCount() {
+        return xCoordinates.length;
+    }
+    
+    public int getContourCount() {
+        return endPoints.length;
+    }
+    
+    /**
+     * @param contour The index of the contour.
+     * 
+     * @return The index of the last point in the given contour.
+     */
+    public int getContourEnd(int contour) {
+        return endPoints[contour] & 0xFFFF;
+    }
+    
+    public int getX(int point) {
+        return xCoordinates[point];
+    }
+    
+    public int getY(int point) {
+        return yCoordinates[point];
+    }
+    
+    public boolean isOnCurve(int point) {
+        return (onCurve[point >> 6] & 1L << point) != 0;
+    }
+    
+    /**
+     * Builds the outline as a path in FUnits. Contours which begin with a
+     * point that is off the curve are started from the next on-curve point,
+     * which is implied if the second point is also off the curve.
+     * 
+     * @return A new path containing this outline.
+     */
+    public Path2D getPath() {
+        Path2D path = new Path2D.Float(Path2D.WIND_NON_ZERO,
+                                       getPointCount() + 2 * getContourCount());
+        decode(OutlineSink.of(path));
+        
+        return path;
+    }
+    
+    /**
+     * Passes each segment of this outline, in FUnits, to the given sink.
+     * 
+     * @param sink The sink which receives the outline.
+     */
+    public void decode(OutlineSink sink) {
+        decode(sink, new ContourEmitter());
+    }
+    
+    /**
+     * Passes each segment of this outline, in FUnits, to the given sink,
+     * using an emitter which is reused for each outline.
+     * 
+     * @param sink The sink which receives the outline.
+     * @param emitter The emitter which converts the points of the outline
+     *                into segments.
+     */
+    public void decode(OutlineSink sink, ContourEmitter emitter) {
+        emitter.setSink(sink);
+        
+        int point = 0;
+        for (int contour = 0; contour < endPoints.length; contour++) {
+            int end = getContourEnd(contour);
+            emitter.beginContour();
+            for (; point <= end; point++)
+                emitter.addPoint(xCoordinates[point],
+                                 yCoordinates[point],
+                                 isOnCurve(point));
+            emitter.endContour();
+        }
+    }
+    
+    /**
+     * @return The approximate number of bytes occupied by this outline.
+     */
+    /* package-private */ int footprint() {
+        return 4 * 16
+               + 4 * xCoordinates.length
+               + 8 * onCurve.length
+               + 2 * endPoints.length;
+    }
+}
@@ -0,0 +1,191 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * The outline of a glyph after its instructions have been executed at a
+ * particular size, with the coordinates of its points in 26.6 fixed point
+ * pixels (64 units to a pixel) rather than in FUnits. The y-axis points up,
+ * as it does in the font, and the origin is the hinted position of the left
+ * side bearing point of the glyph, so the outline is drawn relative to the
+ * pen position just as an unhinted outline is.
+ * 
+ * <p>
+ * An outline is immutable once it has been constructed, so it may be freely
+ * shared between threads and held in a cache.
+ * </p>
+ */
+public final class HintedOutline {
+    private final int[] xCoordinates,
+                        yCoordinates,
+                        endPoints;
+    private final long[] onCurve;
+    private final int origin,
+                      advance;
+    
+    /**
+     * Constructs an outline from its packed representation. The arrays are
+     * not copied.
+     * 
+     * @param xCoordinates The x-coordinate of each point, in 26.6 pixels,
+     *                     before the origin is subtracted.
+     * @param yCoordinates The y-coordinate of each point, in 26.6 pixels.
+     * @param onCurve A bit mask where bit <code>i % 64</code> of element
+     *                <code>i / 64</code> is set when point <code>i</code> is
+     *                on the curve.
+     * @param endPoints The index of the last point of each contour.
+     * @param origin The hinted x-coordinate of the left side bearing point.
+     * @param advance The hinted advance width, in 26.6 pixels.
+     */
+    /* package-private */ HintedOutline(int[] xCoordinates,
+                                        int[] yCoordinates,
+                                        long[] onCurve,
+                                        int[] endPoints,
+                                        int origin,
+                                        int advance) {
+        this.xCoordinates = xCoordinates;
+        this.yCoordinates = yCoordinates;
+        this.onCurve = onCurve;
+        this.endPoints = endPoints;
+        this.origin = origin;
+        this.advance = advance;
+    }
+    
+    public int getPointCount() {
+        return xCoordinates.length;
+    }
+    
+    public int getContourCount() {
+        return endPoints.length;
+    }
+    
+    /**
+     * @param contour The index of the contour.
+     * 
+     * @return The index of the last point in the given contour.
+     */
+    public int getContourEnd(int contour) {
+        return endPoints[contour];
+    }
+    
+    /**
+     * @param point The index of the point.
+     * 
+     * @return The x-coordinate of the point relative to the origin of the
+     *         glyph, in 26.6 pixels.
+     */
+    public int getX(int point) {
+        return xCoordinates[point] - origin;
+    }
+    
+    /**
+     * @param point The index of the point.
+     * 
+     * @return The y-coordinate of the point relative to the baseline, in
+     *         26.6 pixels.
+     */
+    public int getY(int point) {
+        return yCoordinates[point];
+    }
+    
+    public boolean isOnCurve(int point) {
+        return (onCurve[point >> 6] & 1L << point) != 0;
+    }
+    
+    /**
+     * @return The advance width of the glyph after hinting, in 26.6 pixels.
+     */
+    public int getAdvance() {
+        return advance;
+    }
+    
+    /**
+     * @return The smallest rectangle which contains every point of this
+     *         outline, in pixels, or an empty rectangle if the outline has
+     *         no points.
+     */
+    public Rectangle2D getBounds() {
+        if (xCoordinates.length == 0) return new Rectangle2D.Float();
+        
+        int xMin = Integer.MAX_VALUE,
+            yMin = Integer.MAX_VALUE,
+            xMax = Integer.MIN_VALUE,
+            yMax = Integer.MIN_VALUE;
+        for (int i = 0; i < xCoordinates.length; i++) {
+            xMin = Math.min(xMin, xCoordinates[i]);
+            xMax = Math.max(xMax, xCoordinates[i]);
+            yMin = Math.min(yMin, yCoordinates[i]);
+            yMax = Math.max(yMax, yCoordinates[i]);
+        }
+        
+        return new Rectangle2D.Float((xMin - origin) / 64f,
+                                     yMin / 64f,
+                                     (xMax - xMin) / 64f,
+                                     (yMax - yMin) / 64f);
+    }
+    
+    /**
+     * Passes each segment of this outline, in pixels relative to the origin
+     * of the glyph, to the given sink.
+     * 
+     * @param sink The sink which receives the outline.
+     */
+    public void decode(OutlineSink sink) {
+        decode(sink, new ContourEmitter());
+    }
+    
+    /**
+     * Passes each segment of this outline to the given sink, using an
+     * emitter which is reused for each outline.
+     * 
+     * @param sink The sink which receives the outline.
+     * @param emitter The emitter which converts the points of the outline
+     *                into segments.
+     */
+    public void decode(OutlineSink sink, ContourEmitter emitter) {
+        emitter.setSink(sink);
+        
+        int point = 0;
+        for (int contour = 0; contour < endPoints.length; contour++) {
+            emitter.beginContour();
+            for (; point <= endPoints[contour]; point++)
+                emitter.addPoint((xCoordinates[point] - origin) / 64f,
+                                 yCoordinates[point] / 64f,
+                                 isOnCurve(point));
+            emitter.endContour();
+        }
+    }
+    
+    /*
+     * Gets the x-coordinate of a point before the origin is subtracted, which
+     * is how the points of components are placed within a composite glyph.
+     */
+    /* package-private */ int getUnshiftedX(int point) {
+        return xCoordinates[point];
+    }
+    
+    /**
+     * @return The approximate number of bytes occupied by this outline.
+     */
+    /* package-private */ int footprint() {
+        return 4 * 16
+               + 8 * xCoordinates.length
+               + 8 * onCurve.length
+               + 4 * endPoints.length;
+    }
+}
@@ -0,0 +1,518 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jtxt.sfnt.ttf.parser.BytecodeInterpreter.Definitions;
+import jtxt.sfnt.ttf.parser.BytecodeInterpreter.GraphicsState;
+import jtxt.sfnt.ttf.parser.BytecodeInterpreter.Zone;
+import jtxt.sfnt.ttf.parser.Glyph.CompositeGlyph;
+import jtxt.sfnt.ttf.parser.Glyph.SimpleGlyph;
+
+/**
+ * Grid-fits the TrueType outlines of a font by executing its instructions.
+ * Each of the programs of a font is run no more often than it has to be:
+ * 
+ * <ul>
+ * <li>The font program (<code>fpgm</code>), which only defines functions, is
+ * run once when the hinter is created.</li>
+ * <li>The control value program (<code>prep</code>) is run once for each
+ * size, and the control value table it leaves behind, along with the storage
+ * area, graphics state and any functions it defines, is kept for that
+ * size.</li>
+ * <li>The program of each glyph is run once for each size, and the hinted
+ * outline is kept in a cache keyed by the ID of the glyph and the size.</li>
+ * </ul>
+ * 
+ * <p>
+ * Sizes are given as the size of the em square in 26.6 fixed point pixels.
+ * A glyph whose instructions fail, or any glyph at a size whose control value
+ * program fails, is scaled to that size without being hinted, so an invalid
+ * program never prevents a glyph from being drawn.
+ * </p>
+ * 
+ * <p>
+ * A hinter is safe for use by multiple threads. Each program is run by its
+ * own interpreter, on copies of the state which is kept for its size.
+ * </p>
+ */
+public class Hinter {
+    /**
+     * The budget which is used for the cache of hinted outlines when none has
+     * been specified.
+     */
+    public static final long DEFAULT_BUDGET = 2 * 1024 * 1024;
+    
+    /*
+     * The deepest nesting of composite glyphs which is followed, which
+     * matches the limit used when composite glyphs are parsed.
+     */
+    private static final int MAX_DEPTH = 16;
+    
+    // Additional room on the stack for fonts which understate their needs.
+    private static final int STACK_MARGIN = 32;
+    
+    /*
+     * The number of sizes whose control value program state is kept. Sizes
+     * are requested in 26.6 units, so a view which zooms through fractional
+     * sizes would otherwise keep the state of every size it passed through.
+     */
+    private static final int SIZE_CACHE_CAPACITY = 16;
+    
+    private final OTFFileReader font;
+    private final byte[] controlValueProgram;
+    private final short[] controlValues;
+    private final int unitsPerEm,
+                      stackSize,
+                      storageSize,
+                      twilightPoints;
+    
+    /*
+     * The definitions made by the font program, or null if the font program
+     * failed, in which case no glyph is hinted at all.
+     */
+    private final Definitions definitions;
+    
+    private final Map<Integer, Size> sizes;
+    private final Map<Long, HintedOutline> outlines;
+    private final long budget;
+    private long footprint;
+    
+    /**
+     * The state which the control value program leaves behind at one size.
+     */
+    private static final class Size {
+        final int[] cvt,
+                    storage;
+        final Definitions definitions;
+        final GraphicsState state;
+        final boolean hinted;
+        
+        Size(int[] cvt,
+             int[] storage,
+             Definitions definitions,
+             GraphicsState state,
+             boolean hinted) {
+            this.cvt = cvt;
+            this.storage = storage;
+            this.definitions = definitions;
+            this.state = state;
+            this.hinted = hinted;
+        }
+    }
+    
+    public Hinter(OTFFileReader font) {
+        this(font, DEFAULT_BUDGET);
+    }
+    
+    /**
+     * Creates a hinter for the given font and runs its font program.
+     * 
+     * @param font The font, which must have TrueType outlines.
+     * @param budget The approximate number of bytes which the cached hinted
+     *               outlines may occupy.
+     */
+    public Hinter(OTFFileReader font, long budget) {
+        if (font.getCFFTable() != null)
+            throw new IllegalArgumentException("Only TrueType outlines can be "
+                                               + "hinted.");
+        if (budget < 0)
+            throw new IllegalArgumentException("The memory budget of a hinter "
+                                               + "cannot be negative.");
+        
+        this.font = font;
+        this.budget = budget;
+        unitsPerEm = font.getUPEM();
+        outlines = new LinkedHashMap<>(256, 0.75f, true);
+        sizes = new LinkedHashMap<Integer, Size>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Size> e) {
+                return size() > SIZE_CACHE_CAPACITY;
+            }
+        };
+        
+        byte[] fontProgram = readTable(font, OTFFileReader.fpgm);
+        controlValueProgram = readTable(font, OTFFileReader.prep);
+        ByteBuffer cvt = font.hasTable(OTFFileReader.cvt)
+                         ? font.getBufferForTable(OTFFileReader.cvt)
+                         : ByteBuffer.allocate(0);
+        controlValues = new short[cvt.limit() / 2];
+        for (int i = 0; i < controlValues.length; i++)
+            controlValues[i] = cvt.getShort(2 * i);
+        
+        // Version 1.0 of the maxp table describes the needs of the programs.
+        ByteBuffer maxp = font.getBufferForTable(OTFFileReader.maxp);
+        boolean limits = maxp.getInt(0) == 0x00010000 && maxp.limit() >= 32;
+        twilightPoints = limits ? maxp.getShort(16) & 0xFFFF : 0;
+        storageSize = limits ? maxp.getShort(18) & 0xFFFF : 0;
+        int functions = limits ? maxp.getShort(20) & 0xFFFF : 0;
+        stackSize = (limits ? maxp.getShort(24) & 0xFFFF : 256)
+                    + STACK_MARGIN;
+        
+        Definitions definitions = new Definitions(functions);
+        try {
+            new BytecodeInterpreter(stackSize,
+                                    twilightPoints,
+                                    new int[storageSize],
+                                    new int[0],
+                                    definitions,
+                                    0,
+                                    unitsPerEm,
+                                    true).run(fontProgram,
+                                              new GraphicsState(),
+                                              new Zone(0, new int[0]));
+        }
+        catch (IllegalArgumentException iae) {
+            definitions = null;
+        }
+        this.definitions = definitions;
+    }
+    
+    private static byte[] readTable(OTFFileReader font, int tag) {
+        if (!font.hasTable(tag)) return new byte[0];
+        
+        ByteBuffer table = font.getBufferForTable(tag);
+        byte[] data = new byte[table.limit()];
+        table.get(data);
+        
+        return data;
+    }
+    
+    /**
+     * Gets the outline of a glyph, hinted at the given size. The outline is
+     * taken from the cache of this hinter if the glyph has already been
+     * hinted at the same size.
+     * 
+     * @param id The ID of the glyph.
+     * @param pixelSize The size of the em square, in 26.6 pixels.
+     * 
+     * @return The hinted outline of the glyph.
+     */
+    public HintedOutline getHintedOutline(int id, int pixelSize) {
+        return getHintedOutline(id, pixelSize, 0);
+    }
+    
+    private HintedOutline getHintedOutline(int id, int pixelSize, int depth) {
+        if (pixelSize <= 0)
+            throw new IllegalArgumentException("The size of the em square "
+                                               + "must be positive.");
+        if (depth > MAX_DEPTH)
+            throw new IllegalArgumentException("The components of the glyph "
+                                               + id
+                                               + " are nested too deeply.");
+        
+        long key = (long)pixelSize << 32 | id & 0xFFFFFFFFL;
+        synchronized (outlines) {
+            HintedOutline outline = outlines.get(key);
+            if (outline != null) return outline;
+        }
+        
+        /*
+         * The glyph is hinted without holding the lock, so two threads may
+         * occasionally hint the same glyph, but neither blocks the other.
+         */
+        HintedOutline outline = hint(id, pixelSize, depth);
+        synchronized (outlines) {
+            if (outlines.putIfAbsent(key, outline) == null) {
+                footprint += outline.footprint();
+                Iterator<HintedOutline> eldest = outlines.values().iterator();
+                while (footprint > budget && eldest.hasNext()) {
+                    footprint -= eldest.next().footprint();
+                    eldest.remove();
+                }
+            }
+        }
+        
+        return outline;
+    }
+    
+    /*
+     * Gets the state of the given size, running the control value program
+     * the first time that the size is requested. Only the most recently used
+     * sizes are kept, and an evicted size is prepared again when it is next
+     * requested.
+     */
+    private Size getSize(int pixelSize) {
+        synchronized (sizes) {
+            Size size = sizes.get(pixelSize);
+            if (size == null) {
+                size = runControlValueProgram(pixelSize);
+                sizes.put(pixelSize, size);
+            }
+            
+            return size;
+        }
+    }
+    
+    private Size runControlValueProgram(int pixelSize) {
+        double scale = (double)pixelSize / unitsPerEm;
+        int[] cvt = new int[controlValues.length];
+        for (int i = 0; i < cvt.length; i++)
+            cvt[i] = BytecodeInterpreter.scale(controlValues[i], scale);
+        int[] storage = new int[storageSize];
+        GraphicsState state = new GraphicsState();
+        if (definitions == null)
+            return new Size(cvt, storage, null, state, false);
+        
+        Definitions sizeDefinitions = definitions.copy();
+        try {
+            new BytecodeInterpreter(stackSize,
+                                    twilightPoints,
+                                    storage,
+                                    cvt,
+                                    sizeDefinitions,
+                                    pixelSize,
+                                    unitsPerEm,
+                                    true).run(controlValueProgram,
+                                              state,
+                                              new Zone(0, new int[0]));
+        }
+        catch (IllegalArgumentException iae) {
+            return new Size(cvt, storage, sizeDefinitions, state, false);
+        }
+        
+        /*
+         * The control value program may ask for its changes to the graphics
+         * state to be discarded, in which case only the instruction control
+         * state itself is kept.
+         */
+        if (state.isDefaultStateRequired()) {
+            GraphicsState defaults = new GraphicsState();
+            defaults.instructControl = state.instructControl;
+            state = defaults;
+        }
+        
+        return new Size(cvt,
+                        storage,
+                        sizeDefinitions,
+                        state,
+                        !state.isGlyphHintingDisabled());
+    }
+    
+    private HintedOutline hint(int id, int pixelSize, int depth) {
+        Glyph glyph = font.getGlyphById(id);
+        double scale = (double)pixelSize / unitsPerEm;
+        Metrics.HMetricProvider metrics = font.getHorizontalMetrics();
+        
+        Zone zone;
+        byte[] instructions;
+        int points;
+        if (glyph instanceof CompositeGlyph) {
+            CompositeGlyph composite = (CompositeGlyph)glyph;
+            zone = assemble(composite, pixelSize, depth);
+            points = zone.size() - 4;
+            instructions = composite.getInstructions();
+            
+            /*
+             * The original outline of a composite glyph is made up of its
+             * hinted components.
+             */
+            System.arraycopy(zone.curX, 0, zone.orgX, 0, points);
+            System.arraycopy(zone.curY, 0, zone.orgY, 0, points);
+        }
+        else {
+            GlyphOutline outline = ((SimpleGlyph)glyph).getOutline();
+            points = outline.getPointCount();
+            int[] ends = new int[outline.getContourCount()];
+            for (int i = 0; i < ends.length; i++)
+                ends[i] = outline.getContourEnd(i);
+            
+            zone = new Zone(points + 4, ends);
+            for (int i = 0; i < points; i++) {
+                zone.orgX[i] = BytecodeInterpreter.scale(outline.getX(i),
+                                                         scale);
+                zone.orgY[i] = BytecodeInterpreter.scale(outline.getY(i),
+                                                         scale);
+                if (outline.isOnCurve(i))
+                    zone.flags[i] = BytecodeInterpreter.ON_CURVE;
+            }
+            System.arraycopy(zone.orgX, 0, zone.curX, 0, points);
+            System.arraycopy(zone.orgY, 0, zone.curY, 0, points);
+            instructions = ((SimpleGlyph)glyph).getInstructions();
+        }
+        
+        /*
+         * The four phantom points follow the points of the outline: the left
+         * side bearing point, the advance width point, and the top and bottom
+         * of the line. Their current positions are rounded to the grid before
+         * the instructions are run.
+         */
+        int origin = (int)glyph.getBounds().getX()
+                     - metrics.getLeftSideBearing(id);
+        int[] phantomX = { BytecodeInterpreter.scale(origin, scale),
+                           BytecodeInterpreter.scale(origin
+                                                     + metrics
+                                                       .getAdvanceWidth(id),
+                                                     scale),
+                           0,
+                           0 },
+              phantomY = { 0,
+                           0,
+                           BytecodeInterpreter.scale(metrics.getAscender(),
+                                                     scale),
+                           BytecodeInterpreter.scale(metrics.getDescender(),
+                                                     scale) };
+        for (int i = 0; i < 4; i++) {
+            zone.orgX[points + i] = phantomX[i];
+            zone.orgY[points + i] = phantomY[i];
+            zone.curX[points + i] = phantomX[i] + 32 & -64;
+            zone.curY[points + i] = phantomY[i] + 32 & -64;
+        }
+        
+        Size size = getSize(pixelSize);
+        if (size.hinted && instructions.length > 0) {
+            Zone hinted = copy(zone);
+            try {
+                new BytecodeInterpreter(stackSize,
+                                        twilightPoints,
+                                        size.storage.clone(),
+                                        size.cvt.clone(),
+                                        size.definitions.copy(),
+                                        pixelSize,
+                                        unitsPerEm,
+                                        false).run(instructions,
+                                                   size.state.copy(),
+                                                   hinted);
+                zone = hinted;
+            }
+            catch (IllegalArgumentException iae) {
+                // The glyph is left as it was scaled.
+            }
+        }
+        
+        long[] onCurve = new long[(points + 63) / 64];
+        for (int i = 0; i < points; i++)
+            if ((zone.flags[i] & BytecodeInterpreter.ON_CURVE) != 0)
+                onCurve[i >> 6] |= 1L << i;
+        
+        return new HintedOutline(Arrays.copyOf(zone.curX, points),
+                                 Arrays.copyOf(zone.curY, points),
+                                 onCurve,
+                                 zone.contourEnds,
+                                 zone.curX[points],
+                                 zone.curX[points + 1] - zone.curX[points]);
+    }
+    
+    private static Zone copy(Zone zone) {
+        Zone copy = new Zone(zone.size(), zone.contourEnds);
+        System.arraycopy(zone.orgX, 0, copy.orgX, 0, zone.size());
+        System.arraycopy(zone.orgY, 0, copy.orgY, 0, zone.size());
+        System.arraycopy(zone.curX, 0, copy.curX, 0, zone.size());
+        System.arraycopy(zone.curY, 0, copy.curY, 0, zone.size());
+        System.arraycopy(zone.flags, 0, copy.flags, 0, zone.size());
+        
+        return copy;
+    }
+    
+    /*
+     * Places the hinted outlines of the components of a composite glyph,
+     * returning a zone with room for the phantom points of the composite.
+     */
+    private Zone assemble(CompositeGlyph composite, int pixelSize, int depth) {
+        double scale = (double)pixelSize / unitsPerEm;
+        int[] x = new int[64],
+              y = new int[64],
+              ends = new int[8];
+        byte[] flags = new byte[64];
+        int points = 0,
+            contours = 0;
+        
+        for (int i = 0; i < composite.getComponentCount(); i++) {
+            HintedOutline part = getHintedOutline(composite.getComponent(i),
+                                                  pixelSize,
+                                                  depth + 1);
+            int componentFlags = composite.getComponentFlags(i);
+            float a = composite.getComponentTransform(i, 0),
+                  b = composite.getComponentTransform(i, 1),
+                  c = composite.getComponentTransform(i, 2),
+                  d = composite.getComponentTransform(i, 3);
+            boolean transformed = a != 1 || b != 0 || c != 0 || d != 1;
+            
+            int base = points,
+                count = part.getPointCount();
+            if (points + count + 4 > x.length) {
+                int capacity = Math.max(2 * x.length, points + count + 4);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+            }
+            for (int p = 0; p < count; p++, points++) {
+                int px = part.getUnshiftedX(p),
+                    py = part.getY(p);
+                x[points] = transformed ? Math.round(a * px + c * py) : px;
+                y[points] = transformed ? Math.round(b * px + d * py) : py;
+                flags[points] = part.isOnCurve(p)
+                                ? BytecodeInterpreter.ON_CURVE
+                                : 0;
+            }
+            
+            int arg1 = composite.getComponentArgument(i, 0),
+                arg2 = composite.getComponentArgument(i, 1),
+                dx,
+                dy;
+            if ((componentFlags & CompositeGlyph.ARGS_ARE_XY_VALUES) != 0) {
+                float ox = arg1,
+                      oy = arg2;
+                if ((componentFlags
+                     & CompositeGlyph.SCALED_COMPONENT_OFFSET) != 0
+                    && (componentFlags
+                        & CompositeGlyph.UNSCALED_COMPONENT_OFFSET) == 0) {
+                    ox = a * arg1 + c * arg2;
+                    oy = b * arg1 + d * arg2;
+                }
+                dx = (int)Math.round(ox * scale);
+                dy = (int)Math.round(oy * scale);
+                if ((componentFlags & CompositeGlyph.ROUND_XY_TO_GRID) != 0) {
+                    dx = dx + 32 & -64;
+                    dy = dy + 32 & -64;
+                }
+            }
+            else {
+                if (arg1 >= base || arg2 >= count)
+                    throw new IllegalArgumentException("The points matched "
+                                                       + "by a component are "
+                                                       + "out of range.");
+                
+                dx = x[arg1] - x[base + arg2];
+                dy = y[arg1] - y[base + arg2];
+            }
+            for (int p = base; p < points; p++) {
+                x[p] += dx;
+                y[p] += dy;
+            }
+            
+            for (int contour = 0; contour < part.getContourCount(); contour++) {
+                if (contours == ends.length)
+                    ends = Arrays.copyOf(ends, 2 * contours);
+                ends[contours++] = base + part.getContourEnd(contour);
+            }
+        }
+        
+        Zone zone = new Zone(points + 4, Arrays.copyOf(ends, contours));
+        System.arraycopy(x, 0, zone.curX, 0, points);
+        System.arraycopy(y, 0, zone.curY, 0, points);
+        System.arraycopy(flags, 0, zone.flags, 0, points);
+        
+        return zone;
+    }
+}
@@ -0,0 +1,436 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Provides the kerning adjustment between pairs of glyphs. Kerning is read
+ * from the pair adjustment lookups (lookup type 2) of the <code>kern</code>
+ * feature in the <code>GPOS</code> table when the font has one, and from the
+ * format 0 subtables of the legacy <code>kern</code> table otherwise.
+ * 
+ * <p>
+ * Subtables are searched directly in the font data, using binary searches
+ * over coverage tables, class definitions and pair records. Since text tends
+ * to repeat the same pairs many times, the result for each pair is kept in a
+ * small cache keyed by the pair of glyph IDs, so that the lookup subtables
+ * are only walked the first time a pair is seen.
+ * </p>
+ */
+public class KerningTable {
+    /**
+     * A kerning table for fonts which define no kerning at all.
+     */
+    public static final KerningTable NONE = new KerningTable();
+    
+    private static final int KERN_FEATURE = 0x6B_65_72_6E;
+    
+    private static final int PAIR_ADJUSTMENT = 2,
+                             EXTENSION = 9;
+    
+    // Bits of the ValueFormat of a pair adjustment subtable.
+    private static final int X_PLACEMENT = 1,
+                             Y_PLACEMENT = 1 << 1,
+                             X_ADVANCE = 1 << 2;
+    
+    // Bits of the coverage field of a subtable in the kern table.
+    private static final int KERN_HORIZONTAL = 1,
+                              KERN_MINIMUM = 1 << 1,
+                              KERN_CROSS_STREAM = 1 << 2;
+    
+    /*
+     * The number of pairs which may be held in the cache. The cache is
+     * cleared whenever it becomes half full, which keeps the probe sequences
+     * short without tracking the age of each entry.
+     */
+    private static final int CACHE_CAPACITY = 4096;
+    
+    private final ByteBuffer buffer;
+    /*
+     * The absolute offsets of the subtables to search: pair adjustment
+     * subtables if the kerning comes from GPOS, or format 0 kern subtables.
+     */
+    private final int[] subtables,
+                        lookups;
+    private final boolean gpos;
+    
+    /*
+     * The cache of previously computed adjustments. Each slot packs a flag
+     * marking it as used, the pair of glyph IDs, and the adjustment itself
+     * into a single long.
+     */
+    private final long[] cache = new long[CACHE_CAPACITY];
+    private int cached;
+    
+    private KerningTable() {
+        buffer = null;
+        subtables = lookups = new int[0];
+        gpos = false;
+    }
+    
+    /*
+     * The lookups array holds the index of the lookup which each subtable
+     * belongs to, since only the first matching subtable of a lookup applies.
+     */
+    private KerningTable(ByteBuffer buffer,
+                         int[] subtables,
+                         int[] lookups,
+                         boolean gpos) {
+        this.buffer = buffer;
+        this.subtables = subtables;
+        this.lookups = lookups;
+        this.gpos = gpos;
+    }
+    
+    /**
+     * Reads the kerning for a font. Either table may be absent, in which
+     * case <code>null</code> should be passed in its place.
+     * 
+     * @param gpos A buffer positioned at the <code>GPOS</code> table.
+     * @param kern A buffer positioned at the <code>kern</code> table.
+     * 
+     * @return The kerning of the font, which is {@link #NONE} if neither of
+     *         the tables defines any horizontal kerning.
+     */
+    public static KerningTable create(ByteBuffer gpos, ByteBuffer kern) {
+        if (gpos != null) {
+            int[][] subtables = findPairAdjustments(gpos);
+            if (subtables[0].length > 0)
+                return new KerningTable(gpos,
+                                        subtables[0],
+                                        subtables[1],
+                                        true);
+        }
+        
+        if (kern != null) {
+            int[] subtables = findKernPairs(kern);
+            if (subtables.length > 0)
+                return new KerningTable(kern, subtables, null, false);
+        }
+        
+        return NONE;
+    }
+    
+    /**
+     * Gets the amount by which the advance of the left glyph should be
+     * adjusted when it is followed by the right glyph.
+     * 
+     * @param left The ID of the first glyph of the pair.
+     * @param right The ID of the second glyph of the pair.
+     * 
+     * @return The adjustment to the advance of the left glyph, in FUnits.
+     *         This is usually negative, bringing the glyphs closer together.
+     */
+    public int getAdjustment(int left, int right) {
+        if (subtables.length == 0) return 0;
+        
+        long key = (long)(left & 0xFFFF) << 16 | right & 0xFFFF;
+        synchronized (cache) {
+            int slot = hash(key);
+            for (long entry; (entry = cache[slot]) != 0;
+                 slot = slot + 1 & CACHE_CAPACITY - 1) {
+                if ((entry >>> 16 & 0xFFFFFFFFL) == key)
+                    return (short)entry;
+            }
+        }
+        
+        int adjustment = gpos
+                         ? lookupPairAdjustment(left, right)
+                         : lookupKernPair(left, right);
+        
+        synchronized (cache) {
+            if (cached >= CACHE_CAPACITY / 2) {
+                Arrays.fill(cache, 0);
+                cached = 0;
+            }
+            
+            int slot = hash(key);
+            while (cache[slot] != 0)
+                slot = slot + 1 & CACHE_CAPACITY - 1;
+            cache[slot] = 1L << 48 | key << 16 | adjustment & 0xFFFF;
+            cached++;
+        }
+        
+        return adjustment;
+    }
+    
+    /**
+     * @return Whether this font defines any kerning.
+     */
+    public boolean isEmpty() {
+        return subtables.length == 0;
+    }
+    
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        
+        return (int)(h >>> 40) & CACHE_CAPACITY - 1;
+    }
+    
+    /*
+     * Collects the pair adjustment subtables of every lookup referenced by a
+     * kern feature, following extension lookups to their subtables. The
+     * offsets of the subtables are returned along with the index of the
+     * lookup which each belongs to.
+     */
+    private static int[][] findPairAdjustments(ByteBuffer buffer) {
+        int base = buffer.position();
+        int featureList = base + (buffer.getShort(base + 6) & 0xFFFF),
+            lookupList = base + (buffer.getShort(base + 8) & 0xFFFF);
+        
+        int lookupCount = buffer.getShort(lookupList) & 0xFFFF;
+        boolean[] kerning = new boolean[lookupCount];
+        int featureCount = buffer.getShort(featureList) & 0xFFFF;
+        for (int f = 0; f < featureCount; f++) {
+            int record = featureList + 2 + f * 6;
+            if (buffer.getInt(record) != KERN_FEATURE) continue;
+            
+            int feature = featureList
+                          + (buffer.getShort(record + 4) & 0xFFFF);
+            int indices = buffer.getShort(feature + 2) & 0xFFFF;
+            for (int i = 0; i < indices; i++) {
+                int lookup = buffer.getShort(feature + 4 + i * 2) & 0xFFFF;
+                if (lookup < lookupCount) kerning[lookup] = true;
+            }
+        }
+        
+        int[] subtables = new int[16],
+              lookups = new int[16];
+        int count = 0;
+        for (int l = 0; l < lookupCount; l++) {
+            if (!kerning[l]) continue;
+            
+            int lookup = lookupList
+                         + (buffer.getShort(lookupList + 2 + l * 2) & 0xFFFF);
+            int type = buffer.getShort(lookup) & 0xFFFF,
+                subtableCount = buffer.getShort(lookup + 4) & 0xFFFF;
+            for (int s = 0; s < subtableCount; s++) {
+                int subtable = lookup
+                               + (buffer.getShort(lookup + 6 + s * 2)
+                                  & 0xFFFF);
+                if (type == EXTENSION) {
+                    if ((buffer.getShort(subtable + 2) & 0xFFFF)
+                        != PAIR_ADJUSTMENT)
+                        continue;
+                    
+                    subtable += buffer.getInt(subtable + 4);
+                }
+                else if (type != PAIR_ADJUSTMENT) continue;
+                
+                if (count == subtables.length) {
+                    subtables = Arrays.copyOf(subtables, count * 2);
+                    lookups = Arrays.copyOf(lookups, count * 2);
+                }
+                subtables[count] = subtable;
+                lookups[count++] = l;
+            }
+        }
+        
+        return new int[][] { Arrays.copyOf(subtables, count),
+                             Arrays.copyOf(lookups, count) };
+    }
+    
+    private static int[] findKernPairs(ByteBuffer buffer) {
+        int base = buffer.position();
+        // Only the version of the table defined by OpenType is supported.
+        if (buffer.getShort(base) != 0) return new int[0];
+        
+        int tables = buffer.getShort(base + 2) & 0xFFFF;
+        int[] subtables = new int[tables];
+        int count = 0,
+            offset = base + 4;
+        for (int t = 0; t < tables; t++) {
+            int length = buffer.getShort(offset + 2) & 0xFFFF,
+                coverage = buffer.getShort(offset + 4) & 0xFFFF;
+            int format = coverage >> 8;
+            if (format == 0
+                && (coverage & KERN_HORIZONTAL) != 0
+                && (coverage & (KERN_MINIMUM | KERN_CROSS_STREAM)) == 0)
+                subtables[count++] = offset + 6;
+            
+            offset += length;
+        }
+        
+        return Arrays.copyOf(subtables, count);
+    }
+    
+    private int lookupKernPair(int left, int right) {
+        int key = left << 16 | right,
+            adjustment = 0;
+        for (int subtable : subtables) {
+            int lo = 0,
+                hi = (buffer.getShort(subtable) & 0xFFFF) - 1;
+            int pairs = subtable + 8;
+            while (lo <= hi) {
+                int mid = lo + hi >>> 1;
+                int pair = buffer.getInt(pairs + mid * 6);
+                if (Integer.compareUnsigned(pair, key) < 0) lo = mid + 1;
+                else if (pair != key) hi = mid - 1;
+                else {
+                    adjustment += buffer.getShort(pairs + mid * 6 + 4);
+                    break;
+                }
+            }
+        }
+        
+        return adjustment;
+    }
+    
+    private int lookupPairAdjustment(int left, int right) {
+        int adjustment = 0;
+        for (int s = 0; s < subtables.length; s++) {
+            int subtable = subtables[s];
+            int coverage = subtable + (buffer.getShort(subtable + 2) & 0xFFFF);
+            int index = coverageIndex(coverage, left);
+            if (index < 0) continue;
+            
+            int format = buffer.getShort(subtable),
+                valueFormat1 = buffer.getShort(subtable + 4) & 0xFFFF,
+                valueFormat2 = buffer.getShort(subtable + 6) & 0xFFFF;
+            int size1 = valueRecordSize(valueFormat1),
+                size2 = valueRecordSize(valueFormat2);
+            
+            int record;
+            if (format == 1) {
+                int pairSets = buffer.getShort(subtable + 8) & 0xFFFF;
+                if (index >= pairSets) continue;
+                
+                int pairSet = subtable
+                              + (buffer.getShort(subtable + 10 + index * 2)
+                                 & 0xFFFF);
+                int stride = 2 + size1 + size2;
+                int lo = 0,
+                    hi = (buffer.getShort(pairSet) & 0xFFFF) - 1;
+                record = -1;
+                while (lo <= hi) {
+                    int mid = lo + hi >>> 1;
+                    int entry = pairSet + 2 + mid * stride;
+                    int second = buffer.getShort(entry) & 0xFFFF;
+                    if (second < right) lo = mid + 1;
+                    else if (second > right) hi = mid - 1;
+                    else {
+                        record = entry + 2;
+                        break;
+                    }
+                }
+                
+                // Try the next subtable if this one does not hold the pair.
+                if (record < 0) continue;
+            }
+            else if (format == 2) {
+                int classDef1 = subtable
+                                + (buffer.getShort(subtable + 8) & 0xFFFF),
+                    classDef2 = subtable
+                                + (buffer.getShort(subtable + 10) & 0xFFFF);
+                int class1Count = buffer.getShort(subtable + 12) & 0xFFFF,
+                    class2Count = buffer.getShort(subtable + 14) & 0xFFFF;
+                int class1 = classOf(classDef1, left),
+                    class2 = classOf(classDef2, right);
+                if (class1 >= class1Count || class2 >= class2Count) continue;
+                
+                record = subtable
+                         + 16
+                         + (class1 * class2Count + class2) * (size1 + size2);
+            }
+            else continue;
+            
+            if ((valueFormat1 & X_ADVANCE) != 0) {
+                int skip = Integer.bitCount(valueFormat1
+                                            & (X_PLACEMENT | Y_PLACEMENT));
+                adjustment += buffer.getShort(record + skip * 2);
+            }
+            
+            // Once a subtable has applied, the rest of its lookup is skipped.
+            while (s + 1 < subtables.length && lookups[s + 1] == lookups[s])
+                s++;
+        }
+        
+        return adjustment;
+    }
+    
+    private static int valueRecordSize(int valueFormat) {
+        return 2 * Integer.bitCount(valueFormat & 0xFF);
+    }
+    
+    /*
+     * Finds the index of the glyph in a coverage table, or -1 if the glyph
+     * is not covered.
+     */
+    private int coverageIndex(int coverage, int glyph) {
+        int format = buffer.getShort(coverage),
+            count = buffer.getShort(coverage + 2) & 0xFFFF;
+        int lo = 0,
+            hi = count - 1;
+        
+        if (format == 1) {
+            while (lo <= hi) {
+                int mid = lo + hi >>> 1;
+                int id = buffer.getShort(coverage + 4 + mid * 2) & 0xFFFF;
+                if (id < glyph) lo = mid + 1;
+                else if (id > glyph) hi = mid - 1;
+                else return mid;
+            }
+        }
+        else if (format == 2) {
+            while (lo <= hi) {
+                int mid = lo + hi >>> 1;
+                int range = coverage + 4 + mid * 6;
+                int start = buffer.getShort(range) & 0xFFFF,
+                    end = buffer.getShort(range + 2) & 0xFFFF;
+                if (end < glyph) lo = mid + 1;
+                else if (start > glyph) hi = mid - 1;
+                else return (buffer.getShort(range + 4) & 0xFFFF)
+                            + glyph
+                            - start;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /*
+     * Finds the class of the glyph in a class definition table. Glyphs which
+     * are not assigned a class belong to class zero.
+     */
+    private int classOf(int classDef, int glyph) {
+        int format = buffer.getShort(classDef);
+        if (format == 1) {
+            int start = buffer.getShort(classDef + 2) & 0xFFFF,
+                count = buffer.getShort(classDef + 4) & 0xFFFF;
+            if (glyph < start || glyph >= start + count) return 0;
+            
+            return buffer.getShort(classDef + 6 + (glyph - start) * 2)
+                   & 0xFFFF;
+        }
+        else if (format == 2) {
+            int lo = 0,
+                hi = (buffer.getShort(classDef + 2) & 0xFFFF) - 1;
+            while (lo <= hi) {
+                int mid = lo + hi >>> 1;
+                int range = classDef + 4 + mid * 6;
+                int start = buffer.getShort(range) & 0xFFFF,
+                    end = buffer.getShort(range + 2) & 0xFFFF;
+                if (end < glyph) lo = mid + 1;
+                else if (start > glyph) hi = mid - 1;
+                else return buffer.getShort(range + 4) & 0xFFFF;
+            }
+        }
+        
+        return 0;
+    }
+}
@@ -33,42 +33,129 @@ import java.nio.ByteBuffer;
  * </p>
  */
 public class Metrics {
-    private static class HMetricProvider {
-        static final class HMetricEntry {
-            public final short aw,
-                               lsb;
-            
-            public HMetricEntry(short aw,
-                                short lsb) {
-                this.aw = aw;
-                this.lsb = lsb;
-            }
-        }
+    /**
+     * The horizontal metrics of every glyph in a font, read from the
+     * <code>hhea</code> and <code>hmtx</code> tables. These metrics are in
+     * FUnits and are independent of the size of the font, so a single
+     * provider is shared by every {@code Metrics} created for a font.
+     */
+    /* package-private */ static class HMetricProvider {
+        // The USE_TYPO_METRICS bit of fsSelection in the OS/2 table.
+        private static final int USE_TYPO_METRICS = 1 << 7;
         
-        private HMetricEntry[] entries;
+        /*
+         * Only the first numberOfHMetrics glyphs have an advance width of
+         * their own; the remaining glyphs (usually those of a monospaced
+         * run at the end of the font) share the last advance width.
+         */
+        private final short[] advances,
+                              lsbs;
         
-        HMetricProvider(ByteBuffer buffer,
-                        short hMetricEntries,
+        /*
+         * The distance from the baseline to the top and bottom of a line,
+         * where the descender is negative, and the extra space to add
+         * between lines, all in FUnits.
+         */
+        private final int ascender,
+                          descender,
+                          lineGap;
+        
+        HMetricProvider(ByteBuffer hhea,
+                        ByteBuffer hmtx,
+                        ByteBuffer os2,
                         int numGlyphs) {
-            short lastAW = 0;
+            int base = hhea.position();
+            int fsSelection = os2 != null
+                              ? os2.getShort(os2.position() + 62) & 0xFFFF
+                              : 0;
+            if ((fsSelection & USE_TYPO_METRICS) != 0) {
+                int offset = os2.position();
+                ascender = os2.getShort(offset + 68);
+                descender = os2.getShort(offset + 70);
+                lineGap = os2.getShort(offset + 72);
+            }
+            else if (hhea.getShort(base + 4) == 0
+                     && hhea.getShort(base + 6) == 0
+                     && os2 != null) {
+                // Fall back to the clipping region used by Windows.
+                int offset = os2.position();
+                ascender = os2.getShort(offset + 74) & 0xFFFF;
+                descender = -(os2.getShort(offset + 76) & 0xFFFF);
+                lineGap = 0;
+            }
+            else {
+                ascender = hhea.getShort(base + 4);
+                descender = hhea.getShort(base + 6);
+                lineGap = hhea.getShort(base + 8);
+            }
+            
+            int hMetricEntries = hhea.getShort(hhea.position() + 34) & 0xFFFF;
+            if (hMetricEntries == 0 || hMetricEntries > numGlyphs)
+                throw new IllegalArgumentException("The font defines "
+                                                   + hMetricEntries
+                                                   + " horizontal metrics for "
+                                                   + numGlyphs
+                                                   + " glyphs.");
+            
+            advances = new short[hMetricEntries];
+            lsbs = new short[numGlyphs];
             for (int i = 0; i < numGlyphs; i++) {
-                if (i >= hMetricEntries) {
-                    entries[i] = new HMetricEntry(lastAW,
-                                                  buffer.getShort());
-                    continue;
-                }
-                
-                entries[i] = new HMetricEntry(buffer.getShort(),
-                                              buffer.getShort());
+                if (i < hMetricEntries) advances[i] = hmtx.getShort();
+                lsbs[i] = hmtx.getShort();
             }
         }
+        
+        int getAdvanceWidth(int id) {
+            if (id >= advances.length) id = advances.length - 1;
+            
+            return advances[id] & 0xFFFF;
+        }
+        
+        int getLeftSideBearing(int id) {
+            return id < lsbs.length ? lsbs[id] : 0;
+        }
+        
+        int getMetricCount() {
+            return advances.length;
+        }
+        
+        int getAscender() {
+            return ascender;
+        }
+        
+        int getDescender() {
+            return descender;
+        }
+        
+        int getLineGap() {
+            return lineGap;
+        }
     }
     
     private final int ptSize,
                       unitsPerEm,
                       dpi;
+    private final float scale;
     private HMetricProvider hmtx;
     
+    /*
+     * The metrics which the font records for this size in whole pixels: the
+     * advance widths from the hdmx table (if it has a record for the size),
+     * the extents of a line from the VDMX table, and the behavior recommended
+     * by the gasp table.
+     */
+    private final int ppem,
+                      behavior;
+    private final byte[] deviceAdvances;
+    private final int[] verticalExtents;
+    private final DeviceMetrics device;
+    
+    /*
+     * The advance widths of the glyphs which have their own horizontal
+     * metrics, scaled to pixels for the size and resolution of these metrics.
+     */
+    private final float[] pixelAdvances;
+    
     public Metrics(OTFFileReader reader,
                    int ptSize,
                    int unitsPerEm,
@@ -77,25 +164,229 @@ public class Metrics {
         this.unitsPerEm = unitsPerEm;
         this.dpi = dpi;
         
-        ByteBuffer hmBuffer = reader.getBufferForTable(OTFFileReader.hmtx);
-        hmtx = new HMetricProvider(hmBuffer,
-                                   (short)0,
-                                   0);
+        hmtx = reader.getHorizontalMetrics();
+        scale = ptSize * dpi / (72.f * unitsPerEm);
+        pixelAdvances = new float[hmtx.getMetricCount()];
+        for (int i = 0; i < pixelAdvances.length; i++)
+            pixelAdvances[i] = hmtx.getAdvanceWidth(i) * scale;
+        
+        device = reader.getDeviceMetrics();
+        ppem = Math.round(ptSize * dpi / 72.f);
+        deviceAdvances = device.getDeviceAdvances(ppem);
+        verticalExtents = device.getVerticalExtents(ppem);
+        behavior = device.getBehavior(ppem);
     }
     
     public int getAdvanceWidth(Glyph glyph) {
-        return hmtx.entries[glyph.id].aw;
+        return hmtx.getAdvanceWidth(glyph.id);
+    }
+    
+    /**
+     * Gets the advance width of the glyph with the given ID, in FUnits. This
+     * does not require the outline of the glyph to be parsed.
+     * 
+     * @param id The ID of the glyph.
+     * 
+     * @return The advance width of the glyph.
+     */
+    public int getAdvanceWidth(int id) {
+        return hmtx.getAdvanceWidth(id);
+    }
+    
+    /**
+     * Gets the advance width of the glyph with the given ID in pixels, at
+     * the point size and resolution which these metrics were created for.
+     * 
+     * @param id The ID of the glyph.
+     * 
+     * @return The distance the pen should move after drawing the glyph.
+     */
+    public float getPixelAdvance(int id) {
+        if (id >= pixelAdvances.length) id = pixelAdvances.length - 1;
+        
+        return pixelAdvances[id];
+    }
+    
+    /**
+     * Gets the advance width of the glyph with the given ID in whole pixels.
+     * The width is taken from the <code>hdmx</code> table when the font
+     * records one for this size, so it matches the advance of the hinted
+     * glyph without the glyph being hinted. Otherwise, the scaled advance is
+     * rounded, which is exact for glyphs whose advance scales linearly (see
+     * {@link #isDeviceAdvanceExact(int)}).
+     * 
+     * @param id The ID of the glyph.
+     * 
+     * @return The advance width of the glyph, in pixels.
+     */
+    public int getDeviceAdvance(int id) {
+        if (deviceAdvances != null && id >= 0 && id < deviceAdvances.length)
+            return deviceAdvances[id] & 0xFF;
+        
+        return Math.round(getPixelAdvance(id));
+    }
+    
+    /**
+     * Gets the advance width which text should be laid out with. When the
+     * font asks for its outlines to be hinted at this size and the advance of
+     * the hinted glyph is known exactly, that whole-pixel advance is used, so
+     * the layout agrees with the hinted glyphs. Otherwise, the advance is the
+     * scaled advance, which may be a fraction of a pixel.
+     * 
+     * @param id The ID of the glyph.
+     * 
+     * @return The distance the pen should move after drawing the glyph, in
+     *         pixels.
+     */
+    public float getLayoutAdvance(int id) {
+        return isGridFitted() && isDeviceAdvanceExact(id)
+               ? getDeviceAdvance(id)
+               : getPixelAdvance(id);
+    }
+    
+    /**
+     * @param id The ID of the glyph.
+     * 
+     * @return Whether the result of {@link #getDeviceAdvance(int)} is known
+     *         to be the advance of the hinted glyph, either because it was
+     *         read from the <code>hdmx</code> table or because the
+     *         <code>LTSH</code> table shows that the advance of the glyph
+     *         scales linearly at this size.
+     */
+    public boolean isDeviceAdvanceExact(int id) {
+        return deviceAdvances != null || device.isLinear(ppem, id);
     }
     
     public int getLeftSideBearing(Glyph glyph) {
-        return hmtx.entries[glyph.id].lsb;
+        return hmtx.getLeftSideBearing(glyph.id);
+    }
+    
+    public int getLeftSideBearing(int id) {
+        return hmtx.getLeftSideBearing(id);
     }
     
     public int getRightSideBearing(Glyph glyph) {
-        HMetricProvider.HMetricEntry entry = hmtx.entries[glyph.id];
-        
-        return (int)(entry.aw
-                     - (entry.lsb
+        return (int)(hmtx.getAdvanceWidth(glyph.id)
+                     - (hmtx.getLeftSideBearing(glyph.id)
                      + glyph.getBounds().getWidth()));
     }
+    
+    /**
+     * @return The factor which converts FUnits to pixels for these metrics.
+     */
+    public float getScale() {
+        return scale;
+    }
+    
+    /**
+     * Gets the distance from the baseline to the top of a line of text. This
+     * is taken from the <code>OS/2</code> table if the font asks for its
+     * typographic metrics to be used, and from the <code>hhea</code> table
+     * otherwise.
+     * 
+     * @return The ascent of the font, in pixels.
+     */
+    public float getAscent() {
+        return hmtx.getAscender() * scale;
+    }
+    
+    /**
+     * @return The distance from the baseline to the bottom of a line of
+     *         text, in pixels. This is a positive value.
+     */
+    public float getDescent() {
+        return -hmtx.getDescender() * scale;
+    }
+    
+    /**
+     * @return The additional space which should be placed between the bottom
+     *         of one line and the top of the next, in pixels.
+     */
+    public float getLineGap() {
+        return hmtx.getLineGap() * scale;
+    }
+    
+    /**
+     * @return The distance between the baselines of consecutive lines, in
+     *         pixels.
+     */
+    public float getLineHeight() {
+        return getAscent() + getDescent() + getLineGap();
+    }
+    
+    /**
+     * Gets the distance from the baseline to the highest pixel reached by any
+     * glyph at this size. This is read from the <code>VDMX</code> table when
+     * the font records the size, and is otherwise the ascent rounded up to a
+     * whole pixel.
+     * 
+     * @return The ascent of the font, in whole pixels.
+     */
+    public int getDeviceAscent() {
+        return verticalExtents != null
+               ? verticalExtents[0]
+               : (int)Math.ceil(getAscent());
+    }
+    
+    /**
+     * @return The distance from the baseline to the lowest pixel reached by
+     *         any glyph at this size, in whole pixels, which is found in the
+     *         same way as {@link #getDeviceAscent()}. This is a positive
+     *         value.
+     */
+    public int getDeviceDescent() {
+        return verticalExtents != null
+               ? -verticalExtents[1]
+               : (int)Math.ceil(getDescent());
+    }
+    
+    /**
+     * @return The distance between the baselines of consecutive lines, in
+     *         whole pixels.
+     */
+    public int getDeviceLineHeight() {
+        return getDeviceAscent()
+               + getDeviceDescent()
+               + Math.round(getLineGap());
+    }
+    
+    /**
+     * @return The behavior which the <code>gasp</code> table of the font
+     *         recommends for this size, as a combination of the
+     *         <code>GASP_*</code> flags of {@link DeviceMetrics}.
+     */
+    public int getRasterizationBehavior() {
+        return behavior;
+    }
+    
+    /**
+     * @return Whether outlines should be hinted at this size.
+     */
+    public boolean isGridFitted() {
+        return (behavior & (DeviceMetrics.GASP_GRIDFIT
+                            | DeviceMetrics.GASP_SYMMETRIC_GRIDFIT)) != 0;
+    }
+    
+    /**
+     * @return Whether outlines should be anti-aliased at this size.
+     */
+    public boolean isSmoothed() {
+        return (behavior & (DeviceMetrics.GASP_DOGRAY
+                            | DeviceMetrics.GASP_SYMMETRIC_SMOOTHING)) != 0;
+    }
+    
+    /**
+     * @return The size of the em square, in whole pixels.
+     */
+    public int getPixelsPerEm() {
+        return ppem;
+    }
+    
+    public int getPointSize() {
+        return ptSize;
+    }
+    
+    public int getDPI() {
+        return dpi;
+    }
 }
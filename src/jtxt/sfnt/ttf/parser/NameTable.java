@@ -0,0 +1,137 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Provides the strings of the <code>name</code> table, such as the family
+ * and style names of a font. Strings are decoded from the font file only when
+ * they are requested.
+ * 
+ * <p>
+ * A font may store each string in several platforms and languages. The
+ * Windows Unicode record in US English is preferred, followed by any other
+ * Windows Unicode record, then any Unicode platform record, and finally the
+ * Macintosh Roman record.
+ * </p>
+ */
+public class NameTable {
+    public static final int COPYRIGHT = 0,
+                            FAMILY = 1,
+                            SUBFAMILY = 2,
+                            UNIQUE_ID = 3,
+                            FULL_NAME = 4,
+                            VERSION = 5,
+                            POSTSCRIPT_NAME = 6,
+                            TYPOGRAPHIC_FAMILY = 16,
+                            TYPOGRAPHIC_SUBFAMILY = 17;
+    
+    private static final int PLATFORM_UNICODE = 0,
+                             PLATFORM_MACINTOSH = 1,
+                             PLATFORM_WINDOWS = 3,
+                             LANGUAGE_EN_US = 0x409;
+    
+    /*
+     * The encoding of the Macintosh Roman records. Mac Roman is an extended
+     * charset which a runtime need not provide, in which case Latin-1 still
+     * decodes the ASCII range correctly.
+     */
+    private static final Charset MAC_ROMAN = getMacRoman();
+    
+    private final ByteBuffer buffer;
+    private final int count,
+                      storage;
+    
+    /**
+     * @param buffer A buffer positioned at the <code>name</code> table.
+     */
+    public NameTable(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int base = buffer.position();
+        count = buffer.getShort(base + 2) & 0xFFFF;
+        storage = base + (buffer.getShort(base + 4) & 0xFFFF);
+    }
+    
+    /**
+     * Gets the string with the given name ID.
+     * 
+     * @param nameId The name ID of the string, such as {@link #FAMILY}.
+     * 
+     * @return The string, or <code>null</code> if the font does not contain
+     *         a string with the given ID in a supported encoding.
+     */
+    public String get(int nameId) {
+        int best = -1,
+            bestRank = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int record = buffer.position() + 6 + i * 12;
+            if ((buffer.getShort(record + 6) & 0xFFFF) != nameId) continue;
+            
+            int rank = rank(buffer.getShort(record) & 0xFFFF,
+                            buffer.getShort(record + 2) & 0xFFFF,
+                            buffer.getShort(record + 4) & 0xFFFF);
+            if (rank < bestRank) {
+                best = record;
+                bestRank = rank;
+            }
+        }
+        
+        if (best < 0) return null;
+        
+        int length = buffer.getShort(best + 8) & 0xFFFF,
+            offset = storage + (buffer.getShort(best + 10) & 0xFFFF);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(offset + i);
+        
+        Charset charset = (buffer.getShort(best) & 0xFFFF) == PLATFORM_MACINTOSH
+                          ? MAC_ROMAN
+                          : StandardCharsets.UTF_16BE;
+        
+        return new String(bytes, charset);
+    }
+    
+    private static Charset getMacRoman() {
+        try {
+            return Charset.forName("x-MacRoman");
+        }
+        catch (IllegalArgumentException iae) {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+    
+    /*
+     * Orders the records for a string by preference, where a lower rank is
+     * better and Integer.MAX_VALUE marks an encoding which cannot be read.
+     */
+    private static int rank(int platformId, int encodingId, int languageId) {
+        switch (platformId) {
+        case PLATFORM_WINDOWS:
+            if (encodingId != 1 && encodingId != 10) break;
+            return languageId == LANGUAGE_EN_US ? 0 : 1;
+        case PLATFORM_UNICODE:
+            return 2;
+        case PLATFORM_MACINTOSH:
+            if (encodingId != 0) break;
+            return languageId == 0 ? 3 : 4;
+        }
+        
+        return Integer.MAX_VALUE;
+    }
+}
@@ -15,14 +15,13 @@
  */
 package jtxt.sfnt.ttf.parser;
 
+import java.awt.geom.Rectangle2D;
 import java.io.File;
-import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import static jtxt.sfnt.ttf.parser.CharacterMapper.*;
 
@@ -37,7 +36,7 @@ public class OTFFileReader {
      */
     public static final int BASE = 0x42_41_53_45,
                             CBDT = 0x43_42_44_54,
-                            CBLT = 0x43_42_4C_54,
+                            CBLC = 0x43_42_4C_43,
                             CFF  = 0x43_46_46_20,
                             CFF2 = 0x43_46_46_32,
                             COLR = 0x43_4F_4C_52,
@@ -126,9 +125,20 @@ public class OTFFileReader {
         }
     }
     
-    private ByteBuffer buffer;
-    private Map<Integer, Integer> tables;
+    private final ByteBuffer buffer,
+                             glyphs;
+    private final TableDirectory tables;
+    private final CFFTable outlines;
     private AddressTranslator translator;
+    private final GlyphCache glyphCache;
+    private final TableCache shared;
+    private Metrics.HMetricProvider hMetrics;
+    private KerningTable kerning;
+    private Hinter hinter;
+    private DeviceMetrics deviceMetrics;
+    private EmbeddedBitmaps bitmaps;
+    private NameTable names;
+    private final Map<Long, Metrics> metrics = new ConcurrentHashMap<>();
     private final short unitsPerEm,
                         flags,
                         locaFormat,
@@ -136,55 +146,175 @@ public class OTFFileReader {
                         yMin,
                         xMax,
                         yMax;
-    private final int goff;
+    private final int numGlyphs;
     
     public OTFFileReader(File file) {
-        try {
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
-                                          0,
-                                          raf.length());
-            raf.close();
-        }
-        catch (IOException ioe) {
-            /*
-             * A general IOException has been thrown, which indicates that the
-             * file is not on disk or could not be read.
-             */
-            throw new IllegalArgumentException("The provided file could not "
-                                               + "be read from disk.");
+        this(file, new GlyphCache());
+    }
+    
+    /**
+     * Opens the font at the given file, caching the outlines of the glyphs
+     * which are parsed from it in the specified cache.
+     * 
+     * @param file The font file to read.
+     * @param glyphCache The cache which parsed glyphs should be kept in. A
+     *                   cache should not be shared between different fonts,
+     *                   since the glyphs are keyed only by their ID.
+     */
+    public OTFFileReader(File file, GlyphCache glyphCache) {
+        this(file, glyphCache, false);
+    }
+    
+    /**
+     * Opens the font at the given file, optionally verifying the checksum of
+     * every table in the font before any of them are used. Verification reads
+     * the whole font, so it should be reserved for fonts which come from an
+     * untrusted source.
+     * 
+     * @param file The font file to read.
+     * @param glyphCache The cache which parsed glyphs should be kept in.
+     * @param verifyChecksums Whether the checksums of the font should be
+     *                        verified.
+     * 
+     * @throws IllegalArgumentException If the checksums are verified and any
+     *                                  of them do not match, with a message
+     *                                  listing each table which failed.
+     * 
+     * @see ChecksumVerifier
+     */
+    public OTFFileReader(File file,
+                         GlyphCache glyphCache,
+                         boolean verifyChecksums) {
+        this(SfntSource.of(file), glyphCache, verifyChecksums);
+    }
+    
+    /**
+     * Reads the font provided by the given source, which may be a file, an
+     * array, a buffer, a channel or a resource.
+     * 
+     * @param source The source of the font.
+     */
+    public OTFFileReader(SfntSource source) {
+        this(source, new GlyphCache(), false);
+    }
+    
+    /**
+     * Reads the font provided by the given source, optionally verifying its
+     * checksums. The data of the source is used as it is, without being
+     * copied.
+     * 
+     * @param source The source of the font.
+     * @param glyphCache The cache which parsed glyphs should be kept in.
+     * @param verifyChecksums Whether the checksums of the font should be
+     *                        verified.
+     * 
+     * @see #OTFFileReader(File, GlyphCache, boolean)
+     */
+    public OTFFileReader(SfntSource source,
+                         GlyphCache glyphCache,
+                         boolean verifyChecksums) {
+        this(source.getBuffer(),
+             0,
+             glyphCache,
+             new TableCache(),
+             verifyChecksums);
+    }
+    
+    /**
+     * Reads the font whose table directory is at the given offset of the
+     * buffer. If the buffer holds a collection and the offset is zero, the
+     * first font of the collection is read.
+     * 
+     * @param buffer The buffer containing the font file.
+     * @param offset The offset of the table directory of the font.
+     * @param glyphCache The cache which parsed glyphs should be kept in, or
+     *                   <code>null</code> to use the cache for the
+     *                   <code>glyf</code> table held in the table cache.
+     * @param shared The cache of parsed tables, which may be shared with the
+     *               other faces of a collection.
+     * @param verifyChecksums Whether the checksums of the font should be
+     *                        verified.
+     */
+    /* package-private */ OTFFileReader(ByteBuffer buffer,
+                                        int offset,
+                                        GlyphCache glyphCache,
+                                        TableCache shared,
+                                        boolean verifyChecksums) {
+        this.buffer = buffer;
+        this.shared = shared;
+        if (offset == 0 && buffer.getInt(0) == FontCollection.COLLECTION_TAG)
+            offset = buffer.getInt(12);
+        
+        /*
+         * Only the tables needed to locate glyphs are read here. The other
+         * tables are read the first time that they are needed.
+         */
+        tables = new TableDirectory(buffer, offset);
+        if (verifyChecksums) {
+            ChecksumVerifier verifier = verifyChecksums();
+            if (!verifier.isValid())
+                throw new IllegalArgumentException("The font is corrupt: "
+                                                   + verifier);
         }
         
-        tables = new HashMap<>();
-        /* sfntVersion */ buffer.getInt();
-        int numTables = buffer.getShort();
+        ByteBuffer header = getBufferForTable(head);
+        unitsPerEm = header.getShort(18);
+        locaFormat = header.getShort(50);
         
-        buffer.position(4 + 2 * 4);
-        for (int i = 0; i < numTables; i++) {
-            /*
-             * TAG      tag
-             * UINT32   checksum
-             * OFFSET32 offset
-             * UINT32   length 
-             */
-            int tag = buffer.getInt();
-            /* checksum */ buffer.getInt();
-            
-            tables.put(tag, (int)(buffer.getLong()
-                                  >> 32
-                                  & 0xFFFFFFFF));
-        }
+        numGlyphs = getBufferForTable(maxp).getShort(4) & 0xFFFF;
         
-        int hoff = tables.get(head);
-        unitsPerEm = buffer.getShort(hoff + 18);
-        locaFormat = buffer.getShort(hoff + 50);
-        goff = tables.get(glyf);
+        /*
+         * Fonts with PostScript outlines keep them in a CFF or CFF2 table,
+         * and have no glyf or loca table. Fonts may also consist of nothing
+         * but embedded bitmaps, in which case every glyph has an empty
+         * outline.
+         */
+        int outlineTag = hasTable(glyf) ? glyf
+                         : hasTable(CFF2) ? CFF2
+                         : hasTable(CFF) ? CFF
+                         : hasTable(CBLC) ? CBLC
+                         : hasTable(EBLC) ? EBLC
+                         : sbix;
+        if (!hasTable(outlineTag))
+            throw new IllegalArgumentException("The font does not contain "
+                                               + "any outlines or bitmaps.");
+        int outlineOffset = tables.getOffset(tables.indexOf(outlineTag));
+        if (outlineTag == glyf) {
+            glyphs = getBufferForTable(glyf);
+            outlines = null;
+        }
+        else if (outlineTag != CFF && outlineTag != CFF2) {
+            glyphs = null;
+            outlines = null;
+        }
+        else {
+            glyphs = null;
+            outlines = shared(outlineTag, () -> {
+                return new CFFTable(getBufferForTable(outlineTag));
+            });
+        }
         
-        int numGlyphs = buffer.getShort(tables.get(maxp) + 4);
-        translator = new AddressTranslator(buffer.duplicate(),
-                                           tables.get(loca),
-                                           tables.get(cmap),
-                                           tables.get(glyf),
+        /*
+         * The glyph cache is kept under the glyf tag whichever table holds
+         * the outlines, at the offset of that table, since the parsed CFF
+         * table is already kept under its own tag. Glyphs are found through
+         * the loca table of each face, so faces which share a glyf table
+         * only share their glyphs if they share their loca table as well.
+         */
+        this.glyphCache = glyphCache != null
+                          ? glyphCache
+                          : shared.get(glyf,
+                                       new int[] { outlineOffset,
+                                                   getOffset(loca) },
+                                       GlyphCache::new);
+        translator = new AddressTranslator(outlineTag == glyf
+                                           ? getBufferForTable(loca)
+                                           : null,
+                                           () -> shared(cmap, () -> {
+                                               return new CharacterMapper(
+                                                   getBufferForTable(cmap),
+                                                   0);
+                                           }),
                                            numGlyphs,
                                            locaFormat == 0);
         
@@ -209,37 +339,415 @@ public class OTFFileReader {
      *         for the specified character.
      */
     public Glyph getGlyph(char character) {
-        return Glyph.createGlyph(buffer.duplicate(),
-                                 translator.lookup(character),
-                                 0,
-                                 translator);
+        return getGlyphById(translator.findId(character));
+    }
+    
+    /**
+     * Locates and constructs the {@code Glyph} for the given Unicode code
+     * point. Unlike {@link #getGlyph(char)}, this may be used for characters
+     * outside of the BMP, such as emoji, provided that the font contains a
+     * mapping for the full Unicode repertoire.
+     * 
+     * @param codePoint The code point which this Glyph should be created for.
+     * 
+     * @return A {@code Glyph} for the specified code point.
+     */
+    public Glyph getGlyph(int codePoint) {
+        return getGlyphById(translator.findId(codePoint));
+    }
+    
+    /**
+     * Finds the ID of the glyph which represents the given character in this
+     * font.
+     * 
+     * @param character The character to find the glyph for.
+     * 
+     * @return The ID of the glyph, or zero (the <code>.notdef</code> glyph) if
+     *         the character is not mapped by this font.
+     */
+    public int getGlyphId(char character) {
+        return translator.findId(character);
+    }
+    
+    /**
+     * Finds the ID of the glyph which represents the given Unicode code point
+     * in this font.
+     * 
+     * @param codePoint The code point to find the glyph for.
+     * 
+     * @return The ID of the glyph, or zero if the code point is not mapped.
+     */
+    public int getGlyphId(int codePoint) {
+        return translator.findId(codePoint);
+    }
+    
+    /**
+     * Maps a range of text to the IDs of the glyphs which represent it,
+     * writing them into an array owned by the caller. This performs the
+     * lookup for the entire range in a single loop, and so should be
+     * preferred to calling {@link #getGlyphId(char)} for each character.
+     * 
+     * @param text The text to map.
+     * @param start The index of the first character to map.
+     * @param end The index after the last character to map.
+     * @param out The array which receives the glyph IDs. It must have room
+     *            for <code>end - start</code> IDs.
+     * 
+     * @return The number of glyph IDs written, which may be fewer than the
+     *         number of characters if the text contains surrogate pairs.
+     * 
+     * @see CharacterMapper#mapToGlyphIds(CharSequence, int, int, int[])
+     */
+    public int mapToGlyphIds(CharSequence text,
+                             int start,
+                             int end,
+                             int[] out) {
+        return translator.getCharacterMapper().mapToGlyphIds(text,
+                                                             start,
+                                                             end,
+                                                             out);
+    }
+    
+    /**
+     * Gets the {@code Glyph} with the given ID, parsing its outline from the
+     * <code>glyf</code> table (or running its charstring, for a font with
+     * PostScript outlines) only if it is not already held in the glyph cache
+     * for this font.
+     * 
+     * @param id The ID of the glyph, as determined by the character mapping.
+     * 
+     * @return The {@code Glyph} with the given ID.
+     */
+    public Glyph getGlyphById(int id) {
+        return getGlyphById(id, 0);
+    }
+    
+    /*
+     * Gets a glyph through the glyph cache, where the depth is the number of
+     * composite glyphs which it is a component of. The components of
+     * composite glyphs are found through the cache as well, so a component
+     * which is shared by many composites is only parsed once.
+     */
+    private Glyph getGlyphById(int id, int depth) {
+        Glyph glyph = glyphCache.get(id);
+        if (glyph != null) return glyph;
+        
+        glyph = outlines != null
+                ? new Glyph.CFFGlyph(outlines, id)
+                : glyphs == null
+                ? new Glyph.SimpleGlyph(buffer,
+                                        0,
+                                        id,
+                                        (short)0,
+                                        new Rectangle2D.Float())
+                : Glyph.createGlyph(glyphs.duplicate(),
+                                    translator.lookupId(id),
+                                    id,
+                                    translator,
+                                    this::getGlyphById,
+                                    depth);
+        glyphCache.put(glyph);
+        
+        return glyph;
+    }
+    
+    /**
+     * Decodes the outline of the glyph with the given ID straight from the
+     * font file into the sink, without constructing a {@code Glyph} or any
+     * intermediate shape. Composite glyphs are assembled from their
+     * components through the glyph cache, and the charstrings of a font with
+     * PostScript outlines are run directly.
+     * 
+     * @param id The ID of the glyph.
+     * @param sink The sink which receives the outline, in FUnits. To receive
+     *             the outline in device space, wrap the sink in a
+     *             {@link TransformingSink}.
+     */
+    public void decodeGlyph(int id, OutlineSink sink) {
+        if (outlines != null) {
+            outlines.decode(id, sink);
+            return;
+        }
+        
+        if (glyphs == null || translator.isEmpty(id)) return;
+        if (!Glyph.SimpleGlyph.decodeOutline(glyphs,
+                                             translator.lookupId(id),
+                                             sink))
+            getGlyphById(id).decode(sink);
     }
     
+    /**
+     * @return The character mapping which is used to find the glyphs for
+     *         characters in this font.
+     */
+    public CharacterMapper getCharacterMapper() {
+        return translator.getCharacterMapper();
+    }
+    
+    /**
+     * @return The cache which holds the glyphs parsed from this font. The
+     *         hit and miss counters of the cache may be used to judge whether
+     *         its budget is sufficient for the text being rendered.
+     */
+    public GlyphCache getGlyphCache() {
+        return glyphCache;
+    }
+    
+    /**
+     * Gets the metrics of this font at the given size and resolution. The
+     * metrics for each combination of size and resolution are created once,
+     * along with their table of pixel advances, and reused afterwards.
+     * 
+     * @param pointSize The size of the font, in points.
+     * @param dpi The resolution of the device.
+     * 
+     * @return The metrics of this font for the given size.
+     */
     public Metrics getMetrics(int pointSize, int dpi) {
-        return new Metrics(this,
-                           pointSize,
-                           unitsPerEm,
-                           dpi);
+        long key = (long)pointSize << 32 | dpi & 0xFFFFFFFFL;
+        
+        return metrics.computeIfAbsent(key, k -> new Metrics(this,
+                                                             pointSize,
+                                                             unitsPerEm,
+                                                             dpi));
+    }
+    
+    /*
+     * Reads the horizontal metrics of this font the first time that they
+     * are needed, which is shared by the metrics of every size. The line
+     * metrics and the number of advances are read from the hhea, OS/2 and
+     * maxp tables, so faces only share their metrics when they share all of
+     * those tables along with the hmtx table.
+     */
+    /* package-private */ synchronized Metrics.HMetricProvider
+    getHorizontalMetrics() {
+        if (hMetrics == null) {
+            int[] offsets = { getOffset(hmtx),
+                              getOffset(hhea),
+                              getOffset(OS_2),
+                              getOffset(maxp) };
+            hMetrics = shared.get(hmtx, offsets, () -> {
+                return new Metrics.HMetricProvider(getBufferForTable(hhea),
+                                                   getBufferForTable(hmtx),
+                                                   hasTable(OS_2)
+                                                   ? getBufferForTable(OS_2)
+                                                   : null,
+                                                   numGlyphs);
+            });
+        }
+        
+        return hMetrics;
+    }
+    
+    /**
+     * Gets the metrics which this font records for particular sizes on the
+     * device, from its <code>hdmx</code>, <code>VDMX</code>,
+     * <code>LTSH</code> and <code>gasp</code> tables. The tables are located
+     * the first time that this method is called.
+     * 
+     * @return The device metrics of this font, which are empty if it has none
+     *         of the tables.
+     */
+    public synchronized DeviceMetrics getDeviceMetrics() {
+        if (deviceMetrics == null)
+            deviceMetrics = new DeviceMetrics(hasTable(hdmx)
+                                              ? getBufferForTable(hdmx)
+                                              : null,
+                                              hasTable(VDMX)
+                                              ? getBufferForTable(VDMX)
+                                              : null,
+                                              hasTable(LTSH)
+                                              ? getBufferForTable(LTSH)
+                                              : null,
+                                              hasTable(gasp)
+                                              ? getBufferForTable(gasp)
+                                              : null,
+                                              numGlyphs);
+        
+        return deviceMetrics;
+    }
+    
+    /**
+     * Gets the bitmaps embedded in this font, from its <code>CBLC</code> and
+     * <code>CBDT</code> tables (or its <code>EBLC</code> and
+     * <code>EBDT</code> tables, if it has no color bitmaps) and its
+     * <code>sbix</code> table. The tables are located the first time that
+     * this method is called.
+     * 
+     * @return The embedded bitmaps of this font, which are empty if it has
+     *         none of the tables.
+     */
+    public synchronized EmbeddedBitmaps getEmbeddedBitmaps() {
+        if (bitmaps == null) {
+            boolean color = hasTable(CBLC) && hasTable(CBDT);
+            int location = color ? CBLC : EBLC,
+                data = color ? CBDT : EBDT;
+            boolean located = hasTable(location) && hasTable(data);
+            bitmaps = new EmbeddedBitmaps(located
+                                          ? getBufferForTable(location)
+                                          : null,
+                                          located
+                                          ? getBufferForTable(data)
+                                          : null,
+                                          hasTable(sbix)
+                                          ? getBufferForTable(sbix)
+                                          : null,
+                                          numGlyphs);
+        }
+        
+        return bitmaps;
+    }
+    
+    /**
+     * @return Whether this font has outlines, rather than consisting only of
+     *         embedded bitmaps.
+     */
+    public boolean hasOutlines() {
+        return glyphs != null || outlines != null;
+    }
+    
+    /**
+     * Gets the kerning between pairs of glyphs in this font, which is read
+     * from the <code>GPOS</code> table if the font has one and from the
+     * <code>kern</code> table otherwise. The kerning is located the first
+     * time that this method is called.
+     * 
+     * @return The kerning of this font, which is {@link KerningTable#NONE}
+     *         if the font does not define any.
+     */
+    public synchronized KerningTable getKerning() {
+        if (kerning == null) {
+            /*
+             * The kern table is read when the GPOS table has no kerning, so
+             * faces share the kerning only when they share both tables.
+             */
+            int[] offsets = { getOffset(GPOS), getOffset(kern) };
+            kerning = !hasTable(GPOS) && !hasTable(kern)
+                      ? KerningTable.NONE
+                      : shared.get(GPOS, offsets, () -> {
+                          return KerningTable.create(hasTable(GPOS)
+                                                     ? getBufferForTable(GPOS)
+                                                     : null,
+                                                     hasTable(kern)
+                                                     ? getBufferForTable(kern)
+                                                     : null);
+                      });
+        }
+        
+        return kerning;
     }
     
     /**
-     * Gets the {@code ByteBuffer} which backs this font file, where the
-     * position of the buffer which is returned is set to the position of the
-     * table in this font for the given tag. 
+     * Gets the hinter which executes the TrueType instructions of this font.
+     * The hinter is created, and the font program run, the first time that
+     * this method is called.
+     * 
+     * @return The hinter of this font, or <code>null</code> if the font has
+     *         no TrueType outlines.
+     */
+    public synchronized Hinter getHinter() {
+        if (hinter == null && glyphs != null) hinter = new Hinter(this);
+        
+        return hinter;
+    }
+    
+    /**
+     * @return The <code>CFF</code> or <code>CFF2</code> table which holds
+     *         the outlines of this font, or <code>null</code> if its outlines
+     *         are held in the <code>glyf</code> table.
+     */
+    public CFFTable getCFFTable() {
+        return outlines;
+    }
+    
+    /**
+     * @return The number of glyphs defined in this font.
+     */
+    public int getNumGlyphs() {
+        return numGlyphs;
+    }
+    
+    /**
+     * Gets a read-only view of the table in this font with the given tag.
+     * The view shares the memory of the font file rather than copying it,
+     * begins at position zero at the start of the table, and is limited to
+     * the length of the table.
      * 
      * @param tag The integer value for the ASCII string which defines the
      *            name of a table in this font. All table tags are defined as
      *            static constants in this file.
      * 
-     * @return A ByteBuffer positioned at the offset in this font for the tag
-     *         which was specified.
+     * @return A ByteBuffer containing the table with the given tag.
+     * 
+     * @throws IllegalArgumentException If the font does not contain the
+     *                                  table.
      */
     public ByteBuffer getBufferForTable(int tag) {
-        int offset = tables.get(tag);
-        
-        return (ByteBuffer)buffer.duplicate().position(offset);
+        return tables.slice(buffer, tag);
     }
 
+    /**
+     * @param tag The tag of a table, as defined by the constants in this
+     *            class.
+     * 
+     * @return Whether this font contains a table with the given tag.
+     */
+    public boolean hasTable(int tag) {
+        return tables.contains(tag);
+    }
+    
+    /**
+     * Computes the checksum of every table in this font, in parallel, and
+     * compares them to the checksums recorded in the table directory.
+     * 
+     * @return The result of the verification.
+     */
+    public ChecksumVerifier verifyChecksums() {
+        return ChecksumVerifier.verify(buffer, tables);
+    }
+    
+    /**
+     * @return The directory of the tables in this font.
+     */
+    public TableDirectory getTableDirectory() {
+        return tables;
+    }
+    
+    /**
+     * Gets the strings of the <code>name</code> table of this font, which is
+     * read the first time that this method is called.
+     * 
+     * @return The names of this font.
+     */
+    public synchronized NameTable getNameTable() {
+        if (names == null) names = new NameTable(getBufferForTable(name));
+        
+        return names;
+    }
+    
+    /**
+     * @return The cache of parsed tables which this font shares with the
+     *         other faces of its collection.
+     */
+    public TableCache getTableCache() {
+        return shared;
+    }
+    
+    /*
+     * Gets the object parsed from the table with the given tag through the
+     * table cache, so that faces which share the table share the object.
+     */
+    private <T> T shared(int tag, Supplier<? extends T> parser) {
+        return shared.get(tag, getOffset(tag), parser);
+    }
+    
+    // Gets the offset of a table in the font file, or -1 if it is missing.
+    private int getOffset(int tag) {
+        int index = tables.indexOf(tag);
+        
+        return index >= 0 ? tables.getOffset(index) : -1;
+    }
+    
     public int getUPEM() {
         return unitsPerEm;
     }
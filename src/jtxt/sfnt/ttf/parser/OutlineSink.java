@@ -0,0 +1,104 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.awt.geom.Path2D;
+
+/**
+ * Receives the segments of a glyph outline as they are decoded from the font.
+ * An {@code OutlineSink} allows the consumer of an outline (a rasterizer, for
+ * instance, or something which computes the bounds of the outline) to be
+ * driven directly by the decoder, so that the outline never needs to be
+ * built as an intermediate shape.
+ * 
+ * <p>
+ * Every contour begins with a call to {@link #moveTo(float, float)} and ends
+ * with a call to {@link #closePath()}. Coordinates are given in whatever
+ * space the decoder produces, which is FUnits unless the sink has been
+ * wrapped in a {@link TransformingSink}.
+ * </p>
+ * 
+ * <p>
+ * TrueType outlines are made only of lines and quadratic curves, while the
+ * outlines of fonts with a <code>CFF</code> or <code>CFF2</code> table are
+ * made of lines and cubic curves, so a sink must accept both kinds of curve.
+ * </p>
+ */
+public interface OutlineSink {
+    void moveTo(float x, float y);
+    
+    void lineTo(float x, float y);
+    
+    /**
+     * Adds a quadratic Bezier curve from the current point to (x,&nbsp;y),
+     * using (cx,&nbsp;cy) as the control point.
+     */
+    void quadTo(float cx, float cy, float x, float y);
+    
+    /**
+     * Adds a cubic Bezier curve from the current point to (x,&nbsp;y), using
+     * (c1x,&nbsp;c1y) and (c2x,&nbsp;c2y) as the control points.
+     */
+    void curveTo(float c1x,
+                 float c1y,
+                 float c2x,
+                 float c2y,
+                 float x,
+                 float y);
+    
+    void closePath();
+    
+    /**
+     * Creates a sink which appends the outline it receives to the given path.
+     * 
+     * @param path The path to append the outline to.
+     * 
+     * @return A sink which writes into the path.
+     */
+    static OutlineSink of(Path2D path) {
+        return new OutlineSink() {
+            @Override
+            public void moveTo(float x, float y) {
+                path.moveTo(x, y);
+            }
+            
+            @Override
+            public void lineTo(float x, float y) {
+                path.lineTo(x, y);
+            }
+            
+            @Override
+            public void quadTo(float cx, float cy, float x, float y) {
+                path.quadTo(cx, cy, x, y);
+            }
+            
+            @Override
+            public void curveTo(float c1x,
+                                float c1y,
+                                float c2x,
+                                float c2y,
+                                float x,
+                                float y) {
+                path.curveTo(c1x, c1y, c2x, c2y, x, y);
+            }
+            
+            @Override
+            public void closePath() {
+                path.closePath();
+            }
+        };
+    }
+}
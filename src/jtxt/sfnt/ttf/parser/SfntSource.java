@@ -0,0 +1,161 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The data of a font file, wherever it comes from. The parser reads fonts
+ * through a single buffer containing the whole file, so a source only has to
+ * provide that buffer: files are mapped into memory, arrays and buffers which
+ * already hold a font are wrapped as they are, and fonts which can only be
+ * streamed (such as those in a jar or fetched over a network) are read once
+ * into a direct buffer.
+ * 
+ * <p>
+ * The buffer of a source begins with the first byte of the font at index
+ * zero and uses the big-endian byte order of the file. The parser never
+ * modifies the buffer, or the array or buffer which it wraps.
+ * </p>
+ */
+public interface SfntSource {
+    /**
+     * @return A buffer containing the font file, from index zero to its
+     *         limit.
+     */
+    ByteBuffer getBuffer();
+    
+    /**
+     * Creates a source for the font file at the given path, which is mapped
+     * into memory rather than read.
+     * 
+     * @param file The font file.
+     * 
+     * @return A source for the font file.
+     */
+    static SfntSource of(File file) {
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                          0,
+                                          raf.length());
+        }
+        catch (IOException ioe) {
+            /*
+             * A general IOException has been thrown, which indicates that the
+             * file is not on disk or could not be read.
+             */
+            throw new IllegalArgumentException("The provided file could not "
+                                               + "be read from disk.");
+        }
+        
+        return () -> buffer;
+    }
+    
+    /**
+     * Creates a source for a font which is held in an array. The array is
+     * wrapped rather than copied, so it must not be modified while the font
+     * is in use.
+     * 
+     * @param data The font file.
+     * 
+     * @return A source for the font.
+     */
+    static SfntSource of(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        
+        return () -> buffer;
+    }
+    
+    /**
+     * Creates a source for a font which is held in a heap or direct buffer,
+     * from the position of the buffer to its limit. The contents of the
+     * buffer are not copied, and its position and limit are not changed.
+     * 
+     * @param data The buffer containing the font file.
+     * 
+     * @return A source for the font.
+     */
+    static SfntSource of(ByteBuffer data) {
+        ByteBuffer buffer = data.slice();
+        
+        return () -> buffer;
+    }
+    
+    /**
+     * Creates a source for a font by reading the given channel to its end
+     * into a direct buffer. The channel is not closed.
+     * 
+     * @param channel The channel to read the font from.
+     * 
+     * @return A source for the font.
+     */
+    static SfntSource of(ReadableByteChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (channel.read(buffer) >= 0) {
+                if (buffer.hasRemaining()) continue;
+                
+                ByteBuffer larger = ByteBuffer.allocateDirect(2
+                                                              * buffer
+                                                                .capacity());
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("The font could not be read "
+                                               + "from the channel.");
+        }
+        buffer.flip();
+        
+        return of(buffer);
+    }
+    
+    /**
+     * Creates a source for a font which is bundled as a resource, such as a
+     * font in the jar of an application.
+     * 
+     * @param loader The class loader to find the resource with.
+     * @param name The name of the resource, as given to
+     *             {@link ClassLoader#getResourceAsStream(String)}.
+     * 
+     * @return A source for the font.
+     */
+    static SfntSource ofResource(ClassLoader loader, String name) {
+        try (InputStream in = loader.getResourceAsStream(name)) {
+            if (in == null)
+                throw new IllegalArgumentException("There is no resource "
+                                                   + "named "
+                                                   + name);
+            
+            return of(Channels.newChannel(in));
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("The resource "
+                                               + name
+                                               + " could not be read.");
+        }
+    }
+}
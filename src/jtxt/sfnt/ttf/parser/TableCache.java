@@ -0,0 +1,98 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Holds the objects which are parsed from the tables of a font file, keyed by
+ * the tag and offset of the table they were parsed from. The faces of a font
+ * collection often point at the same tables (the fonts of a CJK collection
+ * usually share a single <code>glyf</code> table, for instance), and faces
+ * which share a cache also share anything parsed from those tables rather
+ * than each parsing a copy of their own.
+ */
+public final class TableCache {
+    private final Map<Object, Object> entries = new HashMap<>();
+    
+    /**
+     * Gets the object parsed from the table with the given tag and offset,
+     * parsing it if no face has done so yet. The parser is run without
+     * holding a lock, so two faces which ask for the same table at the same
+     * time may both parse it, but only one of the results is kept.
+     * 
+     * @param tag The tag of the table.
+     * @param offset The offset of the table in the font file.
+     * @param parser Parses the table, when it has not been parsed already.
+     * 
+     * @return The object parsed from the table.
+     */
+    public <T> T get(int tag, int offset, Supplier<? extends T> parser) {
+        return get((Object)((long)offset << 32 | tag & 0xFFFFFFFFL), parser);
+    }
+    
+    /**
+     * Gets an object which is parsed from several tables together, such as
+     * the horizontal metrics, which depend on both the <code>hmtx</code> and
+     * the <code>hhea</code> tables. The object is keyed by the offsets of all
+     * of the tables, so faces share it only when they share every one of
+     * them.
+     * 
+     * @param tag The tag of the main table which the object is parsed from.
+     * @param offsets The offsets in the font file of each table which the
+     *                object is parsed from, or -1 for a table which the face
+     *                does not contain.
+     * @param parser Parses the tables, when they have not been parsed
+     *               already.
+     * 
+     * @return The object parsed from the tables.
+     */
+    public <T> T get(int tag, int[] offsets, Supplier<? extends T> parser) {
+        List<Integer> key = new ArrayList<>(offsets.length + 1);
+        key.add(tag);
+        for (int offset : offsets) key.add(offset);
+        
+        return get((Object)key, parser);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T> T get(Object key, Supplier<? extends T> parser) {
+        synchronized (entries) {
+            Object entry = entries.get(key);
+            if (entry != null) return (T)entry;
+        }
+        
+        T entry = parser.get();
+        synchronized (entries) {
+            Object previous = entries.putIfAbsent(key, entry);
+            
+            return previous != null ? (T)previous : entry;
+        }
+    }
+    
+    /**
+     * @return The number of parsed tables held by this cache.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The table directory of a font, which records the tag, checksum, offset and
+ * length of every table in the font file. The records are held in primitive
+ * arrays sorted by tag, so a table is located with a binary search and no
+ * boxing.
+ * 
+ * <p>
+ * Reading the directory does not touch the tables themselves. Each table is
+ * handed out as a read-only slice of the font file which is bounded by the
+ * length of the table, so a reader of one table cannot stray into another.
+ * </p>
+ */
+public final class TableDirectory {
+    // The size of the offset table which precedes the table records.
+    private static final int HEADER_SIZE = 12,
+                             RECORD_SIZE = 16;
+    
+    private final int[] tags,
+                        checksums,
+                        offsets,
+                        lengths;
+    private final int sfntVersion;
+    
+    /**
+     * Reads the table directory at the given offset in the font file. This
+     * is the beginning of the file for a single font, or the offset of one of
+     * the fonts in a collection.
+     * 
+     * @param buffer The buffer containing the font file.
+     * @param offset The offset of the table directory in the buffer.
+     */
+    public TableDirectory(ByteBuffer buffer, int offset) {
+        if (buffer.limit() < offset + HEADER_SIZE)
+            throw new IllegalArgumentException("The font file is too short to "
+                                               + "contain a table directory.");
+        
+        sfntVersion = buffer.getInt(offset);
+        int numTables = buffer.getShort(offset + 4) & 0xFFFF;
+        if (buffer.limit() < offset + HEADER_SIZE + numTables * RECORD_SIZE)
+            throw new IllegalArgumentException("The table directory of the "
+                                               + "font is truncated.");
+        
+        tags = new int[numTables];
+        checksums = new int[numTables];
+        offsets = new int[numTables];
+        lengths = new int[numTables];
+        
+        /*
+         * The specification requires the records to be sorted by tag already,
+         * but an insertion sort costs nothing for a sorted directory and
+         * protects the binary search from fonts which break that rule.
+         */
+        for (int i = 0; i < numTables; i++) {
+            int record = offset + HEADER_SIZE + i * RECORD_SIZE;
+            int tag = buffer.getInt(record),
+                checksum = buffer.getInt(record + 4),
+                tableOffset = buffer.getInt(record + 8),
+                length = buffer.getInt(record + 12);
+            if (tableOffset < 0
+                || length < 0
+                || (long)tableOffset + length > buffer.limit())
+                throw new IllegalArgumentException("The "
+                                                   + OTFFileReader
+                                                     .DataConverter
+                                                     .getTagAsString(tag)
+                                                   + " table lies outside "
+                                                   + "of the font file.");
+            
+            int j = i;
+            while (j > 0 && Integer.compareUnsigned(tags[j - 1], tag) > 0) {
+                tags[j] = tags[j - 1];
+                checksums[j] = checksums[j - 1];
+                offsets[j] = offsets[j - 1];
+                lengths[j] = lengths[j - 1];
+                j--;
+            }
+            tags[j] = tag;
+            checksums[j] = checksum;
+            offsets[j] = tableOffset;
+            lengths[j] = length;
+        }
+    }
+    
+    /**
+     * Finds the record for the table with the given tag.
+     * 
+     * @param tag The tag of the table.
+     * 
+     * @return The index of the record for the table, or a negative value if
+     *         the font does not contain the table.
+     */
+    public int indexOf(int tag) {
+        int low = 0,
+            high = tags.length - 1;
+        while (low <= high) {
+            int mid = low + high >>> 1;
+            int cmp = Integer.compareUnsigned(tags[mid], tag);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        
+        return -1;
+    }
+    
+    public boolean contains(int tag) {
+        return indexOf(tag) >= 0;
+    }
+    
+    /**
+     * @return The number of tables in the font.
+     */
+    public int getTableCount() {
+        return tags.length;
+    }
+    
+    public int getTag(int index) {
+        return tags[index];
+    }
+    
+    public int getChecksum(int index) {
+        return checksums[index];
+    }
+    
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+    
+    public int getLength(int index) {
+        return lengths[index];
+    }
+    
+    /**
+     * @return The version of the font, which is <code>0x00010000</code> for
+     *         fonts with TrueType outlines and <code>'OTTO'</code> for fonts
+     *         with CFF outlines.
+     */
+    public int getSfntVersion() {
+        return sfntVersion;
+    }
+    
+    /**
+     * Creates a read-only view of the table with the given tag. The view
+     * begins at position zero, at the start of the table, and its limit is
+     * the length of the table.
+     * 
+     * @param buffer The buffer containing the font file.
+     * @param tag The tag of the table.
+     * 
+     * @return A new buffer containing only the table.
+     * 
+     * @throws IllegalArgumentException If the font does not contain the
+     *                                  table.
+     */
+    public ByteBuffer slice(ByteBuffer buffer, int tag) {
+        int index = indexOf(tag);
+        if (index < 0)
+            throw new IllegalArgumentException("The font does not contain a "
+                                               + OTFFileReader
+                                                 .DataConverter
+                                                 .getTagAsString(tag)
+                                               + " table.");
+        
+        ByteBuffer table = buffer.duplicate();
+        table.limit(offsets[index] + lengths[index]);
+        table.position(offsets[index]);
+        
+        return table.slice().asReadOnlyBuffer();
+    }
+}
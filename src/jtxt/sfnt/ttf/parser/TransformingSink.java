@@ -0,0 +1,118 @@
+/* 
+ * Copyright 2019 Lane W. Surface
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jtxt.sfnt.ttf.parser;
+
+import java.awt.geom.AffineTransform;
+
+/**
+ * An {@code OutlineSink} which applies an affine transformation to each point
+ * of the outline before passing it on to another sink. This allows an
+ * outline to be scaled and positioned as it is decoded, rather than copying
+ * the finished shape through a transformation afterwards.
+ * 
+ * <p>
+ * Both the transformation and the destination of a {@code TransformingSink}
+ * may be changed, so a single instance can be reused for every glyph that is
+ * drawn.
+ * </p>
+ */
+public class TransformingSink implements OutlineSink {
+    private OutlineSink sink;
+    private float m00, m01, m02,
+                  m10, m11, m12;
+    
+    public TransformingSink(OutlineSink sink) {
+        this.sink = sink;
+        m00 = m11 = 1;
+    }
+    
+    public TransformingSink(OutlineSink sink, AffineTransform transform) {
+        this.sink = sink;
+        setTransform(transform);
+    }
+    
+    public void setSink(OutlineSink sink) {
+        this.sink = sink;
+    }
+    
+    public void setTransform(AffineTransform transform) {
+        setTransform(transform.getScaleX(),
+                     transform.getShearY(),
+                     transform.getShearX(),
+                     transform.getScaleY(),
+                     transform.getTranslateX(),
+                     transform.getTranslateY());
+    }
+    
+    /**
+     * Sets the transformation applied by this sink, where the arguments are
+     * given in the same order as the flat matrix of an
+     * {@code AffineTransform}.
+     */
+    public void setTransform(double m00,
+                             double m10,
+                             double m01,
+                             double m11,
+                             double m02,
+                             double m12) {
+        this.m00 = (float)m00;
+        this.m10 = (float)m10;
+        this.m01 = (float)m01;
+        this.m11 = (float)m11;
+        this.m02 = (float)m02;
+        this.m12 = (float)m12;
+    }
+    
+    @Override
+    public void moveTo(float x, float y) {
+        sink.moveTo(m00 * x + m01 * y + m02,
+                    m10 * x + m11 * y + m12);
+    }
+    
+    @Override
+    public void lineTo(float x, float y) {
+        sink.lineTo(m00 * x + m01 * y + m02,
+                    m10 * x + m11 * y + m12);
+    }
+    
+    @Override
+    public void quadTo(float cx, float cy, float x, float y) {
+        sink.quadTo(m00 * cx + m01 * cy + m02,
+                    m10 * cx + m11 * cy + m12,
+                    m00 * x + m01 * y + m02,
+                    m10 * x + m11 * y + m12);
+    }
+    
+    @Override
+    public void curveTo(float c1x,
+                        float c1y,
+                        float c2x,
+                        float c2y,
+                        float x,
+                        float y) {
+        sink.curveTo(m00 * c1x + m01 * c1y + m02,
+                     m10 * c1x + m11 * c1y + m12,
+                     m00 * c2x + m01 * c2y + m02,
+                     m10 * c2x + m11 * c2y + m12,
+                     m00 * x + m01 * y + m02,
+                     m10 * x + m11 * y + m12);
+    }
+    
+    @Override
+    public void closePath() {
+        sink.closePath();
+    }
+}